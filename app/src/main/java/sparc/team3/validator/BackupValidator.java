@@ -1,39 +1,21 @@
 package sparc.team3.validator;
 
 import ch.qos.logback.classic.LoggerContext;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import org.apache.commons.cli.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.backup.BackupClient;
-import software.amazon.awssdk.services.ec2.Ec2Client;
-import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
-import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
-import software.amazon.awssdk.services.ec2.model.Instance;
-import software.amazon.awssdk.services.rds.RdsClient;
-import software.amazon.awssdk.services.rds.model.DBInstance;
-import software.amazon.awssdk.services.rds.model.DescribeDbInstancesRequest;
-import software.amazon.awssdk.services.rds.model.DescribeDbInstancesResponse;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.sns.SnsClient;
 import sparc.team3.validator.config.ConfigEditor;
 import sparc.team3.validator.config.ConfigLoader;
 import sparc.team3.validator.config.SeleniumEditor;
 import sparc.team3.validator.config.SeleniumLoader;
-import sparc.team3.validator.restore.*;
+import sparc.team3.validator.restore.AWSRestore;
+import sparc.team3.validator.util.AWSClients;
 import sparc.team3.validator.util.CLI;
 import sparc.team3.validator.config.settings.Settings;
-import sparc.team3.validator.util.Notification;
-import sparc.team3.validator.util.RemoteServerConfigurator;
 import sparc.team3.validator.util.Util;
-import sparc.team3.validator.config.seleniumsettings.SeleniumSettings;
-import sparc.team3.validator.validate.EC2ValidateInstance;
-import sparc.team3.validator.validate.RDSValidate;
 import sparc.team3.validator.validate.S3ValidateBucket;
-import sparc.team3.validator.validate.WebAppValidate;
+import sparc.team3.validator.config.seleniumsettings.SeleniumSettings;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -43,8 +25,7 @@ import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main class, sets up BackupValidator to run.
@@ -53,30 +34,10 @@ public class BackupValidator {
     final Options options;
     final CommandLineParser parser;
     final CLI cli;
-    ConfigLoader configLoader;
-    Settings settings;
-    Path saveLocation;
-    SeleniumSettings seleniumSettings;
     Logger logger;
-    BackupClient backupClient;
-    Ec2Client ec2Client;
-    S3Client s3Client;
-    RdsClient rdsClient;
-    SnsClient snsClient;
-    EC2Restore ec2Restore;
-    S3Restore s3Restore;
-    RDSRestore rdsRestore;
-    Instance ec2Instance;
-    String restoredBucketName;
-    DBInstance rdsInstance;
-    EC2ValidateInstance ec2ValidateInstance;
-    RDSValidate rdsValidateDatabase;
-    S3ValidateBucket s3ValidateBucket;
-    private Boolean ec2Passed = false;
-    private Boolean rdsPassed = false;
-    private Boolean s3Passed = false;
-    private Boolean systemPassed = null;
-    private Map<String, String> loadedResourcesMap;
+    private final Map<String, AWSClients> clients = new HashMap<>();
+    private final List<StackValidator> stacks = new ArrayList<>();
+    private final List<String> stacksNotLoaded = new ArrayList<>();
 
     /**
      * Constructs the BackupValidator class by setting up the command line options and parser.
@@ -126,6 +87,17 @@ public class BackupValidator {
 
         options.addOption(new Option("xr", "donotrestore", false, "Do not restore.  Will use saved instance information to get previously restored instances"));
         options.addOption(new Option("xt", "donotterminate", false, "Do not terminate.  Will save instance information of restored instances to be used later."));
+        options.addOption(Option.builder("f")
+                .longOpt("fleet")
+                .hasArg().argName("directory")
+                .desc("Fleet Directory: validate every stack in the directory concurrently.  Each subdirectory holding a "
+                        + Util.DEFAULT_CONFIG_FILENAME + " is a stack and may hold its own " + Util.DEFAULT_SELENIUM_FILENAME
+                        + ", otherwise the selenium file from '--selenium' is used").build());
+        options.addOption(Option.builder("fc")
+                .longOpt("fleet-concurrency")
+                .hasArg().argName("number")
+                .desc("Fleet Concurrency: maximum number of stacks validated at the same time in fleet mode [default: "
+                        + FleetValidator.DEFAULT_CONCURRENCY + "]").build());
     }
 
     /**
@@ -183,327 +155,110 @@ public class BackupValidator {
                 seleniumEditor.runEditor();
                 return;
             }
-            configLoader = new ConfigLoader(cli, configFile);
-            SeleniumLoader seleniumLoader = new SeleniumLoader(cli, seleniumFile);
-
-            try {
-                seleniumSettings = seleniumLoader.loadSettings();
-                settings = configLoader.loadSettings();
-            } catch (IOException e){
-                logger.error("Missing config files: {}", e.getMessage());
-                return;
-            }
-
-            if (settings == null)
-                return;
-            saveLocation = configLoader.getActualConfigDir();
-            saveLocation = saveLocation.resolve("save.json");
+            boolean restore = !line.hasOption("donotrestore");
+            boolean terminate = !line.hasOption("donotterminate");
 
-            logger.debug("Settings: {}", settings);
+            if (line.hasOption("fleet")) {
+                int concurrency = Integer.parseInt(line.getOptionValue("fleet-concurrency", String.valueOf(FleetValidator.DEFAULT_CONCURRENCY)));
+                FleetValidator fleetValidator = new FleetValidator(cli, Paths.get(line.getOptionValue("fleet")), seleniumFile, concurrency, this::getClients);
+                stacksNotLoaded.addAll(fleetValidator.loadStacks(stacks));
+                if (stacks.isEmpty() && stacksNotLoaded.isEmpty()) {
+                    logger.error("No stacks with a {} found in {}", Util.DEFAULT_CONFIG_FILENAME, line.getOptionValue("fleet"));
+                    return;
+                }
+                fleetValidator.run(stacks, restore, terminate);
+            } else {
+                ConfigLoader configLoader = new ConfigLoader(cli, configFile);
+                SeleniumLoader seleniumLoader = new SeleniumLoader(cli, seleniumFile);
+                SeleniumSettings seleniumSettings;
+                Settings settings;
 
-            Region region = Region.of(settings.getAwsRegion());
-            backupClient = BackupClient.builder().region(region).build();
-            ec2Client = Ec2Client.builder().region(region).build();
-            s3Client = S3Client.builder().region(region).build();
-            rdsClient = RdsClient.builder().region(region).build();
-            snsClient = SnsClient.builder().region(region).build();
+                try {
+                    seleniumSettings = seleniumLoader.loadSettings();
+                    settings = configLoader.loadSettings();
+                } catch (IOException e){
+                    logger.error("Missing config files: {}", e.getMessage());
+                    return;
+                }
 
-            boolean restore = !line.hasOption("donotrestore");
-            boolean terminate = !line.hasOption("donotterminate");
+                if (settings == null)
+                    return;
+                Path saveLocation = configLoader.getActualConfigDir();
+                saveLocation = saveLocation.resolve("save.json");
 
-            boolean pass = restoreAndValidate(restore);
+                logger.debug("Settings: {}", settings);
 
-            saveInstances();
-            if(pass)
-                systemPassed = validateSystem();
+                AWSClients stackClients = getClients(settings.getAwsRegion(),
+                        S3ValidateBucket.syncConnections(settings.getValidationSettings().getS3ListingConcurrency()),
+                        S3ValidateBucket.asyncConnections(settings.getValidationSettings().getS3MaxInFlight()));
+                StackValidator stack = new StackValidator(null, settings, seleniumSettings, saveLocation, stackClients);
+                stacks.add(stack);
+                stack.run(restore, terminate);
+            }
 
-            cleanUp(terminate);
-            report();
+            try {
+                report();
+            } finally {
+                cleanUp();
+            }
 
         } catch (Exception e) {
             logger.error("{}: {}: Instances were not terminated.", e.getClass().getSimpleName(), e.getMessage());
             try {
-                cleanUp(false);
                 report(e);
-            } catch (InterruptedException | IOException ex) {
+            } catch (IOException ex) {
                 throw new RuntimeException(ex);
+            } finally {
+                cleanUp();
             }
-            if(Arrays.stream(args).anyMatch(s -> s.equals("--debug") || s.equals("-d"))){
+            if(isDebug(args)){
                 throw new RuntimeException(e);
             }
         }
-    }
 
+        if(stacks.size() == 1 && stacks.get(0).getThrown() != null && isDebug(args))
+            throw new RuntimeException(stacks.get(0).getThrown());
+    }
 
     /**
-     * Uses a fixed thread pool from {@link Util#executor} to run the call methods
-     * to restore and validate single instances and buckets.  Once this method is done,
-     * EC2, RDS, and S3 will be restored and the instance/bucket will have been checked
-     * to see if the instance is working.
-     *
-     * @throws InterruptedException when another thread interrupts this one
+     * Whether the debug option was passed on the command line.
+     * @param args the string array from the command line
+     * @return boolean if debug is on
      */
-    private boolean restoreAndValidate(boolean restore) throws InterruptedException, IOException {
-        Future<Instance> ec2Future = null;
-        Future<DBInstance> rdsFuture = null;
-        Future<String> s3Future = null;
-
-        Future<Boolean> ec2ValidateFuture = null;
-        Future<Boolean> rdsValidateFuture = null;
-        Future<Boolean> s3ValidateFuture = null;
-
-        ec2ValidateInstance = new EC2ValidateInstance(ec2Client, settings.getEc2Settings());
-        rdsValidateDatabase = new RDSValidate(rdsClient, settings.getRdsSettings());
-        rdsValidateDatabase.setDBCredentials(settings.getDbUsername(), settings.getDbPassword());
-        rdsValidateDatabase.setDatabasesToCheck(settings.getDatabases());
-        s3ValidateBucket = new S3ValidateBucket(s3Client, settings.getS3Settings());
-
-        boolean ec2Checked = false;
-        boolean rdsChecked = false;
-        boolean s3Checked = false;
-
-        // If we are restoring start the restore threads and then enter the loop below to wait for them to complete
-        if(restore) {
-            ec2Restore = new EC2Restore(backupClient, ec2Client, settings.getEc2Settings());
-            s3Restore = new S3Restore(backupClient, s3Client, settings.getS3Settings());
-            rdsRestore = new RDSRestore(backupClient, rdsClient, settings.getRdsSettings());
-
-            ec2Future = Util.executor.submit(ec2Restore);
-            rdsFuture = Util.executor.submit(rdsRestore);
-            s3Future = Util.executor.submit(s3Restore);
-        }
-        // If we are not restoring, load the previous instances and start validating, then enter loop waiting for them to complete
-        else {
-            loadInstances();
-
-            ec2ValidateInstance.setEC2Instance(ec2Instance);
-            ec2ValidateFuture = Util.executor.submit(ec2ValidateInstance);
-
-            rdsValidateDatabase.setRestoredDbInstance(rdsInstance);
-            rdsValidateFuture = Util.executor.submit(rdsValidateDatabase);
-
-            s3ValidateBucket.setRestoredBucket(restoredBucketName);
-            s3ValidateFuture = Util.executor.submit(s3ValidateBucket);
-        }
-
-        // Stay in the loop until all three have been checked.
-        while (!ec2Checked || !rdsChecked || !s3Checked) {
-            // Only run the loop once every minute.  None of our tasks are particularly quick.
-            Thread.sleep(60000);
-            /* Wait until the restore is done before attempting instance validation
-             * Check if return value from future is set or not.  If it is,
-             * this block has already been run on this result
-             */
-            if (ec2Future != null && ec2Future.isDone() && ec2Instance == null && !ec2Checked) {
-                /* If an error occurs in the thread, future.get will throw an
-                 * ExecutionException wrapped around the exception that was
-                 * thrown in the thread
-                 */
-                try {
-                    ec2Instance = ec2Future.get();
-                    ec2ValidateInstance.setEC2Instance(ec2Instance);
-
-                    ec2ValidateFuture = Util.executor.submit(ec2ValidateInstance);
-                } catch (ExecutionException e) {
-                    logger.error("Restoring EC2 instance failed. Cause: {}", e.getMessage());
-                    ec2Checked = true;
-                }
-            }
-
-            if (rdsFuture != null && rdsFuture.isDone() && rdsInstance == null && !rdsChecked) {
-                try {
-                    rdsInstance = rdsFuture.get();
-                    rdsValidateDatabase.setRestoredDbInstance(rdsInstance);
-                    rdsValidateFuture = Util.executor.submit(rdsValidateDatabase);
-                } catch (ExecutionException e) {
-                    logger.error("Restoring RDS instance failed. Cause: {}", e.getMessage());
-                    rdsChecked = true;
-                }
-            }
-
-            if (s3Future != null && s3Future.isDone() && restoredBucketName == null && !s3Checked) {
-                try {
-                    restoredBucketName = s3Future.get();
-                    s3ValidateBucket.setRestoredBucket(restoredBucketName);
-                    s3ValidateFuture = Util.executor.submit(s3ValidateBucket);
-                } catch (ExecutionException e) {
-                    logger.error("Restoring S3 bucket failed. Cause: {}", e.getMessage());
-                    s3Checked = true;
-                }
-
-            }
-
-            // If the validateFuture has been set then check if it is done
-            // Don't run if its already been checked.
-            if (!ec2Checked && ec2ValidateFuture != null && ec2ValidateFuture.isDone()) {
-                try {
-                    ec2Passed = ec2ValidateFuture.get();
-                    if (ec2Passed) {
-                        logger.info("EC2 Restored Instance Validation Passed");
-
-                    } else {
-                        logger.info("EC2 Restored Instance Validation Failed");
-                    }
-                } catch (ExecutionException e) {
-                    logger.error("EC2 instance validation failed. Cause: {}", e.getMessage());
-                }
-                ec2Checked = true;
-            }
-
-            if (!rdsChecked && rdsValidateFuture != null && rdsValidateFuture.isDone()) {
-                try {
-                    rdsPassed = rdsValidateFuture.get();
-                    if (rdsPassed) {
-                        logger.info("Restored Database Validation Passed");
-
-                    } else {
-                        logger.info("Restored Database Validation Failed");
-                    }
-                } catch (ExecutionException e) {
-                    logger.error("RDS database validation failed. Cause: {}", e.getMessage());
-                }
-                rdsChecked = true;
-            }
-
-            if (!s3Checked && s3ValidateFuture != null && s3ValidateFuture.isDone()) {
-                try {
-                    s3Passed = s3ValidateFuture.get();
-                    if (s3Passed) {
-                        logger.info("S3 Restored Bucket Passed");
-
-                    } else {
-                        logger.error("S3 Restored Bucket Failed");
-                    }
-                } catch (ExecutionException e) {
-                    logger.error("S3 bucket validation failed. Cause: {}", e.getMessage());
-                }
-                s3Checked = true;
-            }
-        }
-        return ec2Passed && rdsPassed && s3Passed;
+    private static boolean isDebug(String[] args) {
+        return Arrays.stream(args).anyMatch(s -> s.equals("--debug") || s.equals("-d"));
     }
 
     /**
-     * This method will validate that EC2, RDS, and S3 bucket are working as a whole system and
-     * not just the individual pieces.
+     * Gets the AWS clients for a region, creating them the first time the region is used so stacks in the same
+     * region share one set of clients.
+     * @param awsRegion String of the AWS region
+     * @param s3Connections int of the requests the region's stacks send at once on the S3Client
+     * @param s3AsyncConnections int of the requests the region's stacks send at once on the S3AsyncClient
+     * @return AWSClients for the region
      */
-    private boolean validateSystem() throws Exception {
-        // Spin up restored instances to get new hostnames/bucket name
-        ConfigLoader.replaceHostname(ec2Instance.publicDnsName(), rdsInstance.endpoint().address(), restoredBucketName, settings);
-        if(!System.getProperty("user.name").startsWith("ec2"))
-            new RemoteServerConfigurator(ec2Instance.publicIpAddress(), settings);
-        else
-            new RemoteServerConfigurator(ec2Instance.privateIpAddress(), settings);
-
-        WebAppValidate webAppValidate = new WebAppValidate(ec2Instance, seleniumSettings);
-
-        boolean webAppPass = webAppValidate.call();
-        if(webAppPass)
-            logger.info("Web App has passed Selenium validation tests.");
-        else
-            logger.warn("Web App has failed Selenium validation tests.");
-
-        return webAppPass;
+    private synchronized AWSClients getClients(String awsRegion, int s3Connections, int s3AsyncConnections) {
+        return clients.computeIfAbsent(awsRegion, region -> new AWSClients(Region.of(region), s3Connections, s3AsyncConnections));
     }
 
     /**
-     * If the user wishes to terminate the restored instances, terminates/deletes those instances.
-     * Closes clients and shutsdown executor
-     * @param terminate boolean whether to terminate restored instances
-     * @throws IOException if there is an IO error
-     * @throws InterruptedException if executor is interrupted
+     * Waits for restores that lost to be torn down, then closes clients and shuts down the executor.
      */
-    private void cleanUp(boolean terminate) throws IOException, InterruptedException {
-        if(terminate) {
-            if (ec2Instance != null)
-                Util.terminateEC2Instance(ec2Instance.instanceId(), ec2Client);
-            if (rdsInstance != null)
-                Util.deleteDBInstance(rdsInstance.dbInstanceIdentifier(), rdsClient);
-            if (restoredBucketName != null)
-                Util.deleteS3Instance(restoredBucketName, s3Client);
-            if(Files.exists(saveLocation))
-                Files.delete(saveLocation);
+    private void cleanUp() {
+        try {
+            // AWS Backup can't stop a restore job, so one that never finishes is only waited on for so long
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(AWSRestore.LOSER_WAIT_MINUTES);
+            for (StackValidator stack : stacks)
+                stack.awaitRestores(deadline);
+        } catch (InterruptedException e) {
+            logger.error("Interrupted waiting for restores to be torn down");
+            Thread.currentThread().interrupt();
         }
-        backupClient.close();
-        ec2Client.close();
-        s3Client.close();
-        rdsClient.close();
+        clients.values().forEach(AWSClients::close);
+        clients.clear();
         Util.executor.shutdown();
     }
 
-    /**
-     * Save information about instances restored and the recovery points used to restore them.
-     * @throws IOException if there is an IO error saving the file.
-     */
-    private void saveInstances() throws IOException {
-        Map<String, String> saveResourcesMap = new HashMap<>();
-        saveResourcesMap.put("EC2", ec2Instance.instanceId());
-        saveResourcesMap.put("RDS", rdsInstance.dbInstanceIdentifier());
-        saveResourcesMap.put("S3", restoredBucketName);
-
-        String ec2RecoveryPoint = ec2Restore == null ? loadedResourcesMap.get("EC2RecoveryPoint") : ec2Restore.getCurrentRecoveryPoint().recoveryPointArn();
-        String rdsRecoveryPoint = rdsRestore == null ? loadedResourcesMap.get("RDSRecoveryPoint") : rdsRestore.getCurrentRecoveryPoint().recoveryPointArn();
-        String s3RecoveryPoint = s3Restore == null ? loadedResourcesMap.get("S3RecoveryPoint") : s3Restore.getCurrentRecoveryPoint().recoveryPointArn();
-
-        saveResourcesMap.put("EC2RecoveryPoint", ec2RecoveryPoint);
-        saveResourcesMap.put("RDSRecoveryPoint", rdsRecoveryPoint);
-        saveResourcesMap.put("S3RecoveryPoint", s3RecoveryPoint);
-
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.enable(SerializationFeature.INDENT_OUTPUT);
-        mapper.writeValue(saveLocation.toFile(), saveResourcesMap);
-    }
-
-    /**
-     * Loads information about previously restored but not terminated instances and the recovery points used to restore them.
-     * @throws IOException if there is an IO error
-     */
-    private void loadInstances() throws IOException {
-        TypeReference<HashMap<String, String>> typeReference = new TypeReference<HashMap<String, String>>(){};
-
-        if(!Files.exists(saveLocation))
-            logger.error("Save file 'save.json' does not exist in {} to load.  Please load a config file from the same " +
-                    "location as your save file or run {} without the 'donotrestore' option",
-                    saveLocation.getParent(), Util.APP_DISPLAY_NAME);
-
-        ObjectMapper mapper = new ObjectMapper();
-
-        loadedResourcesMap = mapper.readValue(saveLocation.toFile(), typeReference);
-
-        // Set S3 restored bucket name
-        restoredBucketName = loadedResourcesMap.get("S3");
-
-        if(restoredBucketName.isEmpty())
-            throw new IOException("Missing restored bucket name in save file.");
-
-        String ec2InstanceID = loadedResourcesMap.get("EC2");
-
-        if(ec2InstanceID == null || ec2InstanceID.isEmpty())
-            throw new IOException("Missing restored EC2 instance-id in save file.");
-
-        String dbIdentifier = loadedResourcesMap.get("RDS");
-
-        if(dbIdentifier == null || dbIdentifier.isEmpty())
-            throw new IOException("Missing restored DB identifier in save file.");
-
-        // Use the saved EC2 instance-id to get the Instance back from AWS
-        DescribeInstancesRequest.Builder describeInstancesRequest  = DescribeInstancesRequest.builder().instanceIds(ec2InstanceID);
-        DescribeInstancesResponse describeInstancesResponse = ec2Client.describeInstances(describeInstancesRequest.build());
-        if(!describeInstancesResponse.reservations().isEmpty() && !describeInstancesResponse.reservations().get(0).instances().isEmpty())
-            ec2Instance = describeInstancesResponse.reservations().get(0).instances().get(0);
-        else
-            throw new IOException("EC2 Instance " + ec2InstanceID + " does not exist");
-
-        // Use the saved DB instance identifier to get the
-        DescribeDbInstancesRequest.Builder describeDbInstancesRequest = DescribeDbInstancesRequest.builder().dbInstanceIdentifier(dbIdentifier);
-        DescribeDbInstancesResponse describeDbInstances = rdsClient.describeDBInstances(describeDbInstancesRequest.build());
-        if(!describeDbInstances.dbInstances().isEmpty())
-            rdsInstance = describeDbInstances.dbInstances().get(0);
-        else
-            throw new IOException("RDS Instance " + dbIdentifier + " does not exist");
-
-    }
-
     /**
      * Build and send the final report of what has passed and any tests failed during testing.
      * @param thrown Exception that may need to be included in report
@@ -523,20 +278,15 @@ public class BackupValidator {
                 .append(String.format("%s Report %s\n\n", Util.APP_DISPLAY_NAME, date));
 
         if(thrown == null) {
-            String ec2RecoveryPoint = ec2Restore == null ? loadedResourcesMap.getOrDefault("EC2RecoveryPoint", "Missing Recovery Point Arn") : ec2Restore.getCurrentRecoveryPoint().recoveryPointArn();
-            String rdsRecoveryPoint = rdsRestore == null ? loadedResourcesMap.getOrDefault("RDSRecoveryPoint", "Missing Recovery Point Arn") : rdsRestore.getCurrentRecoveryPoint().recoveryPointArn();
-            String s3RecoveryPoint = s3Restore == null ? loadedResourcesMap.getOrDefault("S3RecoveryPoint", "Missing Recovery Point Arn") : s3Restore.getCurrentRecoveryPoint().recoveryPointArn();
-
-            stringBuilder
-                    .append(String.format("EC2 Recovery Point: %s\n\tPassed Tests: %s\n", ec2RecoveryPoint, ec2Passed))
-                    .append(String.format("RDS Recovery Point: %s\n\tPassed Tests: %s\n", rdsRecoveryPoint, rdsPassed))
-                    .append(String.format("S3 Recovery Point: %s\n\tPassed Tests: %s\n", s3RecoveryPoint, s3Passed))
-                    .append(String.format("Web App Validation\n\tPassed Tests: %s\n", (systemPassed != null ? systemPassed : "Not Tested")));
-
-            passed = ec2Passed && rdsPassed && s3Passed;
-
-            if (passed)
-                passed = systemPassed != null ? systemPassed : false;
+            passed = !stacks.isEmpty() && stacksNotLoaded.isEmpty();
+            for (StackValidator stack : stacks) {
+                stack.appendReport(stringBuilder);
+                passed = passed && stack.passed();
+                if (stacks.size() > 1)
+                    stringBuilder.append("\n");
+            }
+            for (String stack : stacksNotLoaded)
+                stringBuilder.append(String.format("Stack: %s\n\tUnable to load settings\n", stack));
         } else {
             stringBuilder.append("Program terminated because of an error.\n").append(thrown);
         }
@@ -557,15 +307,19 @@ public class BackupValidator {
             }
         }
 
-        Path finalReport = Paths.get(Util.APP_DIR_NAME + "Reports", "final-report" + date + ".txt");
+        Path finalReport = Util.REPORTS_DIR.resolve("final-report" + date + ".txt");
         Files.createDirectories(finalReport.getParent());
 
         try(BufferedWriter bufferedWriter = Files.newBufferedWriter(finalReport)){
             bufferedWriter.write(stringBuilder.toString());
         }
 
-        if(settings.getSnsTopicArn() != null && !settings.getSnsTopicArn().isEmpty())
-            Notification.sendSnsMessage(stringBuilder.toString(), settings.getSnsTopicArn(), snsClient);
+        // Send the report once to each topic, stacks in a fleet often share one
+        Set<String> topicsSent = new HashSet<>();
+        for (StackValidator stack : stacks) {
+            if (topicsSent.add(stack.getSnsTopicArn()))
+                stack.sendReport(stringBuilder.toString());
+        }
     }
 
     /**
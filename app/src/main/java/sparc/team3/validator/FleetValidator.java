@@ -0,0 +1,203 @@
+package sparc.team3.validator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sparc.team3.validator.config.ConfigLoader;
+import sparc.team3.validator.config.SeleniumLoader;
+import sparc.team3.validator.config.seleniumsettings.SeleniumSettings;
+import sparc.team3.validator.config.settings.Settings;
+import sparc.team3.validator.util.AWSClients;
+import sparc.team3.validator.util.CLI;
+import sparc.team3.validator.util.Util;
+import sparc.team3.validator.validate.S3ValidateBucket;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Validates many application stacks concurrently in one process.  Every subdirectory of the fleet directory that
+ * holds a config file is a stack, its save file is kept next to its config file just like a single stack.
+ */
+class FleetValidator {
+    /**
+     * The default number of stacks validated at the same time is {@value}.
+     */
+    static final int DEFAULT_CONCURRENCY = 4;
+    /**
+     * Minutes between progress messages while waiting for the stacks.
+     */
+    private static final long PROGRESS_MINUTES = 10;
+    private final CLI cli;
+    private final Path fleetDir;
+    private final String defaultSeleniumFile;
+    private final int concurrency;
+    private final ClientsForRegion clientsForRegion;
+    private final Logger logger;
+
+    /**
+     * Sets up the fleet.
+     *
+     * @param cli                 CLI used by the config loaders
+     * @param fleetDir            Path of the directory holding a subdirectory for each stack
+     * @param defaultSeleniumFile String location of the selenium file used by stacks without their own
+     * @param concurrency         int maximum number of stacks validated at the same time
+     * @param clientsForRegion    ClientsForRegion returning the shared AWSClients for a region
+     */
+    FleetValidator(CLI cli, Path fleetDir, String defaultSeleniumFile, int concurrency, ClientsForRegion clientsForRegion) {
+        this.cli = cli;
+        this.fleetDir = fleetDir;
+        this.defaultSeleniumFile = defaultSeleniumFile;
+        this.concurrency = Math.max(1, concurrency);
+        this.clientsForRegion = clientsForRegion;
+        this.logger = LoggerFactory.getLogger(this.getClass().getName());
+    }
+
+    /**
+     * Loads the settings of every stack in the fleet directory.  A stack whose settings can't be loaded is
+     * left out without stopping the others from loading.  The S3 clients of each region are sized for the stacks
+     * in it that send the most requests at once, as many of them as can run at the same time.
+     *
+     * @param stacks List the loaded stacks are added to
+     * @return List of the names of stacks that could not be loaded
+     * @throws IOException if the fleet directory can't be read
+     */
+    List<String> loadStacks(List<StackValidator> stacks) throws IOException {
+        List<String> notLoaded = new ArrayList<>();
+        List<Path> stackDirs;
+        try (Stream<Path> dirs = Files.list(fleetDir)) {
+            stackDirs = dirs.filter(dir -> Files.isRegularFile(dir.resolve(Util.DEFAULT_CONFIG_FILENAME)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        List<LoadedStack> loaded = new ArrayList<>();
+        for (Path stackDir : stackDirs) {
+            String name = stackDir.getFileName().toString();
+            Path seleniumFile = stackDir.resolve(Util.DEFAULT_SELENIUM_FILENAME);
+            try {
+                ConfigLoader configLoader = new ConfigLoader(cli, stackDir.toString());
+                Settings settings = configLoader.loadSettings();
+                SeleniumSettings seleniumSettings = new SeleniumLoader(cli,
+                        Files.exists(seleniumFile) ? seleniumFile.toString() : defaultSeleniumFile).loadSettings();
+
+                logger.debug("Stack {} Settings: {}", name, settings);
+                loaded.add(new LoadedStack(name, settings, seleniumSettings, configLoader.getActualConfigDir().resolve("save.json")));
+            } catch (IOException | RuntimeException e) {
+                logger.error("Unable to load stack {}: {}", name, e.getMessage());
+                notLoaded.add(name);
+            }
+        }
+
+        Map<String, List<LoadedStack>> byRegion = loaded.stream()
+                .collect(Collectors.groupingBy(stack -> stack.settings.getAwsRegion()));
+        for (LoadedStack stack : loaded) {
+            List<LoadedStack> sharing = byRegion.get(stack.settings.getAwsRegion());
+            AWSClients clients = clientsForRegion.get(stack.settings.getAwsRegion(),
+                    busiest(sharing, LoadedStack::s3Connections), busiest(sharing, LoadedStack::s3AsyncConnections));
+            stacks.add(new StackValidator(stack.name, stack.settings, stack.seleniumSettings, stack.saveLocation, clients));
+        }
+        logger.info("Loaded {} stacks from {}", stacks.size(), fleetDir);
+        return notLoaded;
+    }
+
+    /**
+     * The connections needed by the stacks that need the most, as many of them as can run at once.
+     */
+    private int busiest(List<LoadedStack> stacks, ToIntFunction<LoadedStack> connections) {
+        return stacks.stream()
+                .map(connections::applyAsInt)
+                .sorted(Comparator.reverseOrder())
+                .limit(concurrency)
+                .mapToInt(Integer::intValue)
+                .sum();
+    }
+
+    /**
+     * Runs every stack, with no more than the concurrency limit running at the same time, and waits for all of them
+     * to finish.  Anything thrown out of a stack's run, Errors included, is recorded on that stack for the report.
+     *
+     * @param stacks    List of stacks to run
+     * @param restore   boolean whether to restore new instances or load previously restored ones
+     * @param terminate boolean whether to terminate restored instances when done
+     * @throws InterruptedException if interrupted while waiting for the stacks
+     */
+    void run(List<StackValidator> stacks, boolean restore, boolean terminate) throws InterruptedException {
+        ExecutorService fleetExecutor = Executors.newFixedThreadPool(concurrency);
+        List<Future<?>> runs = new ArrayList<>(stacks.size());
+        for (StackValidator stack : stacks) {
+            runs.add(fleetExecutor.submit(() -> {
+                boolean passed = stack.run(restore, terminate);
+                logger.info("Stack {} finished. Passed: {}", stack.getName(), passed);
+            }));
+        }
+        fleetExecutor.shutdown();
+
+        long start = System.nanoTime();
+        while (!fleetExecutor.awaitTermination(PROGRESS_MINUTES, TimeUnit.MINUTES)) {
+            long finished = runs.stream().filter(Future::isDone).count();
+            logger.info("{} of {} stacks finished after {} minutes", finished, stacks.size(),
+                    TimeUnit.NANOSECONDS.toMinutes(System.nanoTime() - start));
+        }
+
+        for (int i = 0; i < stacks.size(); i++) {
+            try {
+                runs.get(i).get();
+            } catch (ExecutionException e) {
+                StackValidator stack = stacks.get(i);
+                logger.error("Stack {} stopped: {}", stack.getName(), e.getCause().toString());
+                stack.failed(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Gets the AWSClients shared by the stacks of a region.
+     */
+    interface ClientsForRegion {
+        /**
+         * @param region String of the AWS region
+         * @param s3Connections int of the requests the region's stacks send at once on the S3Client
+         * @param s3AsyncConnections int of the requests the region's stacks send at once on the S3AsyncClient
+         * @return AWSClients for the region
+         */
+        AWSClients get(String region, int s3Connections, int s3AsyncConnections);
+    }
+
+    /**
+     * A stack's settings, loaded before any clients are built so they can be sized for every stack.
+     */
+    private static final class LoadedStack {
+        final String name;
+        final Settings settings;
+        final SeleniumSettings seleniumSettings;
+        final Path saveLocation;
+
+        LoadedStack(String name, Settings settings, SeleniumSettings seleniumSettings, Path saveLocation) {
+            this.name = name;
+            this.settings = settings;
+            this.seleniumSettings = seleniumSettings;
+            this.saveLocation = saveLocation;
+        }
+
+        int s3Connections() {
+            return S3ValidateBucket.syncConnections(settings.getValidationSettings().getS3ListingConcurrency());
+        }
+
+        int s3AsyncConnections() {
+            return S3ValidateBucket.asyncConnections(settings.getValidationSettings().getS3MaxInFlight());
+        }
+    }
+}
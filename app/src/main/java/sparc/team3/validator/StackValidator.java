@@ -0,0 +1,456 @@
+package sparc.team3.validator;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import software.amazon.awssdk.services.backup.BackupClient;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.rds.RdsClient;
+import software.amazon.awssdk.services.rds.model.DBInstance;
+import software.amazon.awssdk.services.rds.model.DescribeDbInstancesRequest;
+import software.amazon.awssdk.services.rds.model.DescribeDbInstancesResponse;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.sns.SnsClient;
+import sparc.team3.validator.config.ConfigLoader;
+import sparc.team3.validator.config.seleniumsettings.SeleniumSettings;
+import sparc.team3.validator.config.settings.Settings;
+import sparc.team3.validator.config.settings.ValidationSettings;
+import sparc.team3.validator.restore.*;
+import sparc.team3.validator.util.AWSClients;
+import sparc.team3.validator.util.Notification;
+import sparc.team3.validator.util.RemoteServerConfigurator;
+import sparc.team3.validator.util.Util;
+import sparc.team3.validator.validate.EC2ValidateInstance;
+import sparc.team3.validator.validate.RDSValidate;
+import sparc.team3.validator.validate.S3ValidateBucket;
+import sparc.team3.validator.validate.WebAppValidate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * Restores and validates the EC2 instance, RDS instance and S3 bucket of a single application stack.
+ * All of the state for a stack lives here so several stacks can be validated at once without affecting each other.
+ */
+class StackValidator {
+    private final String name;
+    private final Settings settings;
+    private final SeleniumSettings seleniumSettings;
+    private final Path saveLocation;
+    private final Logger logger;
+    private final BackupClient backupClient;
+    private final Ec2Client ec2Client;
+    private final S3Client s3Client;
+    private final S3AsyncClient s3AsyncClient;
+    private final RdsClient rdsClient;
+    private final SnsClient snsClient;
+    private final RestoreJobPoller restoreJobPoller;
+    EC2Restore ec2Restore;
+    S3Restore s3Restore;
+    RDSRestore rdsRestore;
+    Instance ec2Instance;
+    String restoredBucketName;
+    DBInstance rdsInstance;
+    EC2ValidateInstance ec2ValidateInstance;
+    RDSValidate rdsValidateDatabase;
+    S3ValidateBucket s3ValidateBucket;
+    private Boolean ec2Passed = false;
+    private Boolean rdsPassed = false;
+    private Boolean s3Passed = false;
+    private Boolean systemPassed = null;
+    private Map<String, String> loadedResourcesMap;
+    private Throwable thrown;
+
+    /**
+     * Sets up a stack to be validated.
+     *
+     * @param name             String name of the stack used to tag its log messages, null when only one stack is validated
+     * @param settings         Settings of the stack
+     * @param seleniumSettings SeleniumSettings for the stack's web app
+     * @param saveLocation     Path of the file used to save restored instance information
+     * @param clients          AWSClients for the stack's region, may be shared with other stacks
+     */
+    StackValidator(String name, Settings settings, SeleniumSettings seleniumSettings, Path saveLocation, AWSClients clients) {
+        this.name = name;
+        this.settings = settings;
+        this.seleniumSettings = seleniumSettings;
+        this.saveLocation = saveLocation;
+        this.backupClient = clients.getBackupClient();
+        this.ec2Client = clients.getEc2Client();
+        this.s3Client = clients.getS3Client();
+        this.s3AsyncClient = clients.getS3AsyncClient();
+        this.rdsClient = clients.getRdsClient();
+        this.snsClient = clients.getSnsClient();
+        this.restoreJobPoller = clients.getRestoreJobPoller();
+        this.logger = LoggerFactory.getLogger(this.getClass().getName());
+    }
+
+    /**
+     * Restores, validates and cleans up the stack.  Any exception is kept for the report instead of being thrown so
+     * a failure in one stack does not stop other stacks from being validated.
+     *
+     * @param restore   boolean whether to restore new instances or load previously restored ones
+     * @param terminate boolean whether to terminate restored instances when done
+     * @return boolean whether the stack passed all tests
+     */
+    boolean run(boolean restore, boolean terminate) {
+        if (name != null)
+            MDC.put(Util.STACK_MDC_KEY, "[" + name + "] ");
+        try {
+            boolean pass = restoreAndValidate(restore);
+
+            saveInstances();
+            if (pass)
+                systemPassed = validateSystem();
+
+            cleanUp(terminate);
+        } catch (Exception e) {
+            logger.error("{}: {}: Instances were not terminated.", e.getClass().getSimpleName(), e.getMessage());
+            thrown = e;
+        } finally {
+            MDC.remove(Util.STACK_MDC_KEY);
+        }
+        return passed();
+    }
+
+    /**
+     * Uses the thread pool from {@link Util#executor} to run the call methods
+     * to restore and validate single instances and buckets.  Each restore is chained to its
+     * validation so validation starts the moment the restore completes, and a failed restore
+     * skips straight to a failed result.  Once this method is done, EC2, RDS, and S3 will be
+     * restored and the instance/bucket will have been checked to see if the instance is working.
+     *
+     * @return boolean whether all three resources passed validation
+     * @throws IOException if there is an IO error loading previously restored instances
+     */
+    private boolean restoreAndValidate(boolean restore) throws IOException {
+        CompletableFuture<Instance> ec2Restored;
+        CompletableFuture<DBInstance> rdsRestored;
+        CompletableFuture<String> s3Restored;
+
+        ec2ValidateInstance = new EC2ValidateInstance(ec2Client, settings.getEc2Settings());
+        rdsValidateDatabase = new RDSValidate(rdsClient, settings.getRdsSettings());
+        rdsValidateDatabase.setDBCredentials(settings.getDbUsername(), settings.getDbPassword());
+        rdsValidateDatabase.setDatabasesToCheck(settings.getDatabases());
+        rdsValidateDatabase.setTableParallelism(settings.getValidationSettings().getRdsTableParallelism());
+        rdsValidateDatabase.setChecksum(settings.getValidationSettings().isRdsChecksum(),
+                settings.getValidationSettings().getRdsChecksumParallelism(), settings.getValidationSettings().getRdsChecksumChunkMillis());
+        rdsValidateDatabase.setCheckTableModes(settings.getValidationSettings().getRdsCheckExtendedMaxMb(),
+                settings.getValidationSettings().getRdsCheckQuickMinMb());
+        rdsValidateDatabase.setMaxConnections(settings.getValidationSettings().getRdsMaxConnections());
+        rdsValidateDatabase.setBastion(settings.getValidationSettings().getRdsBastionHost(), settings.getServerUsername(),
+                settings.getPrivateKeyFile());
+        s3ValidateBucket = new S3ValidateBucket(s3Client, s3AsyncClient, settings.getS3Settings());
+        s3ValidateBucket.setMaxInFlight(settings.getValidationSettings().getS3MaxInFlight());
+        s3ValidateBucket.setMode(settings.getValidationSettings().getS3ValidationMode());
+        s3ValidateBucket.setMaxDifferences(settings.getValidationSettings().getS3MaxDifferences());
+        if (settings.getValidationSettings().isS3Manifest())
+            s3ValidateBucket.setManifestDirectory(saveLocation.toAbsolutePath().getParent());
+        s3ValidateBucket.setInventoryLocation(settings.getValidationSettings().getS3InventoryLocation());
+        s3ValidateBucket.setSampleSize(settings.getValidationSettings().getS3SampleSize());
+        s3ValidateBucket.setListingConcurrency(settings.getValidationSettings().getS3ListingConcurrency());
+        s3ValidateBucket.setHashAlgorithm(settings.getValidationSettings().getS3HashAlgorithm());
+        s3ValidateBucket.setRangeSampling(settings.getValidationSettings().getS3RangeSamples(),
+                settings.getValidationSettings().getS3RangeSampleSize(), settings.getValidationSettings().getS3RangeSampleSeed());
+
+        // If we are restoring start the restore threads, validation will be started as each one completes
+        if(restore) {
+            RecoveryPointCatalog catalog = new RecoveryPointCatalog(backupClient,
+                    saveLocation.resolveSibling(RecoveryPointCatalog.CATALOG_FILENAME));
+            ec2Restore = new EC2Restore(backupClient, catalog, ec2Client, settings.getEc2Settings());
+            s3Restore = new S3Restore(backupClient, catalog, s3Client, settings.getS3Settings());
+            rdsRestore = new RDSRestore(backupClient, catalog, rdsClient, settings.getRdsSettings());
+
+            ValidationSettings validationSettings = settings.getValidationSettings();
+            for (AWSRestore<?> awsRestore : List.of(ec2Restore, s3Restore, rdsRestore)) {
+                awsRestore.setSpeculativeRestores(validationSettings.getSpeculativeRestores());
+                awsRestore.setRestoreStallMinutes(validationSettings.getRestoreStallMinutes());
+                awsRestore.setRestoreJobPoller(restoreJobPoller);
+                awsRestore.setRecoveryPointMaxAge(Duration.ofHours(validationSettings.getRecoveryPointMaxAgeHours()));
+            }
+
+            ec2Restored = Util.supplyAsync(ec2Restore);
+            rdsRestored = Util.supplyAsync(rdsRestore);
+            s3Restored = Util.supplyAsync(s3Restore);
+        }
+        // If we are not restoring, load the previous instances so validation can start right away
+        else {
+            loadInstances();
+
+            ec2Restored = CompletableFuture.completedFuture(ec2Instance);
+            rdsRestored = CompletableFuture.completedFuture(rdsInstance);
+            s3Restored = CompletableFuture.completedFuture(restoredBucketName);
+        }
+
+        CompletableFuture<Boolean> ec2Validated = validateWhenRestored("EC2 instance", ec2Restored, instance -> {
+            ec2Instance = instance;
+            ec2ValidateInstance.setEC2Instance(instance);
+        }, ec2ValidateInstance);
+
+        CompletableFuture<Boolean> rdsValidated = validateWhenRestored("RDS database", rdsRestored, instance -> {
+            rdsInstance = instance;
+            rdsValidateDatabase.setRestoredDbInstance(instance);
+        }, rdsValidateDatabase);
+
+        CompletableFuture<Boolean> s3Validated = validateWhenRestored("S3 bucket", s3Restored, bucketName -> {
+            restoredBucketName = bucketName;
+            s3ValidateBucket.setRestoredBucket(bucketName);
+        }, s3ValidateBucket);
+
+        // Wait for all three pipelines, none of them complete exceptionally
+        CompletableFuture.allOf(ec2Validated, rdsValidated, s3Validated).join();
+
+        ec2Passed = ec2Validated.join();
+        rdsPassed = rdsValidated.join();
+        s3Passed = s3Validated.join();
+
+        return ec2Passed && rdsPassed && s3Passed;
+    }
+
+    /**
+     * Chains a validation onto a restore so the validation is submitted as soon as the restore completes.
+     * A restore that fails or returns nothing completes the pipeline with false without running the validation.
+     *
+     * @param resource   String describing the resource for log messages
+     * @param restored   CompletableFuture of the restored resource
+     * @param onRestored Consumer that records the restored resource and hands it to the validator
+     * @param validator  Callable that validates the restored resource
+     * @param <T>        the type of the restored resource
+     * @return CompletableFuture of whether the resource passed validation, never completes exceptionally
+     */
+    private <T> CompletableFuture<Boolean> validateWhenRestored(String resource, CompletableFuture<T> restored,
+                                                               Consumer<T> onRestored, Callable<Boolean> validator) {
+        return restored
+                .thenCompose(result -> {
+                    if (result == null)
+                        throw new CompletionException(new AWSRestore.InstanceUnavailableException("No restored " + resource + " was returned"));
+
+                    onRestored.accept(result);
+
+                    return Util.supplyAsync(validator).handle((passed, e) -> {
+                        if (e != null) {
+                            logger.error("Restored {} validation failed. Cause: {}", resource, Util.unwrap(e).getMessage());
+                            return false;
+                        }
+                        if (Boolean.TRUE.equals(passed)) {
+                            logger.info("Restored {} validation passed", resource);
+                            return true;
+                        }
+                        logger.warn("Restored {} validation failed", resource);
+                        return false;
+                    });
+                })
+                .exceptionally(e -> {
+                    logger.error("Restoring {} failed. Cause: {}", resource, Util.unwrap(e).getMessage());
+                    return false;
+                });
+    }
+
+    /**
+     * This method will validate that EC2, RDS, and S3 bucket are working as a whole system and
+     * not just the individual pieces.
+     */
+    private boolean validateSystem() throws Exception {
+        // Spin up restored instances to get new hostnames/bucket name
+        ConfigLoader.replaceHostname(ec2Instance.publicDnsName(), rdsInstance.endpoint().address(), restoredBucketName, settings);
+        if(!System.getProperty("user.name").startsWith("ec2"))
+            new RemoteServerConfigurator(ec2Instance.publicIpAddress(), settings);
+        else
+            new RemoteServerConfigurator(ec2Instance.privateIpAddress(), settings);
+
+        WebAppValidate webAppValidate = new WebAppValidate(ec2Instance, seleniumSettings);
+
+        boolean webAppPass = webAppValidate.call();
+        if(webAppPass)
+            logger.info("Web App has passed Selenium validation tests.");
+        else
+            logger.warn("Web App has failed Selenium validation tests.");
+
+        return webAppPass;
+    }
+
+    /**
+     * Waits for the recovery points still restoring that lost to the one validated, see
+     * {@link AWSRestore#awaitRestores(long)}.
+     * @param deadline long {@link System#nanoTime()} to stop waiting at
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    void awaitRestores(long deadline) throws InterruptedException {
+        for (AWSRestore<?> awsRestore : Arrays.asList(ec2Restore, s3Restore, rdsRestore)) {
+            if (awsRestore != null)
+                awsRestore.awaitRestores(deadline);
+        }
+    }
+
+    /**
+     * If the user wishes to terminate the restored instances, terminates/deletes those instances.
+     * @param terminate boolean whether to terminate restored instances
+     * @throws IOException if there is an IO error
+     * @throws InterruptedException if bucket deletion is interrupted
+     */
+    private void cleanUp(boolean terminate) throws IOException, InterruptedException {
+        if(terminate) {
+            if (ec2Instance != null)
+                Util.terminateEC2Instance(ec2Instance.instanceId(), ec2Client);
+            if (rdsInstance != null)
+                Util.deleteDBInstance(rdsInstance.dbInstanceIdentifier(), rdsClient);
+            if (restoredBucketName != null)
+                Util.deleteS3Instance(restoredBucketName, s3Client);
+            if(Files.exists(saveLocation))
+                Files.delete(saveLocation);
+        }
+    }
+
+    /**
+     * Save information about instances restored and the recovery points used to restore them.
+     * @throws IOException if there is an IO error saving the file.
+     */
+    private void saveInstances() throws IOException {
+        Map<String, String> saveResourcesMap = new HashMap<>();
+        saveResourcesMap.put("EC2", ec2Instance.instanceId());
+        saveResourcesMap.put("RDS", rdsInstance.dbInstanceIdentifier());
+        saveResourcesMap.put("S3", restoredBucketName);
+
+        String ec2RecoveryPoint = ec2Restore == null ? loadedResourcesMap.get("EC2RecoveryPoint") : ec2Restore.getCurrentRecoveryPoint().recoveryPointArn();
+        String rdsRecoveryPoint = rdsRestore == null ? loadedResourcesMap.get("RDSRecoveryPoint") : rdsRestore.getCurrentRecoveryPoint().recoveryPointArn();
+        String s3RecoveryPoint = s3Restore == null ? loadedResourcesMap.get("S3RecoveryPoint") : s3Restore.getCurrentRecoveryPoint().recoveryPointArn();
+
+        saveResourcesMap.put("EC2RecoveryPoint", ec2RecoveryPoint);
+        saveResourcesMap.put("RDSRecoveryPoint", rdsRecoveryPoint);
+        saveResourcesMap.put("S3RecoveryPoint", s3RecoveryPoint);
+
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.enable(SerializationFeature.INDENT_OUTPUT);
+        mapper.writeValue(saveLocation.toFile(), saveResourcesMap);
+    }
+
+    /**
+     * Loads information about previously restored but not terminated instances and the recovery points used to restore them.
+     * @throws IOException if there is an IO error
+     */
+    private void loadInstances() throws IOException {
+        TypeReference<HashMap<String, String>> typeReference = new TypeReference<HashMap<String, String>>(){};
+
+        if(!Files.exists(saveLocation))
+            logger.error("Save file 'save.json' does not exist in {} to load.  Please load a config file from the same " +
+                    "location as your save file or run {} without the 'donotrestore' option",
+                    saveLocation.getParent(), Util.APP_DISPLAY_NAME);
+
+        ObjectMapper mapper = new ObjectMapper();
+
+        loadedResourcesMap = mapper.readValue(saveLocation.toFile(), typeReference);
+
+        // Set S3 restored bucket name
+        restoredBucketName = loadedResourcesMap.get("S3");
+
+        if(restoredBucketName.isEmpty())
+            throw new IOException("Missing restored bucket name in save file.");
+
+        String ec2InstanceID = loadedResourcesMap.get("EC2");
+
+        if(ec2InstanceID == null || ec2InstanceID.isEmpty())
+            throw new IOException("Missing restored EC2 instance-id in save file.");
+
+        String dbIdentifier = loadedResourcesMap.get("RDS");
+
+        if(dbIdentifier == null || dbIdentifier.isEmpty())
+            throw new IOException("Missing restored DB identifier in save file.");
+
+        // Use the saved EC2 instance-id to get the Instance back from AWS
+        DescribeInstancesRequest.Builder describeInstancesRequest  = DescribeInstancesRequest.builder().instanceIds(ec2InstanceID);
+        DescribeInstancesResponse describeInstancesResponse = ec2Client.describeInstances(describeInstancesRequest.build());
+        if(!describeInstancesResponse.reservations().isEmpty() && !describeInstancesResponse.reservations().get(0).instances().isEmpty())
+            ec2Instance = describeInstancesResponse.reservations().get(0).instances().get(0);
+        else
+            throw new IOException("EC2 Instance " + ec2InstanceID + " does not exist");
+
+        // Use the saved DB instance identifier to get the
+        DescribeDbInstancesRequest.Builder describeDbInstancesRequest = DescribeDbInstancesRequest.builder().dbInstanceIdentifier(dbIdentifier);
+        DescribeDbInstancesResponse describeDbInstances = rdsClient.describeDBInstances(describeDbInstancesRequest.build());
+        if(!describeDbInstances.dbInstances().isEmpty())
+            rdsInstance = describeDbInstances.dbInstances().get(0);
+        else
+            throw new IOException("RDS Instance " + dbIdentifier + " does not exist");
+
+    }
+
+    /**
+     * Whether every test of the stack passed, including the web app validation.
+     * @return boolean whether the stack passed
+     */
+    boolean passed() {
+        return thrown == null && ec2Passed && rdsPassed && s3Passed && systemPassed != null && systemPassed;
+    }
+
+    /**
+     * Appends this stack's section of the report: the recovery points restored and whether they passed,
+     * or the error that stopped the stack.
+     * @param stringBuilder StringBuilder the report is being built in
+     */
+    void appendReport(StringBuilder stringBuilder) {
+        if (name != null)
+            stringBuilder.append(String.format("Stack: %s\n", name));
+
+        if (thrown == null) {
+            String ec2RecoveryPoint = ec2Restore == null ? loadedResourcesMap.getOrDefault("EC2RecoveryPoint", "Missing Recovery Point Arn") : ec2Restore.getCurrentRecoveryPoint().recoveryPointArn();
+            String rdsRecoveryPoint = rdsRestore == null ? loadedResourcesMap.getOrDefault("RDSRecoveryPoint", "Missing Recovery Point Arn") : rdsRestore.getCurrentRecoveryPoint().recoveryPointArn();
+            String s3RecoveryPoint = s3Restore == null ? loadedResourcesMap.getOrDefault("S3RecoveryPoint", "Missing Recovery Point Arn") : s3Restore.getCurrentRecoveryPoint().recoveryPointArn();
+
+            stringBuilder
+                    .append(String.format("EC2 Recovery Point: %s\n\tPassed Tests: %s\n", ec2RecoveryPoint, ec2Passed))
+                    .append(String.format("RDS Recovery Point: %s\n\tPassed Tests: %s\n", rdsRecoveryPoint, rdsPassed))
+                    .append(String.format("S3 Recovery Point: %s\n\tPassed Tests: %s\n", s3RecoveryPoint, s3Passed))
+                    .append(s3ValidateBucket != null && s3ValidateBucket.getDiffSummary() != null
+                            ? String.format("\tDifferences: %s\n", s3ValidateBucket.getDiffSummary()) : "")
+                    .append(String.format("Web App Validation\n\tPassed Tests: %s\n", (systemPassed != null ? systemPassed : "Not Tested")));
+        } else {
+            stringBuilder.append("Program terminated because of an error.\n").append(thrown).append("\n");
+        }
+    }
+
+    /**
+     * Sends the report to the stack's SNS topic if it has one.
+     * @param report String of the report to send
+     */
+    void sendReport(String report) {
+        if (getSnsTopicArn() != null && !getSnsTopicArn().isEmpty())
+            Notification.sendSnsMessage(report, getSnsTopicArn(), snsClient);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getSnsTopicArn() {
+        return settings.getSnsTopicArn();
+    }
+
+    /**
+     * Records something thrown out of {@link #run}, such as an Error, so the stack is reported as failed.
+     * @param e Throwable that stopped the stack
+     */
+    void failed(Throwable e) {
+        thrown = e;
+    }
+
+    Throwable getThrown() {
+        return thrown;
+    }
+}
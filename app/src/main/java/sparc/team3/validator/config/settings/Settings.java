@@ -27,6 +27,7 @@ public final class Settings {
     private final InstanceSettings rdsSettings;
     private final InstanceSettings s3Settings;
     private final String snsTopicArn;
+    private final ValidationSettings validationSettings;
 
     @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
     public Settings(@JsonProperty("serverUserName") String serverUsername,
@@ -41,7 +42,8 @@ public final class Settings {
                     @JsonProperty("SnsTopicArn") String snsTopicArn,
                     @JsonProperty("ec2Settings") InstanceSettings ec2Settings,
                     @JsonProperty("rdsSettings") InstanceSettings rdsSettings,
-                    @JsonProperty("s3Settings") InstanceSettings s3Settings) {
+                    @JsonProperty("s3Settings") InstanceSettings s3Settings,
+                    @JsonProperty("validationSettings") ValidationSettings validationSettings) {
 
         this.serverUsername = serverUsername;
         this.privateKeyFile = privateKeyFile;
@@ -56,6 +58,7 @@ public final class Settings {
         this.ec2Settings = ec2Settings;
         this.rdsSettings = rdsSettings;
         this.s3Settings = s3Settings;
+        this.validationSettings = validationSettings;
     }
 
     public String getServerUsername() {
@@ -118,9 +121,16 @@ public final class Settings {
         return s3Settings;
     }
 
+    public ValidationSettings getValidationSettings() {
+        if (validationSettings == null)
+            return ValidationSettings.defaults();
+        return validationSettings;
+    }
+
     public SettingsBuilders toBuilders() {
         SettingsBuilder settingsBuilder = SettingsBuilder.builder().serverUsername(serverUsername).privateKeyFile(privateKeyFile)
-                .dbUsername(dbUsername).dbPassword(dbPassword).awsRegion(awsRegion).vpcID(vpcID).vpcName(vpcName);
+                .dbUsername(dbUsername).dbPassword(dbPassword).awsRegion(awsRegion).vpcID(vpcID).vpcName(vpcName)
+                .validationSettings(validationSettings);
 
         Map<String, ServerConfigFile.ServerConfigFileBuilder> configFileBuilders = new HashMap<>();
         if (configFiles != null) {
@@ -164,6 +174,7 @@ public final class Settings {
                 "\tec2Settings=" + ec2Settings + "\n" +
                 "\trdsSettings=" + rdsSettings + "\n" +
                 "\ts3Settings=" + s3Settings + "\n" +
+                "\tvalidationSettings=" + getValidationSettings() + "\n" +
                 '}';
     }
 
@@ -220,6 +231,7 @@ public final class Settings {
         private InstanceSettings ec2Settings;
         private InstanceSettings rdsSettings;
         private InstanceSettings s3Settings;
+        private ValidationSettings validationSettings;
 
         private SettingsBuilder() {
         }
@@ -319,6 +331,11 @@ public final class Settings {
             return this;
         }
 
+        public SettingsBuilder validationSettings(ValidationSettings settings) {
+            this.validationSettings = settings;
+            return this;
+        }
+
         public Settings build() {
             List<ServerConfigFile> configFilesCopy = null;
             if (configFiles != null)
@@ -339,7 +356,8 @@ public final class Settings {
                     snsTopicArn,
                     ec2Settings,
                     rdsSettings,
-                    s3Settings
+                    s3Settings,
+                    validationSettings
             );
         }
 
@@ -395,6 +413,10 @@ public final class Settings {
             return s3Settings;
         }
 
+        public ValidationSettings getValidationSettings() {
+            return validationSettings;
+        }
+
         public String toString() {
             return serverConnectionSettingsToString() +
                     CLI.ANSI_BLUE + "Server Config Files:\n" + CLI.ANSI_RESET +
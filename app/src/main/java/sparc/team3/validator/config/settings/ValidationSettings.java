@@ -0,0 +1,533 @@
+package sparc.team3.validator.config.settings;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
+/**
+ * Optional settings that tune how restores and validations are run.  Any setting left out of the config file
+ * uses its default, which matches how the program behaves without the setting.
+ *
+ * @see Settings
+ */
+public final class ValidationSettings {
+    /**
+     * The default number of recovery points restored at the same time is {@value}.
+     */
+    public static final int DEFAULT_SPECULATIVE_RESTORES = 1;
+    /**
+     * The default minutes a restore job can go without progress before another recovery point is restored alongside
+     * it is {@value}, which turns this off.
+     */
+    public static final int DEFAULT_RESTORE_STALL_MINUTES = 0;
+    /**
+     * The default age in hours of the oldest recovery point that can be restored is {@value}.
+     */
+    public static final int DEFAULT_RECOVERY_POINT_MAX_AGE_HOURS = 24;
+    /**
+     * The default number of S3 checksum requests outstanding at once is {@value}, the connection limit of the async
+     * S3 client.
+     */
+    public static final int DEFAULT_S3_MAX_IN_FLIGHT = 50;
+    /**
+     * The default way S3 objects are checksummed is {@link S3ValidationMode#COPY}.
+     */
+    public static final S3ValidationMode DEFAULT_S3_VALIDATION_MODE = S3ValidationMode.COPY;
+    /**
+     * The default number of differences between the S3 buckets allowed before the validation fails is {@value}.
+     */
+    public static final int DEFAULT_S3_MAX_DIFFERENCES = 0;
+    /**
+     * Whether a manifest of the production S3 bucket is kept between runs by default is {@value}.
+     */
+    public static final boolean DEFAULT_S3_MANIFEST = false;
+    /**
+     * The default number of undecided S3 objects sampled is {@value}, which checks every object.
+     */
+    public static final int DEFAULT_S3_SAMPLE_SIZE = 0;
+    /**
+     * The default number of partitions of an S3 bucket listed at once is {@value}, which lists the bucket in one go.
+     */
+    public static final int DEFAULT_S3_LISTING_CONCURRENCY = 1;
+    /**
+     * The default hash of downloaded S3 objects is {@link S3HashAlgorithm#SHA256}.
+     */
+    public static final S3HashAlgorithm DEFAULT_S3_HASH_ALGORITHM = S3HashAlgorithm.SHA256;
+    /**
+     * The default number of byte ranges read from large S3 objects instead of downloading them is {@value}, which
+     * downloads them.
+     */
+    public static final int DEFAULT_S3_RANGE_SAMPLES = 0;
+    /**
+     * The default size in bytes of each range read from a range sampled S3 object is {@value}.
+     */
+    public static final int DEFAULT_S3_RANGE_SAMPLE_SIZE = 65536;
+    /**
+     * The default seed the ranges of range sampled S3 objects are picked from is {@value}.
+     */
+    public static final long DEFAULT_S3_RANGE_SAMPLE_SEED = 0;
+    /**
+     * The default number of tables of each database checked at once is {@value}.
+     */
+    public static final int DEFAULT_RDS_TABLE_PARALLELISM = 4;
+    /**
+     * Whether the contents of tables are checksummed by default is {@value}.
+     */
+    public static final boolean DEFAULT_RDS_CHECKSUM = false;
+    /**
+     * The default number of chunks of a table checksummed at once is {@value}.
+     */
+    public static final int DEFAULT_RDS_CHECKSUM_PARALLELISM = 4;
+    /**
+     * The default query time in milliseconds table checksum chunks are sized to is {@value}.
+     */
+    public static final int DEFAULT_RDS_CHECKSUM_CHUNK_MILLIS = 500;
+    /**
+     * The default size in MiB below which tables are checked with CHECK TABLE EXTENDED is {@value}.
+     */
+    public static final long DEFAULT_RDS_CHECK_EXTENDED_MAX_MB = 64;
+    /**
+     * The default size in MiB from which tables are checked with CHECK TABLE QUICK is {@value}.
+     */
+    public static final long DEFAULT_RDS_CHECK_QUICK_MIN_MB = 10240;
+    /**
+     * The default most connections opened to each database server is {@value}.
+     */
+    public static final int DEFAULT_RDS_MAX_CONNECTIONS = 20;
+
+    private final Integer speculativeRestores;
+    private final Integer restoreStallMinutes;
+    private final Integer recoveryPointMaxAgeHours;
+    private final Integer s3MaxInFlight;
+    private final S3ValidationMode s3ValidationMode;
+    private final Integer s3MaxDifferences;
+    private final Boolean s3Manifest;
+    private final String s3InventoryLocation;
+    private final Integer s3SampleSize;
+    private final Integer s3ListingConcurrency;
+    private final S3HashAlgorithm s3HashAlgorithm;
+    private final Integer s3RangeSamples;
+    private final Integer s3RangeSampleSize;
+    private final Long s3RangeSampleSeed;
+    private final Integer rdsTableParallelism;
+    private final Boolean rdsChecksum;
+    private final Integer rdsChecksumParallelism;
+    private final Integer rdsChecksumChunkMillis;
+    private final Long rdsCheckExtendedMaxMb;
+    private final Long rdsCheckQuickMinMb;
+    private final String rdsBastionHost;
+    private final Integer rdsMaxConnections;
+
+    @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
+    public ValidationSettings(@JsonProperty("speculativeRestores") Integer speculativeRestores,
+                              @JsonProperty("restoreStallMinutes") Integer restoreStallMinutes,
+                              @JsonProperty("recoveryPointMaxAgeHours") Integer recoveryPointMaxAgeHours,
+                              @JsonProperty("s3MaxInFlight") Integer s3MaxInFlight,
+                              @JsonProperty("s3ValidationMode") S3ValidationMode s3ValidationMode,
+                              @JsonProperty("s3MaxDifferences") Integer s3MaxDifferences,
+                              @JsonProperty("s3Manifest") Boolean s3Manifest,
+                              @JsonProperty("s3InventoryLocation") String s3InventoryLocation,
+                              @JsonProperty("s3SampleSize") Integer s3SampleSize,
+                              @JsonProperty("s3ListingConcurrency") Integer s3ListingConcurrency,
+                              @JsonProperty("s3HashAlgorithm") S3HashAlgorithm s3HashAlgorithm,
+                              @JsonProperty("s3RangeSamples") Integer s3RangeSamples,
+                              @JsonProperty("s3RangeSampleSize") Integer s3RangeSampleSize,
+                              @JsonProperty("s3RangeSampleSeed") Long s3RangeSampleSeed,
+                              @JsonProperty("rdsTableParallelism") Integer rdsTableParallelism,
+                              @JsonProperty("rdsChecksum") Boolean rdsChecksum,
+                              @JsonProperty("rdsChecksumParallelism") Integer rdsChecksumParallelism,
+                              @JsonProperty("rdsChecksumChunkMillis") Integer rdsChecksumChunkMillis,
+                              @JsonProperty("rdsCheckExtendedMaxMb") Long rdsCheckExtendedMaxMb,
+                              @JsonProperty("rdsCheckQuickMinMb") Long rdsCheckQuickMinMb,
+                              @JsonProperty("rdsBastionHost") String rdsBastionHost,
+                              @JsonProperty("rdsMaxConnections") Integer rdsMaxConnections) {
+        this.speculativeRestores = speculativeRestores;
+        this.restoreStallMinutes = restoreStallMinutes;
+        this.recoveryPointMaxAgeHours = recoveryPointMaxAgeHours;
+        this.s3MaxInFlight = s3MaxInFlight;
+        this.s3ValidationMode = s3ValidationMode;
+        this.s3MaxDifferences = s3MaxDifferences;
+        this.s3Manifest = s3Manifest;
+        this.s3InventoryLocation = s3InventoryLocation;
+        this.s3SampleSize = s3SampleSize;
+        this.s3ListingConcurrency = s3ListingConcurrency;
+        this.s3HashAlgorithm = s3HashAlgorithm;
+        this.s3RangeSamples = s3RangeSamples;
+        this.s3RangeSampleSize = s3RangeSampleSize;
+        this.s3RangeSampleSeed = s3RangeSampleSeed;
+        this.rdsTableParallelism = rdsTableParallelism;
+        this.rdsChecksum = rdsChecksum;
+        this.rdsChecksumParallelism = rdsChecksumParallelism;
+        this.rdsChecksumChunkMillis = rdsChecksumChunkMillis;
+        this.rdsCheckExtendedMaxMb = rdsCheckExtendedMaxMb;
+        this.rdsCheckQuickMinMb = rdsCheckQuickMinMb;
+        this.rdsBastionHost = rdsBastionHost;
+        this.rdsMaxConnections = rdsMaxConnections;
+    }
+
+    /**
+     * Settings with every value left at its default.
+     * @return ValidationSettings of defaults
+     */
+    public static ValidationSettings defaults() {
+        return new ValidationSettings(null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null);
+    }
+
+    /**
+     * Number of the newest recovery points of each resource restored at the same time.  The first one to finish
+     * restoring is validated, the others are torn down when they finish.
+     * @return int number of recovery points restored at once
+     */
+    public int getSpeculativeRestores() {
+        if (speculativeRestores == null || speculativeRestores < 1)
+            return DEFAULT_SPECULATIVE_RESTORES;
+        return speculativeRestores;
+    }
+
+    /**
+     * Minutes a restore job can report no progress before the next recovery point is restored alongside it.
+     * @return int of minutes, 0 if stalled restores are left alone
+     */
+    public int getRestoreStallMinutes() {
+        if (restoreStallMinutes == null || restoreStallMinutes < 0)
+            return DEFAULT_RESTORE_STALL_MINUTES;
+        return restoreStallMinutes;
+    }
+
+    /**
+     * Age in hours of the oldest recovery point that can be restored.  Recovery points are read from the local
+     * recovery point catalog, so raising this doesn't slow down finding them.
+     * @return int of hours
+     */
+    public int getRecoveryPointMaxAgeHours() {
+        if (recoveryPointMaxAgeHours == null || recoveryPointMaxAgeHours < 1)
+            return DEFAULT_RECOVERY_POINT_MAX_AGE_HOURS;
+        return recoveryPointMaxAgeHours;
+    }
+
+    /**
+     * Number of S3 checksum requests outstanding at once while validating a bucket, shared by the production and
+     * restored buckets.
+     * @return int of the in-flight limit
+     */
+    public int getS3MaxInFlight() {
+        if (s3MaxInFlight == null || s3MaxInFlight < 1)
+            return DEFAULT_S3_MAX_IN_FLIGHT;
+        return s3MaxInFlight;
+    }
+
+    /**
+     * How the objects of the restored S3 bucket are checksummed.
+     * @return S3ValidationMode to validate with
+     */
+    public S3ValidationMode getS3ValidationMode() {
+        if (s3ValidationMode == null)
+            return DEFAULT_S3_VALIDATION_MODE;
+        return s3ValidationMode;
+    }
+
+    /**
+     * Number of missing, different, or uncomparable objects allowed in the restored S3 bucket before the validation
+     * fails.  Every difference is written to the S3 diff report either way.
+     * @return int number of differences allowed
+     */
+    public int getS3MaxDifferences() {
+        if (s3MaxDifferences == null || s3MaxDifferences < 0)
+            return DEFAULT_S3_MAX_DIFFERENCES;
+        return s3MaxDifferences;
+    }
+
+    /**
+     * Whether a manifest of the production S3 bucket is kept next to the save file between runs, so production
+     * objects that haven't changed aren't checksummed again.  Only used in {@link S3ValidationMode#METADATA} mode.
+     * @return boolean if the manifest is kept
+     */
+    public boolean isS3Manifest() {
+        if (s3Manifest == null)
+            return DEFAULT_S3_MANIFEST;
+        return s3Manifest;
+    }
+
+    /**
+     * Location of an S3 Inventory of the production bucket that is read instead of listing the bucket, either
+     * {@code s3://bucket/prefix/} or a local directory.  Only CSV inventories can be read, and it is only used in
+     * {@link S3ValidationMode#METADATA} mode.
+     * @return String location of the inventory, null if the bucket is listed
+     */
+    public String getS3InventoryLocation() {
+        if (s3InventoryLocation == null || s3InventoryLocation.isBlank())
+            return null;
+        return s3InventoryLocation;
+    }
+
+    /**
+     * Number of the S3 objects the listing can't decide that are checksummed or downloaded, the rest are estimated
+     * from them with a confidence interval.  Missing objects and size differences are still found in every object.
+     * Only used in {@link S3ValidationMode#METADATA} mode.
+     * @return int number of objects sampled, 0 if every object is checked
+     */
+    public int getS3SampleSize() {
+        if (s3SampleSize == null || s3SampleSize < 0)
+            return DEFAULT_S3_SAMPLE_SIZE;
+        return s3SampleSize;
+    }
+
+    /**
+     * Number of partitions of each S3 bucket listed at once.  A bucket is split into partitions at its top level
+     * prefixes, so this only helps buckets with many of them.
+     * @return int number of partitions listed at once, 1 if each bucket is listed in one go
+     */
+    public int getS3ListingConcurrency() {
+        if (s3ListingConcurrency == null || s3ListingConcurrency < 1)
+            return DEFAULT_S3_LISTING_CONCURRENCY;
+        return s3ListingConcurrency;
+    }
+
+    /**
+     * How S3 objects that have to be downloaded are hashed.  Only used in {@link S3ValidationMode#METADATA} mode.
+     * @return S3HashAlgorithm to hash with
+     */
+    public S3HashAlgorithm getS3HashAlgorithm() {
+        if (s3HashAlgorithm == null)
+            return DEFAULT_S3_HASH_ALGORITHM;
+        return s3HashAlgorithm;
+    }
+
+    /**
+     * Number of byte ranges read from both copies of a large S3 object that would otherwise have to be downloaded,
+     * compared instead of the whole object.  The first and last ranges are always read, the rest are picked at
+     * random.  A difference outside the ranges isn't found.  Only used in {@link S3ValidationMode#METADATA} mode.
+     * @return int number of ranges read from each object, 0 if objects are downloaded
+     */
+    public int getS3RangeSamples() {
+        if (s3RangeSamples == null || s3RangeSamples < 0)
+            return DEFAULT_S3_RANGE_SAMPLES;
+        return s3RangeSamples;
+    }
+
+    /**
+     * Size in bytes of each range read from a range sampled S3 object.  Objects smaller than four times the bytes
+     * sampled from them are downloaded.
+     * @return int size of each range
+     */
+    public int getS3RangeSampleSize() {
+        if (s3RangeSampleSize == null || s3RangeSampleSize < 1)
+            return DEFAULT_S3_RANGE_SAMPLE_SIZE;
+        return s3RangeSampleSize;
+    }
+
+    /**
+     * Seed the ranges of range sampled S3 objects are picked from.  The same seed reads the same ranges of an object
+     * on every run.
+     * @return long seed
+     */
+    public long getS3RangeSampleSeed() {
+        if (s3RangeSampleSeed == null)
+            return DEFAULT_S3_RANGE_SAMPLE_SEED;
+        return s3RangeSampleSeed;
+    }
+
+    /**
+     * Number of tables of each database checked at once, each on its own connections to the production and
+     * restored servers.  The largest tables are checked first.
+     * @return int number of tables checked at once
+     */
+    public int getRdsTableParallelism() {
+        if (rdsTableParallelism == null || rdsTableParallelism < 1)
+            return DEFAULT_RDS_TABLE_PARALLELISM;
+        return rdsTableParallelism;
+    }
+
+    /**
+     * Whether the contents of each table are compared by checksums worked out on both servers over ranges of its
+     * primary key.  Tables with cache or session in the name are skipped, as they are for row counts.
+     * @return boolean if contents are checksummed
+     */
+    public boolean isRdsChecksum() {
+        if (rdsChecksum == null)
+            return DEFAULT_RDS_CHECKSUM;
+        return rdsChecksum;
+    }
+
+    /**
+     * Number of primary key ranges of each table checksummed at once.
+     * @return int number of chunks checksummed at once
+     */
+    public int getRdsChecksumParallelism() {
+        if (rdsChecksumParallelism == null || rdsChecksumParallelism < 1)
+            return DEFAULT_RDS_CHECKSUM_PARALLELISM;
+        return rdsChecksumParallelism;
+    }
+
+    /**
+     * Query time in milliseconds each checksummed range of a table is sized to.  The rows per range start small and
+     * are scaled as ranges finish.
+     * @return int target milliseconds per range
+     */
+    public int getRdsChecksumChunkMillis() {
+        if (rdsChecksumChunkMillis == null || rdsChecksumChunkMillis < 1)
+            return DEFAULT_RDS_CHECKSUM_CHUNK_MILLIS;
+        return rdsChecksumChunkMillis;
+    }
+
+    /**
+     * Size in MiB of data and indexes below which CHECK TABLE checks a table EXTENDED.  Tables from this size up to
+     * {@link #getRdsCheckQuickMinMb()} are checked MEDIUM.
+     * @return long size in MiB, 0 if no table is checked EXTENDED
+     */
+    public long getRdsCheckExtendedMaxMb() {
+        if (rdsCheckExtendedMaxMb == null || rdsCheckExtendedMaxMb < 0)
+            return DEFAULT_RDS_CHECK_EXTENDED_MAX_MB;
+        return rdsCheckExtendedMaxMb;
+    }
+
+    /**
+     * Size in MiB of data and indexes from which CHECK TABLE checks a table QUICK, which doesn't scan its rows.
+     * @return long size in MiB
+     */
+    public long getRdsCheckQuickMinMb() {
+        if (rdsCheckQuickMinMb == null || rdsCheckQuickMinMb < 0)
+            return DEFAULT_RDS_CHECK_QUICK_MIN_MB;
+        return rdsCheckQuickMinMb;
+    }
+
+    /**
+     * Hostname or address of a server the database connections are tunneled through over SSH when not running on
+     * EC2, signed in to with the server username and private key file.  Both databases are forwarded over one SSH
+     * session, opened as soon as the restored database is available.
+     * @return String of the bastion, null if the tunnel is set up by hand
+     */
+    public String getRdsBastionHost() {
+        if (rdsBastionHost == null || rdsBastionHost.isBlank())
+            return null;
+        return rdsBastionHost;
+    }
+
+    /**
+     * Most connections opened to each of the production and restored database servers.  Tables wait for
+     * connections rather than growing the pools past this, so it should be well under the servers' max_connections.
+     * @return int number of connections to each server
+     */
+    public int getRdsMaxConnections() {
+        if (rdsMaxConnections == null || rdsMaxConnections < 2)
+            return DEFAULT_RDS_MAX_CONNECTIONS;
+        return rdsMaxConnections;
+    }
+
+    @Override
+    public String toString() {
+        return "\n\t\tValidationSettings{\n" +
+                "\t\t\tspeculativeRestores=" + getSpeculativeRestores() + "\n" +
+                "\t\t\trestoreStallMinutes=" + getRestoreStallMinutes() + "\n" +
+                "\t\t\trecoveryPointMaxAgeHours=" + getRecoveryPointMaxAgeHours() + "\n" +
+                "\t\t\ts3MaxInFlight=" + getS3MaxInFlight() + "\n" +
+                "\t\t\ts3ValidationMode=" + getS3ValidationMode() + "\n" +
+                "\t\t\ts3MaxDifferences=" + getS3MaxDifferences() + "\n" +
+                "\t\t\ts3Manifest=" + isS3Manifest() + "\n" +
+                "\t\t\ts3InventoryLocation=" + getS3InventoryLocation() + "\n" +
+                "\t\t\ts3SampleSize=" + getS3SampleSize() + "\n" +
+                "\t\t\ts3ListingConcurrency=" + getS3ListingConcurrency() + "\n" +
+                "\t\t\ts3HashAlgorithm=" + getS3HashAlgorithm() + "\n" +
+                "\t\t\ts3RangeSamples=" + getS3RangeSamples() + "\n" +
+                "\t\t\ts3RangeSampleSize=" + getS3RangeSampleSize() + "\n" +
+                "\t\t\ts3RangeSampleSeed=" + getS3RangeSampleSeed() + "\n" +
+                "\t\t\trdsTableParallelism=" + getRdsTableParallelism() + "\n" +
+                "\t\t\trdsChecksum=" + isRdsChecksum() + "\n" +
+                "\t\t\trdsChecksumParallelism=" + getRdsChecksumParallelism() + "\n" +
+                "\t\t\trdsChecksumChunkMillis=" + getRdsChecksumChunkMillis() + "\n" +
+                "\t\t\trdsCheckExtendedMaxMb=" + getRdsCheckExtendedMaxMb() + "\n" +
+                "\t\t\trdsCheckQuickMinMb=" + getRdsCheckQuickMinMb() + "\n" +
+                "\t\t\trdsBastionHost=" + getRdsBastionHost() + "\n" +
+                "\t\t\trdsMaxConnections=" + getRdsMaxConnections() + "\n" +
+                "\t}";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ValidationSettings that = (ValidationSettings) o;
+
+        if (!Objects.equals(speculativeRestores, that.speculativeRestores)) return false;
+        if (!Objects.equals(restoreStallMinutes, that.restoreStallMinutes)) return false;
+        if (!Objects.equals(recoveryPointMaxAgeHours, that.recoveryPointMaxAgeHours)) return false;
+        if (!Objects.equals(s3MaxInFlight, that.s3MaxInFlight)) return false;
+        if (s3ValidationMode != that.s3ValidationMode) return false;
+        if (!Objects.equals(s3MaxDifferences, that.s3MaxDifferences)) return false;
+        if (!Objects.equals(s3Manifest, that.s3Manifest)) return false;
+        if (!Objects.equals(s3InventoryLocation, that.s3InventoryLocation)) return false;
+        if (!Objects.equals(s3SampleSize, that.s3SampleSize)) return false;
+        if (!Objects.equals(s3ListingConcurrency, that.s3ListingConcurrency)) return false;
+        if (s3HashAlgorithm != that.s3HashAlgorithm) return false;
+        if (!Objects.equals(s3RangeSamples, that.s3RangeSamples)) return false;
+        if (!Objects.equals(s3RangeSampleSize, that.s3RangeSampleSize)) return false;
+        if (!Objects.equals(s3RangeSampleSeed, that.s3RangeSampleSeed)) return false;
+        if (!Objects.equals(rdsTableParallelism, that.rdsTableParallelism)) return false;
+        if (!Objects.equals(rdsChecksum, that.rdsChecksum)) return false;
+        if (!Objects.equals(rdsChecksumParallelism, that.rdsChecksumParallelism)) return false;
+        if (!Objects.equals(rdsChecksumChunkMillis, that.rdsChecksumChunkMillis)) return false;
+        if (!Objects.equals(rdsCheckExtendedMaxMb, that.rdsCheckExtendedMaxMb)) return false;
+        if (!Objects.equals(rdsCheckQuickMinMb, that.rdsCheckQuickMinMb)) return false;
+        if (!Objects.equals(rdsBastionHost, that.rdsBastionHost)) return false;
+        return Objects.equals(rdsMaxConnections, that.rdsMaxConnections);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = speculativeRestores != null ? speculativeRestores.hashCode() : 0;
+        result = 31 * result + (restoreStallMinutes != null ? restoreStallMinutes.hashCode() : 0);
+        result = 31 * result + (recoveryPointMaxAgeHours != null ? recoveryPointMaxAgeHours.hashCode() : 0);
+        result = 31 * result + (s3MaxInFlight != null ? s3MaxInFlight.hashCode() : 0);
+        result = 31 * result + (s3ValidationMode != null ? s3ValidationMode.hashCode() : 0);
+        result = 31 * result + (s3MaxDifferences != null ? s3MaxDifferences.hashCode() : 0);
+        result = 31 * result + (s3Manifest != null ? s3Manifest.hashCode() : 0);
+        result = 31 * result + (s3InventoryLocation != null ? s3InventoryLocation.hashCode() : 0);
+        result = 31 * result + (s3SampleSize != null ? s3SampleSize.hashCode() : 0);
+        result = 31 * result + (s3ListingConcurrency != null ? s3ListingConcurrency.hashCode() : 0);
+        result = 31 * result + (s3HashAlgorithm != null ? s3HashAlgorithm.hashCode() : 0);
+        result = 31 * result + (s3RangeSamples != null ? s3RangeSamples.hashCode() : 0);
+        result = 31 * result + (s3RangeSampleSize != null ? s3RangeSampleSize.hashCode() : 0);
+        result = 31 * result + (s3RangeSampleSeed != null ? s3RangeSampleSeed.hashCode() : 0);
+        result = 31 * result + (rdsTableParallelism != null ? rdsTableParallelism.hashCode() : 0);
+        result = 31 * result + (rdsChecksum != null ? rdsChecksum.hashCode() : 0);
+        result = 31 * result + (rdsChecksumParallelism != null ? rdsChecksumParallelism.hashCode() : 0);
+        result = 31 * result + (rdsChecksumChunkMillis != null ? rdsChecksumChunkMillis.hashCode() : 0);
+        result = 31 * result + (rdsCheckExtendedMaxMb != null ? rdsCheckExtendedMaxMb.hashCode() : 0);
+        result = 31 * result + (rdsCheckQuickMinMb != null ? rdsCheckQuickMinMb.hashCode() : 0);
+        result = 31 * result + (rdsBastionHost != null ? rdsBastionHost.hashCode() : 0);
+        result = 31 * result + (rdsMaxConnections != null ? rdsMaxConnections.hashCode() : 0);
+        return result;
+    }
+
+    /**
+     * How the objects of the restored S3 bucket are checksummed before they are compared.
+     */
+    public enum S3ValidationMode {
+        /**
+         * Copy every restored object in place with a SHA-256 checksum and compare the SHA-256 checksums.
+         */
+        COPY,
+        /**
+         * Compare the checksums, sizes and ETags S3 already has, downloading and hashing only the objects that
+         * can't be decided that way.  Nothing is copied.
+         */
+        METADATA
+    }
+
+    /**
+     * How S3 objects that have to be downloaded are hashed.
+     */
+    public enum S3HashAlgorithm {
+        /**
+         * SHA-256, which is also kept in the manifest so unchanged production objects aren't downloaded again.
+         */
+        SHA256,
+        /**
+         * CRC32C, much cheaper to work out, and large objects are hashed a part at a time in parallel.  Objects are
+         * only compared with each other, so both objects of a pair are always downloaded.
+         */
+        CRC32C
+    }
+}
@@ -5,65 +5,351 @@ import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.services.backup.BackupClient;
 import software.amazon.awssdk.services.backup.model.*;
 import sparc.team3.validator.config.settings.InstanceSettings;
-
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.TreeSet;
-
-public abstract class AWSRestore {
+import sparc.team3.validator.util.Util;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Base of the resource restores.  Restores the newest recovery point of the resource, or when speculative restores
+ * are turned on, restores several of the newest recovery points at the same time and returns whichever becomes
+ * usable first.  The recovery points that lose are torn down as soon as they finish restoring, on their own thread
+ * so tearing down doesn't hold up the others, and {@link #awaitRestores(long)} waits for them before the clients go.
+ * AWS Backup can't stop a restore job, so a loser that is still restoring when the wait runs out is logged with its
+ * job id to be cleaned up by hand.
+ *
+ * @param <T> the type describing the restored resource
+ */
+public abstract class AWSRestore<T> implements Callable<T> {
+    /**
+     * Minutes to wait, once validation is done, for the restores that lost to finish and be torn down.
+     */
+    public static final long LOSER_WAIT_MINUTES = 60;
     final BackupClient backupClient;
     final InstanceSettings instanceSettings;
-    final TreeSet<RecoveryPointByBackupVault> recoveryPoints;
+    final RecoveryPointCatalog recoveryPointCatalog;
+    TreeSet<RecoveryPointByBackupVault> recoveryPoints;
     RecoveryPointByBackupVault currentRecoveryPoint;
-    Map<String, String> metadata;
     final Logger logger;
     final String resourceType;
     Iterator<RecoveryPointByBackupVault> recoveryPointSetIterator;
-
-
-    public AWSRestore(BackupClient backupClient, InstanceSettings instanceSettings, String resourceType) {
+    private int speculativeRestores = 1;
+    private int restoreStallMinutes = 0;
+    private int restoresInFlight = 0;
+    private Throwable lastFailure;
+    private CompletableFuture<T> firstRestored;
+    private final Map<String, CompletableFuture<Void>> restores = new LinkedHashMap<>();
+    private final Map<String, String> restoreJobIds = new HashMap<>();
+    private RestoreJobPoller restoreJobPoller;
+    private Duration recoveryPointMaxAge = Duration.ofDays(1);
+
+
+    public AWSRestore(BackupClient backupClient, RecoveryPointCatalog recoveryPointCatalog, InstanceSettings instanceSettings, String resourceType) {
         this.backupClient = backupClient;
+        this.recoveryPointCatalog = recoveryPointCatalog;
         this.instanceSettings = instanceSettings;
         this.resourceType = resourceType;
-        this.recoveryPoints = getRecoveryPoints(instanceSettings.getBackupVault());
         this.logger = LoggerFactory.getLogger(this.getClass().getName());
     }
 
+    /**
+     * Sets how many recovery points are restored at the same time.
+     * @param speculativeRestores int number of the newest recovery points to restore at once
+     */
+    public void setSpeculativeRestores(int speculativeRestores) {
+        this.speculativeRestores = Math.max(1, speculativeRestores);
+    }
+
+    /**
+     * Sets how long a restore job can go without progress before the next recovery point is restored alongside it.
+     * @param restoreStallMinutes int of minutes, 0 to leave stalled restores alone
+     */
+    public void setRestoreStallMinutes(int restoreStallMinutes) {
+        this.restoreStallMinutes = Math.max(0, restoreStallMinutes);
+    }
+
+    /**
+     * Sets how old a recovery point can be and still be restored.
+     * @param recoveryPointMaxAge Duration of the oldest recovery point to restore
+     */
+    public void setRecoveryPointMaxAge(Duration recoveryPointMaxAge) {
+        this.recoveryPointMaxAge = recoveryPointMaxAge;
+    }
+
+    /**
+     * Sets the poller that checks on this restore's jobs, so it can be shared with other restores.
+     * @param restoreJobPoller RestoreJobPoller to track restore jobs with
+     */
+    public void setRestoreJobPoller(RestoreJobPoller restoreJobPoller) {
+        this.restoreJobPoller = restoreJobPoller;
+    }
+
+    /**
+     * Entry point for a restoration.  Starts restoring the newest recovery points and waits for the first one
+     * that becomes usable.  When speculative restores are on, a recovery point that fails to restore is replaced
+     * with the next newest one right away.
+     *
+     * @return the restored resource, null if it could not be restored
+     * @throws InstanceUnavailableException if the restored resource will never become available
+     * @throws RecoveryPointsExhaustedException if there are no available recovery points to restore
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public T call() throws InstanceUnavailableException, RecoveryPointsExhaustedException, InterruptedException {
+        synchronized (this) {
+            if (recoveryPoints == null)
+                recoveryPoints = getRecoveryPoints(instanceSettings.getBackupVault());
+            firstRestored = new CompletableFuture<>();
+            for (int i = 0; i < speculativeRestores; i++) {
+                if (!startNextRestore())
+                    break;
+            }
+            if (restoresInFlight == 0)
+                throw new RecoveryPointsExhaustedException("Recovery Points Exhausted");
+        }
+
+        try {
+            return firstRestored.get();
+        } catch (ExecutionException e) {
+            Throwable cause = Util.unwrap(e);
+            if (cause instanceof InstanceUnavailableException)
+                throw (InstanceUnavailableException) cause;
+            if (cause instanceof RecoveryPointsExhaustedException)
+                throw (RecoveryPointsExhaustedException) cause;
+            if (cause instanceof InterruptedException)
+                throw (InterruptedException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new InstanceUnavailableException("Restore failed", cause);
+        }
+    }
+
+    /**
+     * Restores a single recovery point.
+     * @param recoveryPoint the RecoveryPointByBackupVault to restore
+     * @return the restored resource, null if the restore did not complete
+     * @throws Exception if the restore fails
+     */
+    abstract T restore(RecoveryPointByBackupVault recoveryPoint) throws Exception;
+
+    /**
+     * Deletes a resource that was restored but not chosen for validation.
+     * @param restored the restored resource to delete
+     * @throws InterruptedException if the thread is interrupted while deleting
+     */
+    abstract void tearDown(T restored) throws InterruptedException;
+
+    /**
+     * Whether more than one recovery point may be restored for this resource.
+     * @return boolean if speculative restores are on
+     */
+    private boolean isSpeculative() {
+        return speculativeRestores > 1 || restoreStallMinutes > 0;
+    }
+
+    /**
+     * Starts restoring the next newest recovery point on {@link Util#executor}.
+     * @return boolean false if there are no recovery points left to restore
+     */
+    private synchronized boolean startNextRestore() {
+        RecoveryPointByBackupVault recoveryPoint;
+        try {
+            recoveryPoint = getNextRecoveryPoint();
+        } catch (RecoveryPointsExhaustedException e) {
+            return false;
+        }
+
+        restoresInFlight++;
+        restores.put(recoveryPoint.recoveryPointArn(), Util.supplyAsync(() -> restore(recoveryPoint))
+                .handle((restored, e) -> restoreFinished(recoveryPoint, restored, e))
+                .thenCompose(loser -> loser == null ? CompletableFuture.<Void>completedFuture(null)
+                        : Util.supplyAsync(() -> tearDownLoser(recoveryPoint, loser))));
+        return true;
+    }
+
+    /**
+     * Handles a finished restore.  The first usable one is returned by {@link #call()}, any later ones are handed
+     * back to be torn down once the lock is let go.  A failed restore is replaced by the next recovery point if
+     * speculative restores are on.
+     *
+     * @param recoveryPoint the RecoveryPointByBackupVault that was restored
+     * @param restored the restored resource, null if the restore did not complete
+     * @param thrown the Throwable thrown by the restore, null if none was thrown
+     * @return the restored resource if it lost and has to be torn down, otherwise null
+     */
+    private synchronized T restoreFinished(RecoveryPointByBackupVault recoveryPoint, T restored, Throwable thrown) {
+        restoresInFlight--;
+
+        if (thrown == null && restored != null) {
+            if (currentRecoveryPoint == null) {
+                currentRecoveryPoint = recoveryPoint;
+                if (isSpeculative())
+                    logger.info("Recovery point {} restored first and will be validated", recoveryPoint.recoveryPointArn());
+                firstRestored.complete(restored);
+                return null;
+            }
+            logger.info("Recovery point {} finished restoring after {}, tearing it down",
+                    recoveryPoint.recoveryPointArn(), currentRecoveryPoint.recoveryPointArn());
+            return restored;
+        }
+
+        if (thrown != null) {
+            lastFailure = Util.unwrap(thrown);
+            logger.warn("Restore of recovery point {} failed: {}", recoveryPoint.recoveryPointArn(), lastFailure.getMessage());
+        } else {
+            logger.warn("Restore of recovery point {} did not complete", recoveryPoint.recoveryPointArn());
+        }
+
+        if (currentRecoveryPoint != null)
+            return null;
+        if (isSpeculative() && startNextRestore())
+            return null;
+        if (restoresInFlight == 0) {
+            if (lastFailure != null)
+                firstRestored.completeExceptionally(lastFailure);
+            else
+                firstRestored.complete(null);
+        }
+        return null;
+    }
+
+    private Void tearDownLoser(RecoveryPointByBackupVault recoveryPoint, T restored) {
+        try {
+            tearDown(restored);
+        } catch (InterruptedException | RuntimeException e) {
+            logger.error("Unable to tear down restore of {}", recoveryPoint.recoveryPointArn(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Waits for every recovery point still restoring to finish, and for the ones that lost to be torn down, so no
+     * restored resource is left behind once the clients and the executor are shut down.  Restores still running at
+     * the deadline are logged with their restore job so what they create can be deleted by hand.
+     *
+     * @param deadline long {@link System#nanoTime()} to stop waiting at
+     * @return boolean false if some restores were still running at the deadline
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean awaitRestores(long deadline) throws InterruptedException {
+        Map<String, CompletableFuture<Void>> started;
+        synchronized (this) {
+            started = new LinkedHashMap<>(restores);
+        }
+        long running = started.values().stream().filter(restore -> !restore.isDone()).count();
+        if (running > 0)
+            logger.info("Waiting for {} {} restores that lost to finish and be torn down", running, resourceType);
+        try {
+            CompletableFuture.allOf(started.values().toArray(new CompletableFuture<?>[0]))
+                    .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            logger.error("Problem finishing {} restores", resourceType, Util.unwrap(e));
+        } catch (TimeoutException e) {
+            synchronized (this) {
+                for (Map.Entry<String, CompletableFuture<Void>> restore : started.entrySet()) {
+                    if (!restore.getValue().isDone())
+                        logger.error("Stopped waiting for the restore of recovery point {}, restore job {}. Delete the {} it restores by hand",
+                                restore.getKey(), restoreJobIds.getOrDefault(restore.getKey(), "not started"), resourceType);
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Called while waiting on a restore job.  Once the job has gone longer than the stall limit without progress,
+     * the next recovery point is restored alongside it in case the stalled job never finishes.
+     *
+     * @param recoveryPoint the RecoveryPointByBackupVault being restored
+     * @param minutesWithoutProgress long number of minutes since the job last made progress
+     * @return boolean true if another restore was started
+     */
+    synchronized boolean restoreStalled(RecoveryPointByBackupVault recoveryPoint, long minutesWithoutProgress) {
+        if (restoreStallMinutes == 0 || minutesWithoutProgress < restoreStallMinutes || currentRecoveryPoint != null)
+            return false;
+
+        if (startNextRestore()) {
+            logger.warn("Restore of recovery point {} has made no progress for {} minutes, restoring the next recovery point alongside it",
+                    recoveryPoint.recoveryPointArn(), minutesWithoutProgress);
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Start the restore job for a given recovery point.
+     * @param recoveryPoint the RecoveryPointByBackupVault to restore
+     * @param metadata Map of the metadata required for the restore
      * @return AWSRestore Job ID
      */
-    synchronized String startRestore() throws RecoveryPointsExhaustedException {
+    String startRestore(RecoveryPointByBackupVault recoveryPoint, Map<String, String> metadata) {
 
-        currentRecoveryPoint = getNextRecoveryPoint();
-
-        metadata = setMetadata();
-        logger.info("Attempting to restore recovery point: {}", currentRecoveryPoint.recoveryPointArn());
+        logger.info("Attempting to restore recovery point: {}", recoveryPoint.recoveryPointArn());
 
         StartRestoreJobRequest request = StartRestoreJobRequest.builder().
-                recoveryPointArn(currentRecoveryPoint.recoveryPointArn()).iamRoleArn(currentRecoveryPoint.iamRoleArn())
+                recoveryPointArn(recoveryPoint.recoveryPointArn()).iamRoleArn(recoveryPoint.iamRoleArn())
                 .metadata(metadata).build();
 
         StartRestoreJobResponse response = backupClient.startRestoreJob(request);
+        synchronized (this) {
+            restoreJobIds.put(recoveryPoint.recoveryPointArn(), response.restoreJobId());
+        }
 
         return response.restoreJobId();
 
     }
 
+    /**
+     * Waits for a restore job to finish.  A job that stops making progress is reported to restoreStalled.
+     *
+     * @param recoveryPoint the RecoveryPointByBackupVault being restored
+     * @param restoreJobId String id of the restore job
+     * @return RestoreJob of the finished job, null if it did not complete
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    RestoreJobPoller.RestoreJob waitForRestoreJob(RecoveryPointByBackupVault recoveryPoint, String restoreJobId) throws InterruptedException {
+        RestoreJobPoller poller;
+        synchronized (this) {
+            if (restoreJobPoller == null)
+                restoreJobPoller = new RestoreJobPoller(backupClient);
+            poller = restoreJobPoller;
+        }
+
+        RestoreJobPoller.RestoreJob restoreJob;
+        try {
+            restoreJob = poller.track(restoreJobId, resourceType,
+                    minutesWithoutProgress -> restoreStalled(recoveryPoint, minutesWithoutProgress)).get();
+        } catch (ExecutionException e) {
+            logger.error("Problem with restore job id: {}", restoreJobId, Util.unwrap(e));
+            return null;
+        }
+
+        if (!restoreJob.getStatus().equals("COMPLETED")) {
+            logger.error("Restore job {} did not complete. {}", restoreJobId,
+                    restoreJob.getStatusMessage() == null ? "" : restoreJob.getStatusMessage());
+            return null;
+        }
+        return restoreJob;
+    }
+
     /**
      * Set the metadata required for restore
+     * @param recoveryPoint the RecoveryPointByBackupVault being restored
      * @return Map of the metadata
      */
-    abstract Map<String, String> setMetadata();
+    abstract Map<String, String> setMetadata(RecoveryPointByBackupVault recoveryPoint);
 
     /**
-     * Method gets a list of backup restore points from backup vault and populates a sorted data structure.
+     * Gets the completed recovery points of this resource type from the recovery point catalog and populates a
+     * sorted data structure.
      * @param backupVaultName the string name of the backup vault to retrieve recovery points from
-     * @return a TreeMap of the recovery points in the backup vault
-     *
+     * @return a TreeSet of the recovery points in the backup vault, newest first
      */
     TreeSet<RecoveryPointByBackupVault> getRecoveryPoints(String backupVaultName){
 
@@ -72,18 +358,10 @@ public abstract class AWSRestore {
 
         TreeSet<RecoveryPointByBackupVault> recoveryPointsTreeSet = new TreeSet<>( new RecoveryPointDateComparator());
 
-        Instant nowMinusDay = Instant.now().truncatedTo(ChronoUnit.SECONDS);
-        nowMinusDay = nowMinusDay.minus(1, ChronoUnit.DAYS);
-
-        //call and response with amazon to get list of vault backups
-        ListRecoveryPointsByBackupVaultRequest request =
-                ListRecoveryPointsByBackupVaultRequest.builder().
-                        backupVaultName(backupVaultName).byResourceType(resourceType).byCreatedAfter(nowMinusDay).build();
-
-        ListRecoveryPointsByBackupVaultResponse response =
-                backupClient.listRecoveryPointsByBackupVault(request);
-
-        recoveryPointsTreeSet.addAll(response.recoveryPoints());
+        recoveryPointsTreeSet.addAll(recoveryPointCatalog.query(backupVaultName, resourceType, recoveryPointMaxAge,
+                RecoveryPointStatus.COMPLETED.toString()));
+        logger.info("Found {} {} recovery points from the last {} hours", recoveryPointsTreeSet.size(), resourceType,
+                recoveryPointMaxAge.toHours());
 
         recoveryPointSetIterator = recoveryPointsTreeSet.iterator();
 
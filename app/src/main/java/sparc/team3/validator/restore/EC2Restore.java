@@ -8,80 +8,68 @@ import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.*;
 import software.amazon.awssdk.services.ec2.waiters.Ec2Waiter;
 import sparc.team3.validator.config.settings.InstanceSettings;
+import sparc.team3.validator.util.Util;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.Callable;
 
 /**
  * EC2Restore selects a recovery point to back up, restores the recovery point, and waits for the
  * recovered resource to pass initialization checks. 
  */
-public class EC2Restore extends AWSRestore implements Callable<Instance> {
+public class EC2Restore extends AWSRestore<Instance> {
 
 
     private final Ec2Client ec2Client;
 
-    public EC2Restore(BackupClient backupClient, Ec2Client ec2Client, InstanceSettings instanceSettings) {
-        super(backupClient, instanceSettings, "EC2");
+    public EC2Restore(BackupClient backupClient, RecoveryPointCatalog recoveryPointCatalog, Ec2Client ec2Client, InstanceSettings instanceSettings) {
+        super(backupClient, recoveryPointCatalog, instanceSettings, "EC2");
         this.ec2Client = ec2Client;
     }
 
     /**
-     * Entry point for a restoration.
+     * Restores a single recovery point.
+     * @param recoveryPoint the RecoveryPointByBackupVault to restore
      * @return Instance that was restored and is available and reachable
      * @throws InstanceUnavailableException if the instance will never become available
-     * @throws RecoveryPointsExhaustedException if there are no available recovery points to restore
      */
     @Override
-    public Instance call() throws InstanceUnavailableException, RecoveryPointsExhaustedException {
-        return restoreEC2FromBackup();
+    Instance restore(RecoveryPointByBackupVault recoveryPoint) throws InstanceUnavailableException {
+        return restoreEC2FromBackup(recoveryPoint);
     }
+
+    /**
+     * Terminates an instance that was restored but not chosen for validation.
+     * @param restored Instance to terminate
+     */
+    @Override
+    void tearDown(Instance restored) {
+        Util.terminateEC2Instance(restored.instanceId(), ec2Client);
+    }
+
     /**
-     * Polls AWS Backup to check when restore job is complete.
+     * Waits for the restore job to complete, then for the instance to pass its status checks.
+     * @param recoveryPoint the RecoveryPointByBackupVault to restore
      * @return Instance representing restored EC2 Instance that is available and reachable
      * @throws InstanceUnavailableException if the instance will never become available
-     * @throws RecoveryPointsExhaustedException if there are no available recovery points to restore
      */
-    public Instance restoreEC2FromBackup() throws InstanceUnavailableException, RecoveryPointsExhaustedException {
+    public Instance restoreEC2FromBackup(RecoveryPointByBackupVault recoveryPoint) throws InstanceUnavailableException {
 
-        String restoreJobId = startRestore();
+        String restoreJobId = startRestore(recoveryPoint, setMetadata(recoveryPoint));
         if(restoreJobId == null)
             return null;
-        int sleepMinutes = 1;
-        String finalStatus = null;
-        Arn resourceArn = null;
-
         logger.info("Restore EC2 job: {}", restoreJobId);
-        while (finalStatus == null) {
-            try {
-                //get restore job information and wait until status of restore job is "completed"
-                DescribeRestoreJobRequest newRequest = DescribeRestoreJobRequest
-                        .builder().restoreJobId(restoreJobId).build();
-                DescribeRestoreJobResponse restoreResult = backupClient.describeRestoreJob(newRequest);
-                String status = restoreResult.status().toString();
-
-                logger.info("Restore Job {}\t\tStatus: {}\t\tPercent Done: {}", restoreJobId,
-                        status, restoreResult.percentDone());
-
-                // when restore job is no longer running, break out of the loop otherwise sleep for a while
-                if (!status.equals("RUNNING") && !status.equals("PENDING")) {
-                    finalStatus = status;
-                    resourceArn = Arn.fromString(restoreResult.createdResourceArn());
-                } else {
-                    Thread.sleep(sleepMinutes * 60000);
-                }
-            } catch (BackupException | InterruptedException e) {
-                logger.error("Problem with restore job id: {}", restoreJobId, e);
-                return null;
-            }
-        }
-
-        if (!finalStatus.equals("COMPLETED")){
-            logger.error("Restore job {} did not complete.", restoreJobId);
+        RestoreJobPoller.RestoreJob restoreJob;
+        try {
+            restoreJob = waitForRestoreJob(recoveryPoint, restoreJobId);
+        } catch (InterruptedException e) {
+            logger.error("Problem with restore job id: {}", restoreJobId, e);
             return null;
         }
+        if (restoreJob == null)
+            return null;
+        Arn resourceArn = Arn.fromString(restoreJob.getCreatedResourceArn());
 
         Ec2Waiter waiter = ec2Client.waiter();
 
@@ -104,10 +92,11 @@ public class EC2Restore extends AWSRestore implements Callable<Instance> {
 
     /**
      * Set the metadata required for restore
+     * @param recoveryPoint the RecoveryPointByBackupVault being restored
      * @return Map of the metadata
      */
-    Map<String, String> setMetadata(){
-        return editRecoveryMeta(getRecoveryMetaData(currentRecoveryPoint));
+    Map<String, String> setMetadata(RecoveryPointByBackupVault recoveryPoint){
+        return editRecoveryMeta(getRecoveryMetaData(recoveryPoint));
     }
 
     /**
@@ -8,6 +8,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.internal.waiters.ResponseOrException;
 import software.amazon.awssdk.services.backup.BackupClient;
+import software.amazon.awssdk.services.backup.model.RecoveryPointByBackupVault;
 import software.amazon.awssdk.services.rds.RdsClient;
 import software.amazon.awssdk.services.rds.model.*;
 import software.amazon.awssdk.services.rds.waiters.RdsWaiter;
@@ -16,7 +17,6 @@ import sparc.team3.validator.config.settings.SecurityGroup;
 import sparc.team3.validator.util.Util;
 
 import java.util.Map;
-import java.util.concurrent.Callable;
 
 
 /**
@@ -32,7 +32,7 @@ import java.util.concurrent.Callable;
  * 9. log
  * 10. delete instance
  */
-public class RDSRestore extends AWSRestore implements Callable<DBInstance> {
+public class RDSRestore extends AWSRestore<DBInstance> {
 
     private final RdsClient rdsClient;
     private final String subnetGroupName;
@@ -42,11 +42,12 @@ public class RDSRestore extends AWSRestore implements Callable<DBInstance> {
     /**
      * Instantiates a new Rds restore.
      *
+     * @param recoveryPointCatalog the catalog the recovery points are chosen from
      * @param rdsClient        the rds client
      * @param instanceSettings the instanceSettings for the rds instance
      */
-    public RDSRestore(BackupClient backupClient, RdsClient rdsClient, InstanceSettings instanceSettings) {
-        super(backupClient, instanceSettings, "RDS");
+    public RDSRestore(BackupClient backupClient, RecoveryPointCatalog recoveryPointCatalog, RdsClient rdsClient, InstanceSettings instanceSettings) {
+        super(backupClient, recoveryPointCatalog, instanceSettings, "RDS");
         this.rdsClient = rdsClient;
 
         this.subnetGroupName = instanceSettings.getSubnetName();
@@ -61,30 +62,38 @@ public class RDSRestore extends AWSRestore implements Callable<DBInstance> {
     }
 
     /**
-     * Entry point for a restoration
+     * Restores a single recovery point.
+     * @param recoveryPoint the RecoveryPointByBackupVault to restore
      * @return DBInstance of restored and available DBInstance
      * @throws InstanceUnavailableException if the instance will never become available
-     * @throws RecoveryPointsExhaustedException if there are no available recovery points to restore
      */
     @Override
-    public DBInstance call() throws InstanceUnavailableException, RecoveryPointsExhaustedException {
-        return restoreRDSFromBackup();
+    DBInstance restore(RecoveryPointByBackupVault recoveryPoint) throws InstanceUnavailableException {
+        return restoreRDSFromBackup(recoveryPoint);
+    }
+
+    /**
+     * Deletes a database instance that was restored but not chosen for validation.
+     * @param restored DBInstance to delete
+     */
+    @Override
+    void tearDown(DBInstance restored) {
+        Util.deleteDBInstance(restored.dbInstanceIdentifier(), rdsClient);
     }
 
     /**
      * Restore database instance from snapshot.
      *
+     * @param recoveryPoint the RecoveryPointByBackupVault to restore
      * @return DBInstance of restored and available RDS Instance
      * @throws InstanceUnavailableException if the instance will never become available
-     * @throws RecoveryPointsExhaustedException if there are no available recovery points to restore
      */
-    public DBInstance restoreRDSFromBackup() throws RecoveryPointsExhaustedException, InstanceUnavailableException {
-        currentRecoveryPoint = getNextRecoveryPoint();
+    public DBInstance restoreRDSFromBackup(RecoveryPointByBackupVault recoveryPoint) throws InstanceUnavailableException {
         // If restoring from a shared manual DB snapshot, the DBSnapshotIdentifier must be the ARN of the shared DB snapshot.
-        String arn = currentRecoveryPoint.recoveryPointArn();
+        String arn = recoveryPoint.recoveryPointArn();
         logger.info("Attempting to restore rds snapshot: {}", arn);
 
-        String uniqueNameForRestoredDBInstance = Util.UNIQUE_RESTORE_NAME_BASE + System.currentTimeMillis();
+        String uniqueNameForRestoredDBInstance = Util.uniqueRestoreName();
 
         RestoreDbInstanceFromDbSnapshotRequest request = RestoreDbInstanceFromDbSnapshotRequest
                 .builder()
@@ -168,10 +177,11 @@ public class RDSRestore extends AWSRestore implements Callable<DBInstance> {
     /**
      * Unused for RDS
      *
+     * @param recoveryPoint the RecoveryPointByBackupVault being restored
      * @return Map of the metadata
      */
     @Override
-    Map<String, String> setMetadata() {
+    Map<String, String> setMetadata(RecoveryPointByBackupVault recoveryPoint) {
         return null;
     }
 }
@@ -0,0 +1,331 @@
+package sparc.team3.validator.restore;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.backup.BackupClient;
+import software.amazon.awssdk.services.backup.model.ListRecoveryPointsByBackupVaultRequest;
+import software.amazon.awssdk.services.backup.model.RecoveryPointByBackupVault;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * A local catalog of the recovery points in the backup vaults, kept in a file next to the save file.  The first
+ * lookup of a vault in a run pages through the recovery points created since the vault was last synced and merges
+ * them into the catalog, so only new recovery points are listed on later runs.  Queries are answered from the
+ * catalog without calling AWS.
+ */
+public class RecoveryPointCatalog {
+    /**
+     * The name of the catalog file.
+     */
+    public static final String CATALOG_FILENAME = "recovery-points.json";
+    /**
+     * How far before the last sync an incremental sync starts, so recovery points that were still being created
+     * are picked up again with their final status.
+     */
+    static final Duration SYNC_OVERLAP = Duration.ofDays(1);
+    /**
+     * How long before the whole vault is listed again, which drops recovery points deleted outside their lifecycle.
+     */
+    static final Duration FULL_SYNC_INTERVAL = Duration.ofDays(7);
+
+    private final BackupClient backupClient;
+    private final Path catalogFile;
+    private final Logger logger;
+    private final Set<String> syncedVaults = new HashSet<>();
+    private Map<String, Vault> vaults;
+
+    /**
+     * Creates the catalog.  The file is not read until the first query.
+     *
+     * @param backupClient BackupClient used to sync the catalog
+     * @param catalogFile  Path of the catalog file
+     */
+    public RecoveryPointCatalog(BackupClient backupClient, Path catalogFile) {
+        this.backupClient = backupClient;
+        this.catalogFile = catalogFile;
+        this.logger = LoggerFactory.getLogger(this.getClass().getName());
+    }
+
+    /**
+     * Gets recovery points from a vault, syncing the vault first if it hasn't been synced during this run.
+     *
+     * @param backupVaultName String name of the backup vault
+     * @param resourceType    String resource type of the recovery points, null for any
+     * @param maxAge          Duration of the oldest recovery point to return, null for any age
+     * @param status          String status of the recovery points, null for any
+     * @return List of the matching recovery points, newest first
+     */
+    public synchronized List<RecoveryPointByBackupVault> query(String backupVaultName, String resourceType, Duration maxAge, String status) {
+        if (!syncedVaults.contains(backupVaultName))
+            sync(backupVaultName);
+
+        Vault vault = vaults.get(backupVaultName);
+        if (vault == null)
+            return new ArrayList<>();
+
+        Instant oldest = maxAge == null ? Instant.MIN : Instant.now().minus(maxAge);
+        return vault.getRecoveryPoints().stream()
+                .filter(entry -> resourceType == null || resourceType.equals(entry.getResourceType()))
+                .filter(entry -> status == null || status.equals(entry.getStatus()))
+                .filter(entry -> !entry.creationInstant().isBefore(oldest))
+                .sorted(Comparator.comparing(Entry::creationInstant).reversed())
+                .map(Entry::toRecoveryPoint)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Brings a vault in the catalog up to date with AWS and saves the catalog.  If AWS can't be reached the
+     * catalog is used as it is.
+     *
+     * @param backupVaultName String name of the backup vault
+     */
+    synchronized void sync(String backupVaultName) {
+        if (vaults == null)
+            vaults = load();
+        syncedVaults.add(backupVaultName);
+
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        Vault vault = vaults.get(backupVaultName);
+        boolean fullSync = vault == null || vault.lastFullSyncInstant().plus(FULL_SYNC_INTERVAL).isBefore(now);
+
+        ListRecoveryPointsByBackupVaultRequest.Builder request = ListRecoveryPointsByBackupVaultRequest.builder()
+                .backupVaultName(backupVaultName);
+        Map<String, Entry> entries = new HashMap<>();
+        if (!fullSync) {
+            Instant since = vault.lastSyncInstant().minus(SYNC_OVERLAP);
+            for (Entry entry : vault.getRecoveryPoints()) {
+                entries.put(entry.getRecoveryPointArn(), entry);
+                // byCreatedAfter leaves out a recovery point created at exactly that time
+                if (!entry.isFinal() && !entry.creationInstant().isAfter(since))
+                    since = entry.creationInstant().minusSeconds(1);
+            }
+            request.byCreatedAfter(since);
+        }
+
+        List<RecoveryPointByBackupVault> listed;
+        try {
+            listed = backupClient.listRecoveryPointsByBackupVaultPaginator(request.build()).stream()
+                    .flatMap(response -> response.recoveryPoints().stream())
+                    .collect(Collectors.toList());
+        } catch (SdkException e) {
+            logger.warn("Unable to sync recovery points of vault {}, using the saved catalog: {}", backupVaultName, e.getMessage());
+            return;
+        }
+        listed.forEach(recoveryPoint -> entries.put(recoveryPoint.recoveryPointArn(), Entry.of(recoveryPoint)));
+
+        // Recovery points past their lifecycle have been deleted by AWS Backup
+        entries.values().removeIf(entry -> entry.deleteInstant() != null && entry.deleteInstant().isBefore(now));
+
+        logger.info("{} sync of vault {} listed {} recovery points, {} in catalog", fullSync ? "Full" : "Incremental",
+                backupVaultName, listed.size(), entries.size());
+        vaults.put(backupVaultName, new Vault(now.toString(),
+                fullSync ? now.toString() : vault.getLastFullSync(), new ArrayList<>(entries.values())));
+        save();
+    }
+
+    /**
+     * Reads the catalog file.
+     * @return Map of the vaults in the file, empty if there is no file or it can't be read
+     */
+    private Map<String, Vault> load() {
+        if (!Files.exists(catalogFile))
+            return new HashMap<>();
+        try {
+            return new ObjectMapper().readValue(catalogFile.toFile(), CatalogFile.class).getVaults();
+        } catch (IOException e) {
+            logger.warn("Unable to read recovery point catalog {}, it will be rebuilt: {}", catalogFile, e.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Writes the catalog file, replacing the old one only once the new one is fully written.
+     */
+    private void save() {
+        try {
+            Path temp = catalogFile.resolveSibling(catalogFile.getFileName() + ".tmp");
+            ObjectMapper mapper = new ObjectMapper();
+            mapper.enable(SerializationFeature.INDENT_OUTPUT);
+            mapper.writeValue(temp.toFile(), new CatalogFile(vaults));
+            Files.move(temp, catalogFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Unable to save recovery point catalog {}: {}", catalogFile, e.getMessage());
+        }
+    }
+
+    /**
+     * The contents of the catalog file.
+     */
+    static final class CatalogFile {
+        private final Map<String, Vault> vaults;
+
+        @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
+        CatalogFile(@JsonProperty("vaults") Map<String, Vault> vaults) {
+            this.vaults = vaults == null ? new HashMap<>() : new HashMap<>(vaults);
+        }
+
+        @JsonProperty("vaults")
+        Map<String, Vault> getVaults() {
+            return vaults;
+        }
+    }
+
+    /**
+     * The recovery points of a single vault and when they were synced.
+     */
+    static final class Vault {
+        private final String lastSync;
+        private final String lastFullSync;
+        private final List<Entry> recoveryPoints;
+
+        @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
+        Vault(@JsonProperty("lastSync") String lastSync,
+              @JsonProperty("lastFullSync") String lastFullSync,
+              @JsonProperty("recoveryPoints") List<Entry> recoveryPoints) {
+            this.lastSync = lastSync;
+            this.lastFullSync = lastFullSync;
+            this.recoveryPoints = recoveryPoints == null ? List.of() : recoveryPoints;
+        }
+
+        @JsonProperty("lastSync")
+        String getLastSync() {
+            return lastSync;
+        }
+
+        @JsonProperty("lastFullSync")
+        String getLastFullSync() {
+            return lastFullSync;
+        }
+
+        @JsonProperty("recoveryPoints")
+        List<Entry> getRecoveryPoints() {
+            return recoveryPoints;
+        }
+
+        Instant lastSyncInstant() {
+            return lastSync == null ? Instant.EPOCH : Instant.parse(lastSync);
+        }
+
+        Instant lastFullSyncInstant() {
+            return lastFullSync == null ? Instant.EPOCH : Instant.parse(lastFullSync);
+        }
+    }
+
+    /**
+     * The parts of a recovery point needed to choose and restore it.
+     */
+    static final class Entry {
+        private final String recoveryPointArn;
+        private final String backupVaultName;
+        private final String resourceType;
+        private final String resourceArn;
+        private final String iamRoleArn;
+        private final String status;
+        private final String creationDate;
+        private final String deleteAt;
+
+        @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
+        Entry(@JsonProperty("recoveryPointArn") String recoveryPointArn,
+              @JsonProperty("backupVaultName") String backupVaultName,
+              @JsonProperty("resourceType") String resourceType,
+              @JsonProperty("resourceArn") String resourceArn,
+              @JsonProperty("iamRoleArn") String iamRoleArn,
+              @JsonProperty("status") String status,
+              @JsonProperty("creationDate") String creationDate,
+              @JsonProperty("deleteAt") String deleteAt) {
+            this.recoveryPointArn = recoveryPointArn;
+            this.backupVaultName = backupVaultName;
+            this.resourceType = resourceType;
+            this.resourceArn = resourceArn;
+            this.iamRoleArn = iamRoleArn;
+            this.status = status;
+            this.creationDate = creationDate;
+            this.deleteAt = deleteAt;
+        }
+
+        static Entry of(RecoveryPointByBackupVault recoveryPoint) {
+            Instant deleteAt = recoveryPoint.calculatedLifecycle() == null ? null : recoveryPoint.calculatedLifecycle().deleteAt();
+            return new Entry(recoveryPoint.recoveryPointArn(), recoveryPoint.backupVaultName(),
+                    recoveryPoint.resourceType(), recoveryPoint.resourceArn(), recoveryPoint.iamRoleArn(),
+                    recoveryPoint.statusAsString(),
+                    recoveryPoint.creationDate() == null ? null : recoveryPoint.creationDate().toString(),
+                    deleteAt == null ? null : deleteAt.toString());
+        }
+
+        RecoveryPointByBackupVault toRecoveryPoint() {
+            return RecoveryPointByBackupVault.builder().recoveryPointArn(recoveryPointArn).backupVaultName(backupVaultName)
+                    .resourceType(resourceType).resourceArn(resourceArn).iamRoleArn(iamRoleArn).status(status)
+                    .creationDate(creationInstant()).build();
+        }
+
+        @JsonProperty("recoveryPointArn")
+        String getRecoveryPointArn() {
+            return recoveryPointArn;
+        }
+
+        @JsonProperty("backupVaultName")
+        String getBackupVaultName() {
+            return backupVaultName;
+        }
+
+        @JsonProperty("resourceType")
+        String getResourceType() {
+            return resourceType;
+        }
+
+        @JsonProperty("resourceArn")
+        String getResourceArn() {
+            return resourceArn;
+        }
+
+        @JsonProperty("iamRoleArn")
+        String getIamRoleArn() {
+            return iamRoleArn;
+        }
+
+        @JsonProperty("status")
+        String getStatus() {
+            return status;
+        }
+
+        @JsonProperty("creationDate")
+        String getCreationDate() {
+            return creationDate;
+        }
+
+        @JsonProperty("deleteAt")
+        String getDeleteAt() {
+            return deleteAt;
+        }
+
+        Instant creationInstant() {
+            return creationDate == null ? Instant.EPOCH : Instant.parse(creationDate);
+        }
+
+        Instant deleteInstant() {
+            return deleteAt == null ? null : Instant.parse(deleteAt);
+        }
+
+        /**
+         * Whether the recovery point has finished being created.
+         * @return boolean if the status will no longer change
+         */
+        boolean isFinal() {
+            return status != null && !status.equals("CREATING");
+        }
+    }
+}
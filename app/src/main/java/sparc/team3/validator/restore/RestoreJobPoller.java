@@ -0,0 +1,402 @@
+package sparc.team3.validator.restore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.arns.Arn;
+import software.amazon.awssdk.services.backup.BackupClient;
+import software.amazon.awssdk.services.backup.model.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks every active AWS Backup restore job from a single thread.  Jobs are checked together with ListRestoreJobs
+ * when more than one is active, and how long to wait before the next check is worked out from each job's
+ * percent done and how long past restores of the same resource type took.  The future for a job completes as soon
+ * as the check that sees it finish returns.
+ */
+public class RestoreJobPoller implements AutoCloseable {
+    /**
+     * The shortest time between checks.
+     */
+    static final Duration MIN_INTERVAL = Duration.ofSeconds(15);
+    /**
+     * The longest time between checks.
+     */
+    static final Duration MAX_INTERVAL = Duration.ofMinutes(5);
+    /**
+     * The time between checks when there is nothing to estimate the remaining time from.
+     */
+    static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(1);
+    /**
+     * How far back completed restore jobs are read to learn how long restores take.
+     */
+    static final Duration HISTORY = Duration.ofDays(30);
+
+    private final BackupClient backupClient;
+    private final Logger logger;
+    private final Map<String, TrackedJob> jobs = new HashMap<>();
+    private final Map<String, Duration> totalDurations = new HashMap<>();
+    private final Map<String, Integer> durationCounts = new HashMap<>();
+    private ScheduledExecutorService scheduler;
+    private boolean historyLoaded = false;
+
+    public RestoreJobPoller(BackupClient backupClient) {
+        this.backupClient = backupClient;
+        this.logger = LoggerFactory.getLogger(this.getClass().getName());
+    }
+
+    /**
+     * Starts tracking a restore job.
+     *
+     * @param restoreJobId  String id of the restore job
+     * @param resourceType  String resource type being restored, used to estimate how long the job will take
+     * @param stallListener StallListener told each time a check finds the job has made no progress, may be null
+     * @return CompletableFuture that completes with the final state of the job once it is no longer running
+     */
+    public synchronized CompletableFuture<RestoreJob> track(String restoreJobId, String resourceType, StallListener stallListener) {
+        TrackedJob job = new TrackedJob(restoreJobId, resourceType, stallListener);
+        jobs.put(restoreJobId, job);
+
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "restore-job-poller");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.schedule(this::poll, MIN_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return job.future;
+    }
+
+    /**
+     * Checks all tracked jobs, completes the ones that have finished and schedules the next check.
+     */
+    private void poll() {
+        List<TrackedJob> active;
+        synchronized (this) {
+            active = new ArrayList<>(jobs.values());
+        }
+
+        try {
+            if (!historyLoaded)
+                loadHistory();
+
+            for (RestoreJob restoreJob : describeJobs(active))
+                update(restoreJob);
+        } catch (BackupException e) {
+            logger.warn("Problem checking restore jobs: {}", e.getMessage());
+        } catch (RuntimeException e) {
+            logger.error("Unexpected error checking restore jobs", e);
+        }
+
+        synchronized (this) {
+            if (scheduler == null)
+                return;
+            if (jobs.isEmpty()) {
+                scheduler.shutdown();
+                scheduler = null;
+                return;
+            }
+            Duration interval = nextInterval();
+            logger.debug("Checking {} restore jobs again in {} seconds", jobs.size(), interval.toSeconds());
+            scheduler.schedule(this::poll, interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Gets the current state of the jobs, with one DescribeRestoreJob when only one job is active and with
+     * ListRestoreJobs otherwise.  Jobs that ListRestoreJobs doesn't return yet are described individually.
+     *
+     * @param active List of the TrackedJobs to check
+     * @return List of the RestoreJobs that were found
+     */
+    private List<RestoreJob> describeJobs(List<TrackedJob> active) {
+        List<RestoreJob> found = new ArrayList<>();
+        if (active.isEmpty())
+            return found;
+
+        Set<String> missing = new HashSet<>();
+        active.forEach(job -> missing.add(job.restoreJobId));
+
+        if (active.size() > 1) {
+            Instant earliest = active.stream().map(job -> job.started).min(Comparator.naturalOrder()).orElse(Instant.now());
+            ListRestoreJobsRequest request = ListRestoreJobsRequest.builder()
+                    .byCreatedAfter(earliest.minus(5, ChronoUnit.MINUTES)).build();
+
+            backupClient.listRestoreJobsPaginator(request).stream()
+                    .flatMap(response -> response.restoreJobs().stream())
+                    .filter(member -> missing.remove(member.restoreJobId()))
+                    .forEach(member -> found.add(new RestoreJob(member.restoreJobId(), member.statusAsString(),
+                            member.percentDone(), member.createdResourceArn(), member.statusMessage())));
+        }
+
+        for (String restoreJobId : missing) {
+            DescribeRestoreJobResponse response = backupClient.describeRestoreJob(
+                    DescribeRestoreJobRequest.builder().restoreJobId(restoreJobId).build());
+            found.add(new RestoreJob(response.restoreJobId(), response.statusAsString(), response.percentDone(),
+                    response.createdResourceArn(), response.statusMessage()));
+        }
+        return found;
+    }
+
+    /**
+     * Records the latest state of a job, completing its future if it has finished.
+     * @param restoreJob RestoreJob with the latest state
+     */
+    private void update(RestoreJob restoreJob) {
+        TrackedJob job;
+        synchronized (this) {
+            job = jobs.get(restoreJob.getRestoreJobId());
+        }
+        if (job == null)
+            return;
+
+        logger.info("Restore Job {}\t\tStatus: {}\t\tPercent Done: {}", restoreJob.getRestoreJobId(),
+                restoreJob.getStatus(), restoreJob.getPercentDone());
+
+        Instant now = Instant.now();
+        if (restoreJob.isFinished()) {
+            synchronized (this) {
+                jobs.remove(restoreJob.getRestoreJobId());
+                if (restoreJob.getStatus().equals("COMPLETED"))
+                    recordDuration(job.resourceType, Duration.between(job.started, now));
+            }
+            job.future.complete(restoreJob);
+            return;
+        }
+
+        double percentDone = restoreJob.getPercentDoneValue();
+        if (percentDone > job.percentDone) {
+            job.percentDone = percentDone;
+            job.lastProgress = now;
+        } else if (job.stallListener != null) {
+            long minutesWithoutProgress = Duration.between(job.lastProgress, now).toMinutes();
+            if (job.stallListener.stalled(minutesWithoutProgress))
+                job.lastProgress = now;
+        }
+    }
+
+    /**
+     * Works out how long to wait before the next check.  Each job's remaining time is estimated from its progress
+     * so far, or from how long past restores of its type took if it hasn't reported progress yet.  The next check
+     * is at half of the shortest remaining time so finishing jobs are noticed quickly without checking constantly.
+     *
+     * @return Duration to wait
+     */
+    private synchronized Duration nextInterval() {
+        Instant now = Instant.now();
+        Duration shortest = null;
+        for (TrackedJob job : jobs.values()) {
+            Duration average = durationCounts.containsKey(job.resourceType) ? averageDuration(job.resourceType) : null;
+            Duration remaining = remaining(Duration.between(job.started, now), job.percentDone, average);
+            if (shortest == null || remaining.compareTo(shortest) < 0)
+                shortest = remaining;
+        }
+        return intervalFor(shortest);
+    }
+
+    /**
+     * Estimates how long a job has left, from its progress so far or else from how long past restores took.
+     *
+     * @param elapsed     Duration since the job started
+     * @param percentDone double percent done the job last reported
+     * @param average     Duration past restores of the job's type took on average, null if there are none
+     * @return Duration the job is expected to take still
+     */
+    static Duration remaining(Duration elapsed, double percentDone, Duration average) {
+        if (percentDone > 0 && percentDone < 100)
+            return Duration.ofMillis((long) (elapsed.toMillis() * (100 - percentDone) / percentDone));
+        if (average != null)
+            return average.minus(elapsed);
+        return DEFAULT_INTERVAL.multipliedBy(2);
+    }
+
+    /**
+     * The time to wait before the next check, half of the shortest remaining time kept between
+     * {@link #MIN_INTERVAL} and {@link #MAX_INTERVAL}.
+     *
+     * @param shortest Duration of the shortest remaining time, null if no jobs are tracked
+     * @return Duration to wait
+     */
+    static Duration intervalFor(Duration shortest) {
+        if (shortest == null)
+            return DEFAULT_INTERVAL;
+        Duration interval = shortest.dividedBy(2);
+        if (interval.compareTo(MIN_INTERVAL) < 0)
+            return MIN_INTERVAL;
+        if (interval.compareTo(MAX_INTERVAL) > 0)
+            return MAX_INTERVAL;
+        return interval;
+    }
+
+    /**
+     * Reads recently completed restore jobs once so the first restores of a run already have past durations to go on.
+     */
+    private void loadHistory() {
+        historyLoaded = true;
+        ListRestoreJobsRequest request = ListRestoreJobsRequest.builder().byStatus(RestoreJobStatus.COMPLETED)
+                .byCreatedAfter(Instant.now().minus(HISTORY)).build();
+
+        List<RestoreJobsListMember> completed = new ArrayList<>();
+        backupClient.listRestoreJobsPaginator(request).stream()
+                .forEach(response -> completed.addAll(response.restoreJobs()));
+        synchronized (this) {
+            for (RestoreJobsListMember member : completed) {
+                String resourceType = resourceTypeOf(member.createdResourceArn());
+                if (resourceType != null && member.creationDate() != null && member.completionDate() != null)
+                    recordDuration(resourceType, Duration.between(member.creationDate(), member.completionDate()));
+            }
+        }
+        logger.debug("Loaded durations of {} completed restore jobs", completed.size());
+    }
+
+    /**
+     * Gets the resource type of a restored resource from its ARN.
+     * @param createdResourceArn String ARN of the restored resource
+     * @return String of the resource type, null if it isn't one that is restored
+     */
+    private static String resourceTypeOf(String createdResourceArn) {
+        if (createdResourceArn == null)
+            return null;
+        try {
+            switch (Arn.fromString(createdResourceArn).service()) {
+                case "ec2":
+                    return "EC2";
+                case "rds":
+                    return "RDS";
+                case "s3":
+                    return "S3";
+                default:
+                    return null;
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void recordDuration(String resourceType, Duration duration) {
+        totalDurations.merge(resourceType, duration, Duration::plus);
+        durationCounts.merge(resourceType, 1, Integer::sum);
+    }
+
+    private Duration averageDuration(String resourceType) {
+        return totalDurations.get(resourceType).dividedBy(durationCounts.get(resourceType));
+    }
+
+    /**
+     * Stops checking on jobs.  The futures of jobs still being tracked complete exceptionally so nothing is left
+     * waiting on them.
+     */
+    @Override
+    public void close() {
+        List<TrackedJob> outstanding;
+        synchronized (this) {
+            if (scheduler != null)
+                scheduler.shutdownNow();
+            scheduler = null;
+            outstanding = new ArrayList<>(jobs.values());
+            jobs.clear();
+        }
+        for (TrackedJob job : outstanding)
+            job.future.completeExceptionally(new IllegalStateException("Stopped checking on restore job " + job.restoreJobId));
+    }
+
+    /**
+     * Told each time a check finds a job has made no progress since the check before.
+     */
+    @FunctionalInterface
+    public interface StallListener {
+        /**
+         * @param minutesWithoutProgress long number of minutes since the job last made progress
+         * @return boolean true if the stall was handled and the stall time should start over
+         */
+        boolean stalled(long minutesWithoutProgress);
+    }
+
+    /**
+     * The state of a restore job.
+     */
+    public static final class RestoreJob {
+        private final String restoreJobId;
+        private final String status;
+        private final String percentDone;
+        private final String createdResourceArn;
+        private final String statusMessage;
+
+        RestoreJob(String restoreJobId, String status, String percentDone, String createdResourceArn, String statusMessage) {
+            this.restoreJobId = restoreJobId;
+            this.status = status;
+            this.percentDone = percentDone;
+            this.createdResourceArn = createdResourceArn;
+            this.statusMessage = statusMessage;
+        }
+
+        public String getRestoreJobId() {
+            return restoreJobId;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getPercentDone() {
+            return percentDone;
+        }
+
+        public String getCreatedResourceArn() {
+            return createdResourceArn;
+        }
+
+        public String getStatusMessage() {
+            return statusMessage;
+        }
+
+        /**
+         * Whether the job is no longer running.
+         * @return boolean if the job has finished
+         */
+        public boolean isFinished() {
+            return !status.equals("RUNNING") && !status.equals("PENDING") && !status.equals("CREATED");
+        }
+
+        /**
+         * The percent done as a number, AWS reports it as a string such as "42.00%".
+         * @return double of the percent done, 0 if it isn't known
+         */
+        double getPercentDoneValue() {
+            if (percentDone == null)
+                return 0;
+            try {
+                return Double.parseDouble(percentDone.replace("%", "").strip());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * A job being tracked and what is known about its progress.
+     */
+    private static class TrackedJob {
+        final String restoreJobId;
+        final String resourceType;
+        final StallListener stallListener;
+        final CompletableFuture<RestoreJob> future = new CompletableFuture<>();
+        final Instant started = Instant.now();
+        double percentDone = 0;
+        Instant lastProgress = started;
+
+        TrackedJob(String restoreJobId, String resourceType, StallListener stallListener) {
+            this.restoreJobId = restoreJobId;
+            this.resourceType = resourceType;
+            this.stallListener = stallListener;
+        }
+    }
+}
@@ -1,9 +1,7 @@
 package sparc.team3.validator.restore;
 
 import software.amazon.awssdk.services.backup.BackupClient;
-import software.amazon.awssdk.services.backup.model.BackupException;
-import software.amazon.awssdk.services.backup.model.DescribeRestoreJobRequest;
-import software.amazon.awssdk.services.backup.model.DescribeRestoreJobResponse;
+import software.amazon.awssdk.services.backup.model.RecoveryPointByBackupVault;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetBucketPolicyRequest;
 import software.amazon.awssdk.services.s3.model.GetBucketPolicyResponse;
@@ -14,93 +12,75 @@ import sparc.team3.validator.util.Util;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.Callable;
 
 
 /**
  * Class used to restore the most recent S3 recovery point from S3 backup vault
  */
-public class S3Restore extends AWSRestore implements Callable<String> {
-    private String restoreBucketName;
+public class S3Restore extends AWSRestore<String> {
     private final S3Client s3Client;
 
-    public S3Restore(BackupClient backupClient, S3Client s3Client, InstanceSettings instanceSettings){
-        super(backupClient, instanceSettings, "S3");
+    public S3Restore(BackupClient backupClient, RecoveryPointCatalog recoveryPointCatalog, S3Client s3Client, InstanceSettings instanceSettings){
+        super(backupClient, recoveryPointCatalog, instanceSettings, "S3");
         this.s3Client = s3Client;
     }
 
     /**
-     * Entry point for a restoration
+     * Restores a single recovery point.
+     * @param recoveryPoint the RecoveryPointByBackupVault to restore
      * @return String of bucket name
      * @throws InterruptedException if thread is interrupted
-     * @throws RecoveryPointsExhaustedException if there are no available recovery points to restore
      */
     @Override
-    public String call() throws InterruptedException, RecoveryPointsExhaustedException {
-        return restoreS3FromBackup();
+    String restore(RecoveryPointByBackupVault recoveryPoint) throws InterruptedException {
+        return restoreS3FromBackup(recoveryPoint);
     }
 
     /**
-     * Polls AWS Backup to check when restore job is complete.
+     * Deletes a bucket that was restored but not chosen for validation.
+     * @param restored String of the bucket name to delete
+     * @throws InterruptedException if thread is interrupted
+     */
+    @Override
+    void tearDown(String restored) throws InterruptedException {
+        Util.deleteS3Instance(restored, s3Client);
+    }
+
+    /**
+     * Waits for the restore job to complete.
      * If restore job is successful, copy bucket policy from production bucket to restored bucket.
+     * @param recoveryPoint the RecoveryPointByBackupVault to restore
      * @return a string of the bucket name
-     * @throws InterruptedException when sleep is interrupted
-     * @throws RecoveryPointsExhaustedException if there are no available recovery points to restore
+     * @throws InterruptedException when waiting is interrupted
      */
-    public String restoreS3FromBackup() throws InterruptedException, RecoveryPointsExhaustedException {
+    public String restoreS3FromBackup(RecoveryPointByBackupVault recoveryPoint) throws InterruptedException {
 
-        String restoreJobId = startRestore();
+        Map<String, String> metadata = setMetadata(recoveryPoint);
+        String restoreBucketName = metadata.get("DestinationBucketName");
+        String restoreJobId = startRestore(recoveryPoint, metadata);
         if(restoreJobId == null)
             return null;
-        int sleepMinutes = 4;
-        String finalStatus = null;
-
         logger.info("Restore S3 job: {}", restoreJobId);
-        while (finalStatus == null) {
-            try {
-                //get restore job information and wait until status of restore job is "completed"
-                DescribeRestoreJobRequest newRequest = DescribeRestoreJobRequest
-                        .builder().restoreJobId(restoreJobId).build();
-                DescribeRestoreJobResponse restoreResult = backupClient.describeRestoreJob(newRequest);
-                String status = restoreResult.status().toString();
-
-                logger.info("Restore Job {}\t\tStatus: {}\t\tPercent Done: {}", restoreJobId,
-                        status, restoreResult.percentDone());
-
-                // when restore job is no longer running, break out of the loop otherwise sleep for a while
-                if (!status.equals("RUNNING") && !status.equals("PENDING")) {
-                    finalStatus = status;
-                } else {
-                    Thread.sleep(sleepMinutes * 60000);
-                }
-            } catch (BackupException e) {
-                logger.error("Problem with restore job id: {}", restoreJobId, e);
-                return null;
-            }
-        }
-
-        if (!finalStatus.equals("COMPLETED")){
-            logger.error("Restore job {} did not complete.", restoreJobId);
+        if (waitForRestoreJob(recoveryPoint, restoreJobId) == null)
             return null;
-        }
 
         // copy bucket policy from production bucket to restored bucket
-        copyS3Policy();
+        copyS3Policy(restoreBucketName);
 
         return restoreBucketName;
     }
 
     /**
      * Populates a Map with metadata required for S3 restore
+     * @param recoveryPoint the RecoveryPointByBackupVault being restored
      * @return a Map of the string metadata
      */
-    Map<String, String> setMetadata()
+    Map<String, String> setMetadata(RecoveryPointByBackupVault recoveryPoint)
     {
         Map<String, String> output = new HashMap<>();
 
-        // The destination bucket for your restore
-        restoreBucketName = Util.UNIQUE_RESTORE_NAME_BASE + System.currentTimeMillis();
-        output.put("DestinationBucketName", restoreBucketName);
+        // The destination bucket for your restore, unique for each recovery point restored
+        output.put("DestinationBucketName", Util.uniqueRestoreName());
 
         // Boolean to indicate whether to create a new bucket
         output.put("NewBucket", "true");
@@ -121,8 +101,9 @@ public class S3Restore extends AWSRestore implements Callable<String> {
      * Retrieves the policy assigned to the original s3 bucket (production bucket), and switches out the resource name
      * in the policy, and then adding the policy to the restored s3 bucket.
      * The policy is set for s3 objects to have public access.
+     * @param restoreBucketName the string name of the restored bucket
      */
-    private void copyS3Policy(){
+    private void copyS3Policy(String restoreBucketName){
 
         String s3ProductionBucketName = instanceSettings.getProductionName();
         GetBucketPolicyRequest getPolicyReq = GetBucketPolicyRequest.builder().bucket(s3ProductionBucketName).build();
@@ -0,0 +1,102 @@
+package sparc.team3.validator.util;
+
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.backup.BackupClient;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.rds.RdsClient;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.sns.SnsClient;
+import sparc.team3.validator.restore.RestoreJobPoller;
+
+/**
+ * The AWS service clients for a single region.  The clients are thread safe, so one set can be shared by every
+ * stack validated in that region, as is the poller that checks on their restore jobs.  The S3 clients' connection
+ * pools are sized for the requests the stacks sharing them send at once, so requests don't time out waiting for a
+ * connection.
+ */
+public class AWSClients implements AutoCloseable {
+    /**
+     * The fewest connections an S3 client is given, the SDK's default of {@value}.
+     */
+    static final int MIN_S3_CONNECTIONS = 50;
+    private final Region region;
+    private final BackupClient backupClient;
+    private final Ec2Client ec2Client;
+    private final S3Client s3Client;
+    private final S3AsyncClient s3AsyncClient;
+    private final RdsClient rdsClient;
+    private final SnsClient snsClient;
+    private final RestoreJobPoller restoreJobPoller;
+
+    /**
+     * Builds each of the service clients for the region.
+     * @param region the Region the clients will connect to
+     * @param s3Connections int of the requests sent at once on the S3Client, not counting emptying restored buckets
+     * @param s3AsyncConnections int of the requests sent at once on the S3AsyncClient
+     */
+    public AWSClients(Region region, int s3Connections, int s3AsyncConnections) {
+        this.region = region;
+        backupClient = BackupClient.builder().region(region).build();
+        ec2Client = Ec2Client.builder().region(region).build();
+        s3Client = S3Client.builder().region(region)
+                .httpClientBuilder(ApacheHttpClient.builder()
+                        .maxConnections(Math.max(MIN_S3_CONNECTIONS, s3Connections + S3BucketDrain.MAX_BATCHES_IN_FLIGHT)))
+                .build();
+        s3AsyncClient = S3AsyncClient.builder().region(region)
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                        .maxConcurrency(Math.max(MIN_S3_CONNECTIONS, s3AsyncConnections)))
+                .build();
+        rdsClient = RdsClient.builder().region(region).build();
+        snsClient = SnsClient.builder().region(region).build();
+        restoreJobPoller = new RestoreJobPoller(backupClient);
+    }
+
+    public Region getRegion() {
+        return region;
+    }
+
+    public BackupClient getBackupClient() {
+        return backupClient;
+    }
+
+    public Ec2Client getEc2Client() {
+        return ec2Client;
+    }
+
+    public S3Client getS3Client() {
+        return s3Client;
+    }
+
+    public S3AsyncClient getS3AsyncClient() {
+        return s3AsyncClient;
+    }
+
+    public RdsClient getRdsClient() {
+        return rdsClient;
+    }
+
+    public SnsClient getSnsClient() {
+        return snsClient;
+    }
+
+    public RestoreJobPoller getRestoreJobPoller() {
+        return restoreJobPoller;
+    }
+
+    /**
+     * Stops the restore job poller and closes all of the clients.
+     */
+    @Override
+    public void close() {
+        restoreJobPoller.close();
+        backupClient.close();
+        ec2Client.close();
+        s3Client.close();
+        s3AsyncClient.close();
+        rdsClient.close();
+        snsClient.close();
+    }
+}
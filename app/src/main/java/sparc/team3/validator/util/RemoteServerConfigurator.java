@@ -8,7 +8,6 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -26,16 +25,17 @@ public class RemoteServerConfigurator extends RemoteServerConnection{
      */
     public RemoteServerConfigurator(String server, Settings settings) throws IOException {
         super(server, settings.getServerUsername(), settings.getPrivateKeyFile());
-        String tempDir = System.getProperty("java.io.tmpdir");
+        // Use a directory of our own so stacks configuring servers at the same time don't overwrite each other's files
+        Path tempDir = Files.createTempDirectory(Util.APP_DIR_NAME);
         openSSHConnection();
         openSFTPConnection();
 
         // Loop through each of the config files that need changes
         for (ServerConfigFile configFile : settings.getConfigFiles()) {
             // Download the config file from the remote server and save it to the local temp directory
-            downloadFile(configFile.getFullFilePath(), tempDir);
+            downloadFile(configFile.getFullFilePath(), tempDir.toString());
 
-            Path tempFile = Paths.get(tempDir,configFile.getFilename());
+            Path tempFile = tempDir.resolve(configFile.getFilename());
 
             // Modify and upload the temp config file
             alterConfigFile(configFile.getSettings().entrySet(), tempFile);
@@ -46,6 +46,7 @@ public class RemoteServerConfigurator extends RemoteServerConnection{
 
         closeSFTPConnection();
         closeSSHConnection();
+        Files.delete(tempDir);
     }
 
     /**
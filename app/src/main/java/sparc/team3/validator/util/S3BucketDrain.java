@@ -0,0 +1,234 @@
+package sparc.team3.validator.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Empties a bucket of every object version and delete marker, then deletes the bucket.
+ * <p>
+ * The versions are listed a page at a time, with the next page requested while the current one is handed out, and
+ * cut into batches of up to {@value #BATCH_SIZE} keys.  Each batch is one DeleteObjects request, and up to
+ * {@value #MAX_BATCHES_IN_FLIGHT} batches are deleted at once while the listing carries on.  DeleteObjects reports the
+ * keys it couldn't delete, so only those are sent again, backing off between attempts.  The bucket is only deleted if
+ * every version was.
+ */
+public final class S3BucketDrain {
+    /**
+     * The most keys a DeleteObjects request can take is {@value}.
+     */
+    static final int BATCH_SIZE = 1000;
+    /**
+     * The number of DeleteObjects requests outstanding at once is {@value}.
+     */
+    static final int MAX_BATCHES_IN_FLIGHT = 16;
+    /**
+     * How many times a key is sent to DeleteObjects, or a page listed, before giving up is {@value}.
+     */
+    private static final int MAX_ATTEMPTS = 5;
+    /**
+     * Milliseconds waited before the first retry, doubled for each one after it.
+     */
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    /**
+     * Seconds between progress messages.
+     */
+    private static final long PROGRESS_SECONDS = 10;
+
+    private final S3Client s3;
+    private final String bucketName;
+    private final Semaphore inFlight = new Semaphore(MAX_BATCHES_IN_FLIGHT);
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Logger logger;
+    private long listed = 0;
+
+    /**
+     * Sets up the drain.
+     *
+     * @param s3         S3Client to list and delete with
+     * @param bucketName String name of the bucket to empty and delete
+     */
+    public S3BucketDrain(S3Client s3, String bucketName) {
+        this.s3 = s3;
+        this.bucketName = bucketName;
+        this.logger = LoggerFactory.getLogger(this.getClass().getName());
+    }
+
+    /**
+     * Empties and deletes the bucket.  Errors are logged rather than thrown, a bucket that can't be emptied is left
+     * behind.
+     *
+     * @return boolean if the bucket was deleted
+     * @throws InterruptedException if interrupted while waiting for a batch or a retry
+     */
+    public boolean run() throws InterruptedException {
+        logger.info("Emptying S3 Bucket: {}", bucketName);
+        long start = System.nanoTime();
+        long lastProgress = start;
+        boolean listedAll = false;
+
+        try {
+            ListObjectVersionsResponse page = list(null, null);
+            List<ObjectIdentifier> batch = new ArrayList<>(BATCH_SIZE);
+            while (true) {
+                // ask for the next page while this one is deleted
+                CompletableFuture<ListObjectVersionsResponse> next = null;
+                if (Boolean.TRUE.equals(page.isTruncated())) {
+                    String keyMarker = page.nextKeyMarker();
+                    String versionIdMarker = page.nextVersionIdMarker();
+                    next = Util.supplyAsync(() -> list(keyMarker, versionIdMarker));
+                }
+
+                for (DeleteMarkerEntry marker : page.deleteMarkers())
+                    batch = add(batch, ObjectIdentifier.builder().key(marker.key()).versionId(marker.versionId()).build());
+                for (ObjectVersion version : page.versions())
+                    batch = add(batch, ObjectIdentifier.builder().key(version.key()).versionId(version.versionId()).build());
+
+                if (System.nanoTime() - lastProgress > TimeUnit.SECONDS.toNanos(PROGRESS_SECONDS)) {
+                    lastProgress = System.nanoTime();
+                    logProgress(start);
+                }
+
+                if (next == null)
+                    break;
+                page = join(next);
+            }
+            if (!batch.isEmpty())
+                submit(batch);
+            listedAll = true;
+        } catch (S3Exception e) {
+            logger.error("Error listing objects in {}", bucketName, e);
+        } finally {
+            // wait for the last batches
+            inFlight.acquire(MAX_BATCHES_IN_FLIGHT);
+            inFlight.release(MAX_BATCHES_IN_FLIGHT);
+        }
+
+        logProgress(start);
+        if (!listedAll || failed.get() > 0) {
+            logger.error("Unable to empty {}, {} object versions could not be deleted", bucketName, failed.get());
+            return false;
+        }
+
+        try {
+            s3.deleteBucket(DeleteBucketRequest.builder().bucket(bucketName).build());
+        } catch (S3Exception e) {
+            logger.error("Error deleting {}", bucketName, e);
+            return false;
+        }
+
+        logger.info("S3 Bucket {} has been deleted", bucketName);
+        return true;
+    }
+
+    /**
+     * Lists a page of versions, retrying with a back off if it fails.
+     */
+    private ListObjectVersionsResponse list(String keyMarker, String versionIdMarker) throws InterruptedException {
+        ListObjectVersionsRequest request = ListObjectVersionsRequest.builder()
+                .bucket(bucketName)
+                .keyMarker(keyMarker)
+                .versionIdMarker(versionIdMarker)
+                .build();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return s3.listObjectVersions(request);
+            } catch (S3Exception e) {
+                if (attempt == MAX_ATTEMPTS)
+                    throw e;
+                logger.warn("Error listing objects in {}, retrying", bucketName, e);
+                Thread.sleep(RETRY_DELAY_MILLIS << (attempt - 1));
+            }
+        }
+    }
+
+    private ListObjectVersionsResponse join(CompletableFuture<ListObjectVersionsResponse> future) throws InterruptedException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = Util.unwrap(e);
+            if (cause instanceof InterruptedException)
+                throw (InterruptedException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Adds a version to the batch, sending the batch off once it is full.
+     * @return List the next version should be added to
+     */
+    private List<ObjectIdentifier> add(List<ObjectIdentifier> batch, ObjectIdentifier id) throws InterruptedException {
+        listed++;
+        batch.add(id);
+        if (batch.size() < BATCH_SIZE)
+            return batch;
+        submit(batch);
+        return new ArrayList<>(BATCH_SIZE);
+    }
+
+    private void submit(List<ObjectIdentifier> batch) throws InterruptedException {
+        inFlight.acquire();
+        Util.supplyAsync(() -> deleteBatch(batch)).whenComplete((result, e) -> {
+            inFlight.release();
+            if (e != null) {
+                failed.addAndGet(batch.size());
+                logger.error("Error deleting objects in {}", bucketName, Util.unwrap(e));
+            }
+        });
+    }
+
+    /**
+     * Deletes a batch of versions, sending only the keys that failed again until they are all gone or the attempts
+     * run out.
+     */
+    private Void deleteBatch(List<ObjectIdentifier> batch) throws InterruptedException {
+        List<ObjectIdentifier> remaining = batch;
+        for (int attempt = 1; ; attempt++) {
+            String error;
+            try {
+                DeleteObjectsResponse response = s3.deleteObjects(DeleteObjectsRequest.builder()
+                        .bucket(bucketName)
+                        .delete(Delete.builder().objects(remaining).quiet(true).build())
+                        .build());
+                deleted.addAndGet(remaining.size() - response.errors().size());
+                if (response.errors().isEmpty())
+                    return null;
+
+                List<ObjectIdentifier> retry = new ArrayList<>(response.errors().size());
+                for (S3Error failure : response.errors())
+                    retry.add(ObjectIdentifier.builder().key(failure.key()).versionId(failure.versionId()).build());
+                remaining = retry;
+                S3Error first = response.errors().get(0);
+                error = first.code() + " " + first.message();
+            } catch (S3Exception e) {
+                error = e.getMessage();
+            }
+
+            if (attempt == MAX_ATTEMPTS) {
+                failed.addAndGet(remaining.size());
+                logger.error("Unable to delete {} object versions in {}: {}", remaining.size(), bucketName, error);
+                return null;
+            }
+            logger.warn("Error deleting {} object versions in {}, retrying: {}", remaining.size(), bucketName, error);
+            Thread.sleep(RETRY_DELAY_MILLIS << (attempt - 1));
+        }
+    }
+
+    private void logProgress(long start) {
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        logger.info("Deleted {} of {} object versions listed in {} at {} versions/sec", deleted.get(), listed,
+                bucketName, Math.round(deleted.get() / seconds));
+    }
+}
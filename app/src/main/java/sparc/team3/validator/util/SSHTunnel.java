@@ -0,0 +1,85 @@
+package sparc.team3.validator.util;
+
+import net.schmizz.sshj.connection.channel.direct.LocalPortForwarder;
+import net.schmizz.sshj.connection.channel.direct.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Forwards local ports to hosts only reachable from a bastion server, the way {@code ssh -L} does.  Every forward
+ * shares the one SSH session to the bastion, each connection through it is a channel of that session.
+ */
+public class SSHTunnel extends RemoteServerConnection implements Closeable {
+    /**
+     * Seconds between keep alive messages, so an idle tunnel isn't dropped while a long query runs.
+     */
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    private final List<ServerSocket> listeners = new ArrayList<>();
+    private final Logger logger;
+
+    /**
+     * Connects and signs in to the bastion.
+     * @param bastion the string of the bastion hostname or ip address
+     * @param username the string of the username on the bastion
+     * @param keyFile the string of the location of the private key on the local machine
+     * @throws IOException if the bastion can't be connected to
+     */
+    public SSHTunnel(String bastion, String username, String keyFile) throws IOException {
+        super(bastion, username, keyFile);
+        this.logger = LoggerFactory.getLogger(this.getClass().getName());
+        openSSHConnection();
+        ssh.getConnection().getKeepAlive().setKeepAliveInterval(KEEP_ALIVE_SECONDS);
+    }
+
+    /**
+     * Forwards a free local port to a host and port as seen from the bastion.  The port accepts connections as soon
+     * as this returns.
+     * @param remoteHost the string of the host to forward to
+     * @param remotePort the int port to forward to
+     * @return int of the local port
+     * @throws IOException if no local port can be opened
+     */
+    public synchronized int forward(String remoteHost, int remotePort) throws IOException {
+        ServerSocket listener = new ServerSocket();
+        listener.setReuseAddress(true);
+        listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        listeners.add(listener);
+
+        int localPort = listener.getLocalPort();
+        LocalPortForwarder forwarder = ssh.newLocalPortForwarder(
+                new Parameters(InetAddress.getLoopbackAddress().getHostAddress(), localPort, remoteHost, remotePort), listener);
+        Util.supplyAsync(() -> {
+            try {
+                forwarder.listen();
+            } catch (IOException e) {
+                // closing the listener ends listen() with an exception
+                if (!listener.isClosed())
+                    logger.error("SSH tunnel to {}:{} through {} closed", remoteHost, remotePort, server, e);
+            }
+            return null;
+        });
+        logger.info("Forwarding localhost:{} to {}:{} through {}", localPort, remoteHost, remotePort, server);
+        return localPort;
+    }
+
+    /**
+     * Stops forwarding and disconnects from the bastion.
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (ServerSocket listener : listeners)
+            listener.close();
+        listeners.clear();
+        closeSSHConnection();
+    }
+}
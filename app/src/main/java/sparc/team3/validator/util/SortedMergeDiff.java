@@ -0,0 +1,158 @@
+package sparc.team3.validator.util;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.function.Function;
+
+/**
+ * Diffs two sources that are both sorted by the same key by walking them side by side, the way a merge join does.
+ * Only the current item of each source is held, so any number of items can be diffed in constant memory.  Each key
+ * is handed to the {@link Handler} as in both sources, only the left one, or only the right one.
+ *
+ * @param <L> the type of the left items
+ * @param <R> the type of the right items
+ * @param <K> the type of the key both sources are sorted by
+ */
+public final class SortedMergeDiff<L, R, K> {
+    private final Iterator<L> left;
+    private final Function<L, K> leftKey;
+    private final Iterator<R> right;
+    private final Function<R, K> rightKey;
+    private final Comparator<? super K> order;
+
+    /**
+     * Sets up the diff.
+     *
+     * @param left     Iterator of the left items, sorted by key
+     * @param leftKey  Function getting the key of a left item
+     * @param right    Iterator of the right items, sorted by key
+     * @param rightKey Function getting the key of a right item
+     * @param order    Comparator both sources are sorted by
+     */
+    public SortedMergeDiff(Iterator<L> left, Function<L, K> leftKey, Iterator<R> right, Function<R, K> rightKey, Comparator<? super K> order) {
+        this.left = left;
+        this.leftKey = leftKey;
+        this.right = right;
+        this.rightKey = rightKey;
+        this.order = order;
+    }
+
+    /**
+     * Walks both sources to the end, or until the handler asks to stop.
+     *
+     * @param handler Handler told about each key
+     * @return Counts of the keys found in each source
+     * @throws IllegalStateException if either source is not sorted
+     */
+    public Counts run(Handler<L, R> handler) {
+        Counts counts = new Counts();
+        L l = nextLeft(null);
+        R r = nextRight(null);
+        boolean keepGoing = true;
+
+        while (keepGoing && (l != null || r != null)) {
+            int compared;
+            if (l == null)
+                compared = 1;
+            else if (r == null)
+                compared = -1;
+            else
+                compared = order.compare(leftKey.apply(l), rightKey.apply(r));
+
+            if (compared == 0) {
+                counts.both++;
+                keepGoing = handler.both(l, r);
+                l = nextLeft(l);
+                r = nextRight(r);
+            } else if (compared < 0) {
+                counts.leftOnly++;
+                keepGoing = handler.leftOnly(l);
+                l = nextLeft(l);
+            } else {
+                counts.rightOnly++;
+                keepGoing = handler.rightOnly(r);
+                r = nextRight(r);
+            }
+        }
+        counts.stopped = !keepGoing;
+        return counts;
+    }
+
+    private L nextLeft(L previous) {
+        if (!left.hasNext())
+            return null;
+        L next = left.next();
+        if (previous != null && order.compare(leftKey.apply(previous), leftKey.apply(next)) >= 0)
+            throw new IllegalStateException("Left source is not sorted at " + leftKey.apply(next));
+        return next;
+    }
+
+    private R nextRight(R previous) {
+        if (!right.hasNext())
+            return null;
+        R next = right.next();
+        if (previous != null && order.compare(rightKey.apply(previous), rightKey.apply(next)) >= 0)
+            throw new IllegalStateException("Right source is not sorted at " + rightKey.apply(next));
+        return next;
+    }
+
+    /**
+     * Told about each key in either source, in key order.  Each method returns whether to keep going.
+     *
+     * @param <L> the type of the left items
+     * @param <R> the type of the right items
+     */
+    public interface Handler<L, R> {
+        /**
+         * A key in both sources.
+         * @param left the left item
+         * @param right the right item
+         * @return boolean false to stop the diff
+         */
+        boolean both(L left, R right);
+
+        /**
+         * A key only in the left source.
+         * @param left the left item
+         * @return boolean false to stop the diff
+         */
+        boolean leftOnly(L left);
+
+        /**
+         * A key only in the right source.
+         * @param right the right item
+         * @return boolean false to stop the diff
+         */
+        boolean rightOnly(R right);
+    }
+
+    /**
+     * How many keys were found in each source.
+     */
+    public static final class Counts {
+        private long both;
+        private long leftOnly;
+        private long rightOnly;
+        private boolean stopped;
+
+        public long getBoth() {
+            return both;
+        }
+
+        public long getLeftOnly() {
+            return leftOnly;
+        }
+
+        public long getRightOnly() {
+            return rightOnly;
+        }
+
+        /**
+         * Whether the handler stopped the diff before the end of both sources.
+         * @return boolean if the diff was stopped
+         */
+        public boolean isStopped() {
+            return stopped;
+        }
+    }
+}
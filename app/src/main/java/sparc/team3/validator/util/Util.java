@@ -2,19 +2,18 @@ package sparc.team3.validator.util;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
 import software.amazon.awssdk.services.rds.RdsClient;
 import software.amazon.awssdk.services.rds.model.DeleteDbInstanceRequest;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.*;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Default values and other useful tidbits.
@@ -28,6 +27,10 @@ public class Util {
      * The name of the app without spaces, used for directories and such, is {@value}.
      */
     public static final String APP_DIR_NAME = "BackupValidator";
+    /**
+     * The directory reports are written to.
+     */
+    public static final Path REPORTS_DIR = Paths.get(APP_DIR_NAME + "Reports");
     /**
      * The default config directory in the user's home directory.
      */
@@ -47,10 +50,63 @@ public class Util {
      * The base of unique name for RDS Instances and S3 Buckets is {@value}, timestamp will be added to this base.
      */
     public static final String UNIQUE_RESTORE_NAME_BASE = "restore-test-";
+    /**
+     * The MDC key, {@value}, holding the name of the stack a log message belongs to when validating a fleet.
+     */
+    public static final String STACK_MDC_KEY = "stack";
 
-    public static final ExecutorService executor = Executors.newFixedThreadPool(10);
+    /**
+     * Shared thread pool for restores and validations.  Most tasks spend their time waiting on AWS, so threads are
+     * created as needed, the number of stacks validated at once is what bounds the work.
+     */
+    public static final ExecutorService executor = Executors.newCachedThreadPool();
+    private static final AtomicLong lastRestoreTimestamp = new AtomicLong();
     private static final Logger logger = LoggerFactory.getLogger(Util.class);
 
+    /**
+     * Runs the callable on {@link #executor}, completing the returned future with the callable's result or with the
+     * exception it threw wrapped in a {@link CompletionException}.
+     * @param callable the Callable to run
+     * @param <T> the type returned by the callable
+     * @return CompletableFuture that completes when the callable finishes
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Callable<T> callable) {
+        // Carry the stack name over to the pool thread so log messages stay tagged with their stack
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        return CompletableFuture.supplyAsync(() -> {
+            if (context != null)
+                MDC.setContextMap(context);
+            else
+                MDC.clear();
+            try {
+                return callable.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Creates a unique name for a restored RDS Instance or S3 Bucket from {@link #UNIQUE_RESTORE_NAME_BASE} and a
+     * timestamp.  The timestamp is bumped if needed so restores started in the same millisecond get different names.
+     * @return String of the unique name
+     */
+    public static String uniqueRestoreName() {
+        long timestamp = lastRestoreTimestamp.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+        return UNIQUE_RESTORE_NAME_BASE + timestamp;
+    }
+
+    /**
+     * Strips the {@link CompletionException} and {@link ExecutionException} wrappers added by futures.
+     * @param thrown the Throwable to unwrap
+     * @return the Throwable that was originally thrown
+     */
+    public static Throwable unwrap(Throwable thrown) {
+        while ((thrown instanceof CompletionException || thrown instanceof ExecutionException) && thrown.getCause() != null)
+            thrown = thrown.getCause();
+        return thrown;
+    }
+
     /**
      * Terminate ec2Instance attached to client.
      */
@@ -80,96 +136,12 @@ public class Util {
     }
 
     /**
-     * Delete restored S3 bucket instance after testing and validation is complete.
+     * Delete restored S3 bucket instance after testing and validation is complete.  The bucket is emptied with a
+     * {@link S3BucketDrain}, which deletes batches of object versions in parallel while it lists them.
      * @param bucketName the string of the restored S3 bucket
      * @param s3Client to be used to initiate the bucket deletion
      */
     public static void deleteS3Instance(String bucketName, S3Client s3Client) throws InterruptedException {
-
-        logger.info("Emptying S3 Bucket: {}", bucketName);
-
-        // initialize variables
-        ListObjectVersionsRequest listVersions = ListObjectVersionsRequest.builder().bucket(bucketName).build();
-        ListObjectVersionsResponse response;
-        List<ObjectIdentifier> objectsToBeDeleted = new ArrayList<>();
-        ObjectIdentifier objectId;
-        String key;
-        String versionId;
-        int errors = 0;
-
-        // step 1: delete all existing objects (including ones with delete markers)
-
-        // 1a: get all ObjectVersions
-        do {
-            response = s3Client.listObjectVersions(listVersions);
-
-            // 1b: check to see if there are any objects with delete markers
-            if (!response.deleteMarkers().isEmpty()) {
-                // there are deleted objects to be deleted
-                List<DeleteMarkerEntry> deleteEntries = response.deleteMarkers();
-
-                // clear out objectsToBeDeleted to store new objects
-                objectsToBeDeleted.clear();
-
-                for (DeleteMarkerEntry entry : deleteEntries) {
-                    // obtain object key and version id of the object
-                    key = entry.key();
-                    versionId = entry.versionId();
-
-                    // use key and version id to initialize ObjectIdentifier
-                    objectId = ObjectIdentifier.builder().key(key).versionId(versionId).build();
-
-                    // add objectId to objectsToBeDeleted
-                    objectsToBeDeleted.add(objectId);
-                }
-
-                // 1c: delete remaining objects
-            } else {
-                // get the remaining objects that are not deleted
-                List<ObjectVersion> existingObjects = response.versions();
-
-                // clear out objectsToBeDeleted
-                objectsToBeDeleted.clear();
-
-                // iterate through list and add object info to list
-                for (ObjectVersion object : existingObjects) {
-                    key = object.key();
-                    versionId = object.versionId();
-                    objectId = ObjectIdentifier.builder().key(key).versionId(versionId).build();
-                    objectsToBeDeleted.add(objectId);
-                }
-            }
-
-            // 1d: delete multiple objects in one request by passing in objectsToBeDeleted
-            Delete del = Delete.builder().objects(objectsToBeDeleted).build();
-
-            try {
-                DeleteObjectsRequest multiObjDeleteRequest = DeleteObjectsRequest.builder().bucket(bucketName).delete(del).build();
-                s3Client.deleteObjects(multiObjDeleteRequest);
-            } catch (S3Exception e) {
-                logger.error("Error deleting objects in {}", bucketName, e);
-                errors++;
-                if(errors > 5) {
-                    logger.error("Unable to empty {}", bucketName);
-                    return;
-                }
-                Thread.sleep(30000);
-            }
-
-            // isTruncated() will return false if all results are returned
-        } while(response.isTruncated());
-
-        // step 2: delete bucket after it has been emptied
-        try {
-            DeleteBucketRequest deleteBucketRequest = DeleteBucketRequest
-                    .builder()
-                    .bucket(bucketName)
-                    .build();
-            s3Client.deleteBucket(deleteBucketRequest);
-        } catch (S3Exception e) {
-            logger.error("Error deleting {}", bucketName, e);
-        }
-
-        logger.info("S3 Bucket {} has been deleted", bucketName);
+        new S3BucketDrain(s3Client, bucketName).run();
     }
 }
@@ -0,0 +1,173 @@
+package sparc.team3.validator.validate;
+
+import sparc.team3.validator.util.Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Compares the schema of a database on the production and restored servers from information_schema, a handful of
+ * queries for the whole database rather than a few per table.
+ * <p>
+ * Each {@link Aspect} of the schema is one query over every table of the database.  A row is identified by its table
+ * and the aspect's key columns, and its other columns are what is compared.  Both servers are queried at the same
+ * time and their rows are compared in memory, giving the differences of each table.
+ */
+final class RDSSchemaDiff {
+    private RDSSchemaDiff() {
+    }
+
+    /**
+     * The parts of a schema compared.
+     */
+    enum Aspect {
+        TABLE("table", 0, "SELECT TABLE_NAME, TABLE_TYPE, ENGINE, ROW_FORMAT, TABLE_COLLATION " +
+                "FROM information_schema.TABLES WHERE TABLE_SCHEMA = ?;"),
+        COLUMN("column", 1, "SELECT TABLE_NAME, COLUMN_NAME, ORDINAL_POSITION, COLUMN_TYPE, IS_NULLABLE, COLUMN_DEFAULT, " +
+                "CHARACTER_SET_NAME, COLLATION_NAME, EXTRA FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = ?;"),
+        INDEX("index", 2, "SELECT TABLE_NAME, INDEX_NAME, SEQ_IN_INDEX, COLUMN_NAME, NON_UNIQUE, SUB_PART, INDEX_TYPE " +
+                "FROM information_schema.STATISTICS WHERE TABLE_SCHEMA = ?;"),
+        CONSTRAINT("constraint", 2, "SELECT TABLE_NAME, CONSTRAINT_NAME, ORDINAL_POSITION, COLUMN_NAME, REFERENCED_TABLE_SCHEMA, " +
+                "REFERENCED_TABLE_NAME, REFERENCED_COLUMN_NAME FROM information_schema.KEY_COLUMN_USAGE WHERE TABLE_SCHEMA = ?;");
+
+        private final String label;
+        private final int keyColumns;
+        private final String query;
+
+        Aspect(String label, int keyColumns, String query) {
+            this.label = label;
+            this.keyColumns = keyColumns;
+            this.query = query;
+        }
+    }
+
+    /**
+     * Compares the schema of a database on both servers.
+     *
+     * @param conProd     Connection to the production server
+     * @param conRestored Connection to the restored server
+     * @param db          String name of the database
+     * @return Map of each table with differences to a description of each of them
+     * @throws SQLException if information_schema can't be read
+     */
+    static Map<String, List<String>> compare(Connection conProd, Connection conRestored, String db) throws SQLException {
+        CompletableFuture<Map<Row, List<String>>> production = Util.supplyAsync(() -> read(conProd, db));
+        Map<Row, List<String>> restored;
+        try {
+            restored = read(conRestored, db);
+        } catch (SQLException | RuntimeException e) {
+            // the production query is on the caller's connection, so it has to end before that is given back
+            production.handle((rows, thrown) -> null).join();
+            throw e;
+        }
+        Map<Row, List<String>> original;
+        try {
+            original = production.join();
+        } catch (CompletionException e) {
+            Throwable cause = Util.unwrap(e);
+            if (cause instanceof SQLException)
+                throw (SQLException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw e;
+        }
+        return diff(original, restored);
+    }
+
+    /**
+     * Compares the rows read from both servers.
+     *
+     * @param original Map of the rows read from production
+     * @param restored Map of the rows read from the restored server, emptied as it is compared
+     * @return Map of each table with differences to a description of each of them
+     */
+    static Map<String, List<String>> diff(Map<Row, List<String>> original, Map<Row, List<String>> restored) {
+        Map<String, List<String>> differences = new TreeMap<>();
+        for (Map.Entry<Row, List<String>> row : original.entrySet()) {
+            List<String> copy = restored.remove(row.getKey());
+            if (copy == null)
+                differ(differences, row.getKey(), "is missing from the restored database");
+            else if (!copy.equals(row.getValue()))
+                differ(differences, row.getKey(), "is " + copy + " in the restored database, " + row.getValue() + " in production");
+        }
+        for (Row extra : restored.keySet())
+            differ(differences, extra, "is only in the restored database");
+        return differences;
+    }
+
+    private static void differ(Map<String, List<String>> differences, Row row, String difference) {
+        differences.computeIfAbsent(row.table, table -> new ArrayList<>()).add(row.describe() + " " + difference);
+    }
+
+    /**
+     * Reads every aspect of a database's schema from one server.
+     */
+    private static Map<Row, List<String>> read(Connection connection, String db) throws SQLException {
+        Map<Row, List<String>> rows = new HashMap<>();
+        for (Aspect aspect : Aspect.values()) {
+            try (PreparedStatement pst = connection.prepareStatement(aspect.query)) {
+                pst.setString(1, db);
+                try (ResultSet rs = pst.executeQuery()) {
+                    int columns = rs.getMetaData().getColumnCount();
+                    while (rs.next()) {
+                        List<String> row = new ArrayList<>(columns);
+                        for (int i = 1; i <= columns; i++)
+                            row.add(rs.getString(i));
+                        add(rows, aspect, row);
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Adds a row of an aspect's query, keyed by its table, the first column, and the aspect's key columns after it.
+     *
+     * @param rows   Map the row is added to
+     * @param aspect Aspect the row was read for
+     * @param row    List of the row's columns, in the order the query selects them
+     */
+    static void add(Map<Row, List<String>> rows, Aspect aspect, List<String> row) {
+        List<String> key = new ArrayList<>(row.subList(1, 1 + aspect.keyColumns));
+        List<String> values = new ArrayList<>(row.subList(1 + aspect.keyColumns, row.size()));
+        rows.put(new Row(aspect, row.get(0), key), values);
+    }
+
+    /**
+     * What identifies a row of an aspect: the table and the aspect's key columns.
+     */
+    static final class Row {
+        final Aspect aspect;
+        final String table;
+        final List<String> key;
+
+        Row(Aspect aspect, String table, List<String> key) {
+            this.aspect = aspect;
+            this.table = table;
+            this.key = key;
+        }
+
+        String describe() {
+            return key.isEmpty() ? aspect.label : aspect.label + " " + String.join(" #", key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Row row = (Row) o;
+            return aspect == row.aspect && table.equals(row.table) && key.equals(row.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(aspect, table, key);
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package sparc.team3.validator.validate;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sparc.team3.validator.util.Util;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the contents of a table on the production and restored servers without moving the rows, by checksumming
+ * ranges of the primary key on the servers themselves.
+ * <p>
+ * The table is walked in primary key order on production, cutting it into chunks of about the same number of rows.
+ * Each chunk is summarized on both servers at once as its row count and the BIT_XOR of the CRC32 of every row, the
+ * row being its columns joined with CONCAT_WS and a flag for each NULL column, since CONCAT_WS skips NULLs.  Chunks
+ * run in parallel, and the rows per chunk are tuned as they finish so a chunk takes about the target query time.
+ * <p>
+ * A chunk that differs is split into smaller chunks which are summarized again, down to chunks small enough that
+ * their rows' CRC32s are fetched from both servers and compared key by key.  Only the chunks that differ are drilled
+ * into, walking down on the production connection the chunk was summarized with, so a chunk never holds more than
+ * one connection to each server however deep it goes.  A table without a primary key is summarized as one chunk and
+ * not drilled into.
+ */
+final class RDSTableChecksum {
+    /**
+     * Rows in the first chunk of a table, before any are timed.
+     */
+    private static final long INITIAL_CHUNK_ROWS = 1000;
+    private static final long MIN_CHUNK_ROWS = 100;
+    private static final long MAX_CHUNK_ROWS = 1_000_000;
+    /**
+     * A differing chunk of this many rows or fewer has its rows compared.
+     */
+    private static final long ROW_LEVEL_ROWS = 1000;
+    /**
+     * How many chunks a differing chunk is split into.
+     */
+    private static final int DRILL_SPLIT = 8;
+    /**
+     * The most differing keys kept for the report.
+     */
+    private static final int MAX_REPORTED_KEYS = 20;
+
+    private final HikariDataSource dsProd;
+    private final HikariDataSource dsRestored;
+    private final String db;
+    private final String table;
+    private final String qualified;
+    private final int parallelism;
+    private final long targetNanos;
+    private final Logger logger;
+    private final AtomicLong chunkRows = new AtomicLong(INITIAL_CHUNK_ROWS);
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong chunksDiffered = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong rowsDiffered = new AtomicLong();
+    private final List<String> differingKeys = Collections.synchronizedList(new ArrayList<>());
+    private List<String> keyColumns;
+    private String keyTuple;
+    private String rowHash;
+
+    /**
+     * Sets up the checksum of one table.
+     *
+     * @param dsProd       HikariDataSource of the production server
+     * @param dsRestored   HikariDataSource of the restored server
+     * @param db           String name of the database
+     * @param table        String name of the table
+     * @param parallelism  int number of chunks summarized at once
+     * @param targetMillis long query time in milliseconds the chunk size is tuned to
+     */
+    RDSTableChecksum(HikariDataSource dsProd, HikariDataSource dsRestored, String db, String table, int parallelism, long targetMillis) {
+        this.dsProd = dsProd;
+        this.dsRestored = dsRestored;
+        this.db = db;
+        this.table = table;
+        this.qualified = quote(db) + "." + quote(table);
+        this.parallelism = Math.max(1, parallelism);
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, targetMillis));
+        this.logger = LoggerFactory.getLogger(this.getClass().getName());
+    }
+
+    /**
+     * Checksums the table on both servers.
+     *
+     * @return boolean if the contents are the same
+     * @throws SQLException if a query fails
+     * @throws InterruptedException if interrupted while waiting for chunks
+     */
+    boolean run() throws SQLException, InterruptedException {
+        long start = System.nanoTime();
+        try (Connection conProd = dsProd.getConnection()) {
+            List<String> columns = columns(conProd);
+            if (columns.isEmpty())
+                return true;
+            keyColumns = primaryKey(conProd);
+            rowHash = rowHash(columns);
+
+            if (keyColumns.isEmpty()) {
+                checkWhole(conProd);
+            } else {
+                keyTuple = "(" + String.join(", ", quoteAll(keyColumns)) + ")";
+                walk(conProd);
+            }
+        }
+
+        logger.info("Checksummed {} rows of {}.{} in {} chunks in {} ms, {} chunks and {} rows differ", rows.get(), db, table,
+                chunks.get(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), chunksDiffered.get(), rowsDiffered.get());
+        return chunksDiffered.get() == 0;
+    }
+
+    /**
+     * What differed, for the validation error.
+     * @return String describing the differing chunks and keys
+     */
+    String describe() {
+        if (keyColumns == null || keyColumns.isEmpty())
+            return chunksDiffered.get() + " of " + chunks.get() + " chunks differ";
+        StringBuilder description = new StringBuilder().append(chunksDiffered.get()).append(" of ").append(chunks.get())
+                .append(" chunks and ").append(rowsDiffered.get()).append(" rows differ");
+        synchronized (differingKeys) {
+            if (!differingKeys.isEmpty())
+                description.append(", keys ").append(keyTuple).append(": ").append(String.join(" ", differingKeys));
+        }
+        if (rowsDiffered.get() > differingKeys.size())
+            description.append(" ...");
+        return description.toString();
+    }
+
+    /**
+     * Walks the table in key order on production, handing each chunk off to be summarized while the next boundary is
+     * found.  The last chunk has no upper bound, so rows restored past the end of production are still counted.
+     */
+    private void walk(Connection conProd) throws SQLException, InterruptedException {
+        Semaphore slots = new Semaphore(parallelism);
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        Object[] lower = null;
+        Object[] upper;
+        try {
+            do {
+                upper = boundary(conProd, lower, null, chunkRows.get());
+                Object[] chunkLower = lower;
+                Object[] chunkUpper = upper;
+                slots.acquire();
+                pending.add(Util.supplyAsync(() -> {
+                    try {
+                        checkChunk(chunkLower, chunkUpper);
+                    } finally {
+                        slots.release();
+                    }
+                    return null;
+                }));
+                lower = upper;
+            } while (upper != null);
+        } finally {
+            // let every chunk finish before the walk's connection is given back
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).handle((result, e) -> null).join();
+        }
+        for (CompletableFuture<Void> chunk : pending)
+            join(chunk);
+    }
+
+    /**
+     * Summarizes a chunk on both servers, tunes the chunk size from how long it took, and drills into it if it
+     * differs.
+     */
+    private void checkChunk(Object[] lower, Object[] upper) throws SQLException {
+        try (Connection conProd = dsProd.getConnection()) {
+            long start = System.nanoTime();
+            Summary[] summaries = summarize(conProd, lower, upper);
+            long elapsed = System.nanoTime() - start;
+            chunks.incrementAndGet();
+            rows.addAndGet(summaries[0].count);
+            tune(summaries[0].count, elapsed);
+
+            if (!summaries[0].equals(summaries[1])) {
+                chunksDiffered.incrementAndGet();
+                drill(conProd, lower, upper, Math.max(summaries[0].count, summaries[1].count));
+            }
+        }
+    }
+
+    /**
+     * Scales the rows per chunk towards the target query time, by no more than double or half at a time.
+     */
+    private void tune(long count, long elapsed) {
+        if (count == 0)
+            return;
+        long current = chunkRows.get();
+        long ideal = (long) (count * ((double) targetNanos / Math.max(1, elapsed)));
+        long next = Math.max(current / 2, Math.min(current * 2, ideal));
+        chunkRows.set(Math.max(MIN_CHUNK_ROWS, Math.min(MAX_CHUNK_ROWS, next)));
+    }
+
+    /**
+     * Splits a differing chunk and summarizes the parts, going on into the parts that differ until they are small
+     * enough to compare row by row.
+     */
+    private void drill(Connection conProd, Object[] lower, Object[] upper, long count) throws SQLException {
+        if (count <= ROW_LEVEL_ROWS) {
+            compareRows(conProd, lower, upper);
+            return;
+        }
+
+        long partRows = Math.max(ROW_LEVEL_ROWS, count / DRILL_SPLIT);
+        Object[] partLower = lower;
+        while (true) {
+            Object[] boundary = boundary(conProd, partLower, upper, partRows);
+            if (boundary == null && partLower == lower) {
+                // production has too few rows here to split on, the rest are extra rows in the restored table
+                compareRows(conProd, lower, upper);
+                return;
+            }
+            Object[] partUpper = boundary == null ? upper : boundary;
+            Summary[] summaries = summarize(conProd, partLower, partUpper);
+            if (!summaries[0].equals(summaries[1]))
+                drill(conProd, partLower, partUpper, Math.max(summaries[0].count, summaries[1].count));
+            if (boundary == null)
+                break;
+            partLower = boundary;
+        }
+    }
+
+    /**
+     * Fetches the key and CRC32 of every row of a small chunk from both servers and records the keys that are
+     * missing, extra, or different.
+     */
+    private void compareRows(Connection conProd, Object[] lower, Object[] upper) throws SQLException {
+        String query = "SELECT " + String.join(", ", quoteAll(keyColumns)) + ", " + rowHash + " FROM " + qualified
+                + range(keyColumns, lower, upper) + " ORDER BY " + String.join(", ", quoteAll(keyColumns)) + ";";
+        CompletableFuture<Map<String, Long>> production = Util.supplyAsync(() -> rowHashes(conProd, query, lower, upper));
+        Map<String, Long> restored;
+        try (Connection conRestored = dsRestored.getConnection()) {
+            restored = rowHashes(conRestored, query, lower, upper);
+        } catch (SQLException | RuntimeException e) {
+            // the production query is on the caller's connection, so it has to end before that is given back
+            production.handle((hashes, thrown) -> null).join();
+            throw e;
+        }
+        Map<String, Long> original = join(production);
+
+        for (Map.Entry<String, Long> row : original.entrySet()) {
+            Long copy = restored.remove(row.getKey());
+            if (copy == null)
+                differs(row.getKey() + " missing");
+            else if (!copy.equals(row.getValue()))
+                differs(row.getKey() + " different");
+        }
+        for (String extra : restored.keySet())
+            differs(extra + " extra");
+    }
+
+    private void differs(String key) {
+        rowsDiffered.incrementAndGet();
+        synchronized (differingKeys) {
+            if (differingKeys.size() < MAX_REPORTED_KEYS)
+                differingKeys.add(key);
+        }
+    }
+
+    private Map<String, Long> rowHashes(Connection connection, String query, Object[] lower, Object[] upper) throws SQLException {
+        Map<String, Long> hashes = new LinkedHashMap<>();
+        try (PreparedStatement pst = connection.prepareStatement(query)) {
+            bind(pst, 1, lower, upper);
+            try (ResultSet rs = pst.executeQuery()) {
+                while (rs.next()) {
+                    StringJoiner key = new StringJoiner(",", "(", ")");
+                    for (int i = 1; i <= keyColumns.size(); i++)
+                        key.add(keyValue(rs.getObject(i)));
+                    hashes.put(key.toString(), rs.getLong(keyColumns.size() + 1));
+                }
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * A key column's value as text, binary values such as UUIDs written out in hex so equal keys read the same.
+     */
+    private static String keyValue(Object value) {
+        if (!(value instanceof byte[]))
+            return String.valueOf(value);
+        StringBuilder hex = new StringBuilder("0x");
+        for (byte b : (byte[]) value)
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    /**
+     * A table without a primary key can't be cut into ranges, so it is summarized whole.
+     */
+    private void checkWhole(Connection conProd) throws SQLException {
+        Summary[] summaries = summarize(conProd, null, null);
+        chunks.incrementAndGet();
+        rows.addAndGet(summaries[0].count);
+        if (!summaries[0].equals(summaries[1]))
+            chunksDiffered.incrementAndGet();
+    }
+
+    /**
+     * The row count and BIT_XOR of the row CRC32s of a chunk on production and restored, queried at the same time.
+     * Production is queried on the given connection, restored on one borrowed for the query.
+     * @return array of the production then the restored Summary
+     */
+    private Summary[] summarize(Connection conProd, Object[] lower, Object[] upper) throws SQLException {
+        String query = "SELECT COUNT(*), COALESCE(BIT_XOR(" + rowHash + "), 0) FROM " + qualified + range(keyColumns, lower, upper) + ";";
+        CompletableFuture<Summary> production = Util.supplyAsync(() -> summary(conProd, query, lower, upper));
+        Summary restored;
+        try (Connection conRestored = dsRestored.getConnection()) {
+            restored = summary(conRestored, query, lower, upper);
+        } catch (SQLException | RuntimeException e) {
+            production.handle((summary, thrown) -> null).join();
+            throw e;
+        }
+        return new Summary[]{join(production), restored};
+    }
+
+    private Summary summary(Connection connection, String query, Object[] lower, Object[] upper) throws SQLException {
+        try (PreparedStatement pst = connection.prepareStatement(query)) {
+            bind(pst, 1, lower, upper);
+            try (ResultSet rs = pst.executeQuery()) {
+                rs.next();
+                return new Summary(rs.getLong(1), rs.getLong(2));
+            }
+        }
+    }
+
+    /**
+     * The key of the row the given number of rows past the lower bound, which is the inclusive upper bound of a chunk
+     * of that many rows.
+     * @return Object array of the key, null if the chunk would reach the upper bound
+     */
+    private Object[] boundary(Connection connection, Object[] lower, Object[] upper, long count) throws SQLException {
+        String query = "SELECT " + String.join(", ", quoteAll(keyColumns)) + " FROM " + qualified + range(keyColumns, lower, upper)
+                + " ORDER BY " + String.join(", ", quoteAll(keyColumns)) + " LIMIT 1 OFFSET ?;";
+        try (PreparedStatement pst = connection.prepareStatement(query)) {
+            int next = bind(pst, 1, lower, upper);
+            pst.setLong(next, count - 1);
+            try (ResultSet rs = pst.executeQuery()) {
+                if (!rs.next())
+                    return null;
+                Object[] key = new Object[keyColumns.size()];
+                for (int i = 0; i < key.length; i++)
+                    key[i] = rs.getObject(i + 1);
+                return key;
+            }
+        }
+    }
+
+    /**
+     * The WHERE clause of the keys after the lower bound up to and including the upper bound.
+     */
+    static String range(List<String> keyColumns, Object[] lower, Object[] upper) {
+        List<String> bounds = new ArrayList<>(2);
+        String keyTuple = "(" + String.join(", ", quoteAll(keyColumns)) + ")";
+        String placeholders = keyColumns.isEmpty() ? "" : "(" + String.join(", ", Collections.nCopies(keyColumns.size(), "?")) + ")";
+        if (lower != null)
+            bounds.add(keyTuple + " > " + placeholders);
+        if (upper != null)
+            bounds.add(keyTuple + " <= " + placeholders);
+        return bounds.isEmpty() ? "" : " WHERE " + String.join(" AND ", bounds);
+    }
+
+    static int bind(PreparedStatement pst, int index, Object[] lower, Object[] upper) throws SQLException {
+        if (lower != null) {
+            for (Object value : lower)
+                pst.setObject(index++, value);
+        }
+        if (upper != null) {
+            for (Object value : upper)
+                pst.setObject(index++, value);
+        }
+        return index;
+    }
+
+    private List<String> columns(Connection connection) throws SQLException {
+        return strings(connection, "SELECT COLUMN_NAME FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? " +
+                "ORDER BY ORDINAL_POSITION;");
+    }
+
+    private List<String> primaryKey(Connection connection) throws SQLException {
+        return strings(connection, "SELECT COLUMN_NAME FROM information_schema.KEY_COLUMN_USAGE WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? " +
+                "AND CONSTRAINT_NAME = 'PRIMARY' ORDER BY ORDINAL_POSITION;");
+    }
+
+    private List<String> strings(Connection connection, String query) throws SQLException {
+        List<String> values = new ArrayList<>();
+        try (PreparedStatement pst = connection.prepareStatement(query)) {
+            pst.setString(1, db);
+            pst.setString(2, table);
+            try (ResultSet rs = pst.executeQuery()) {
+                while (rs.next())
+                    values.add(rs.getString(1));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * The CRC32 of a row: its columns joined with CONCAT_WS, followed by whether each column is NULL.
+     */
+    static String rowHash(List<String> columns) {
+        List<String> quoted = quoteAll(columns);
+        StringJoiner nulls = new StringJoiner(", ", "CONCAT(", ")");
+        for (String column : quoted)
+            nulls.add("ISNULL(" + column + ")");
+        return "CRC32(CONCAT_WS('#', " + String.join(", ", quoted) + ", " + nulls + "))";
+    }
+
+    private static List<String> quoteAll(List<String> names) {
+        List<String> quoted = new ArrayList<>(names.size());
+        for (String name : names)
+            quoted.add(quote(name));
+        return quoted;
+    }
+
+    private static String quote(String name) {
+        return "`" + name.replace("`", "``") + "`";
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = Util.unwrap(e);
+            if (cause instanceof SQLException)
+                throw (SQLException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * The row count and combined row CRC32s of a chunk on one server.
+     */
+    private static final class Summary {
+        final long count;
+        final long hash;
+
+        Summary(long count, long hash) {
+            this.count = count;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Summary summary = (Summary) o;
+            return count == summary.count && hash == summary.hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(count, hash);
+        }
+    }
+}
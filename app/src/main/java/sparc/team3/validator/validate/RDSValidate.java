@@ -10,18 +10,39 @@ import software.amazon.awssdk.services.rds.model.DescribeDbInstancesRequest;
 import software.amazon.awssdk.services.rds.model.DescribeDbInstancesResponse;
 import sparc.team3.validator.util.CLI;
 import sparc.team3.validator.config.settings.InstanceSettings;
+import sparc.team3.validator.config.settings.ValidationSettings;
+import sparc.team3.validator.util.SSHTunnel;
 import sparc.team3.validator.util.Util;
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 /**
  * This class tests and validates an RDS instance that was restored from a snapshot.
  */
 public class RDSValidate implements Callable<Boolean> {
+    /**
+     * Hikari's default pool size, {@value}, the smallest pool used.
+     */
+    static final int DEFAULT_POOL_SIZE = 10;
+    static final long MIB = 1024L * 1024;
+    /**
+     * The most tables checked by one CHECK TABLE statement is {@value}.
+     */
+    static final int CHECK_BATCH_TABLES = 20;
+    /**
+     * The most MiB of tables checked by one CHECK TABLE statement is {@value}, a larger table is checked alone.
+     */
+    static final long CHECK_BATCH_MIB = 256;
+    /**
+     * How many of the slowest CHECK TABLE statements are logged.
+     */
+    private static final int SLOWEST_REPORTED = 5;
     private final RdsClient rdsClient;
     private final InstanceSettings settings;
     private final Logger logger;
@@ -31,6 +52,18 @@ public class RDSValidate implements Callable<Boolean> {
     private String dbUsername;
     private String dbPassword;
     private Set<String> databasesToCheck;
+    private int tableParallelism = ValidationSettings.DEFAULT_RDS_TABLE_PARALLELISM;
+    private boolean checksum = ValidationSettings.DEFAULT_RDS_CHECKSUM;
+    private int checksumParallelism = ValidationSettings.DEFAULT_RDS_CHECKSUM_PARALLELISM;
+    private int checksumChunkMillis = ValidationSettings.DEFAULT_RDS_CHECKSUM_CHUNK_MILLIS;
+    private long checkExtendedMaxMb = ValidationSettings.DEFAULT_RDS_CHECK_EXTENDED_MAX_MB;
+    private long checkQuickMinMb = ValidationSettings.DEFAULT_RDS_CHECK_QUICK_MIN_MB;
+    private int maxConnections = ValidationSettings.DEFAULT_RDS_MAX_CONNECTIONS;
+    private Semaphore connections;
+    private String bastionHost;
+    private String bastionUsername;
+    private String bastionKeyFile;
+    private SSHTunnel tunnel;
 
     /**
      * Instantiates a new Rds validate.
@@ -48,17 +81,31 @@ public class RDSValidate implements Callable<Boolean> {
      * @return Boolean for if the tests have all passed
      * @throws InterruptedException if the thread is interrupted
      * @throws ExecutionException if there was an Exception in subsequent threads checking tables
+     * @throws IOException if the SSH tunnel through the bastion can't be opened
      */
     @Override
-    public Boolean call() throws InterruptedException, ExecutionException{
-        setupDatabasesPools();
+    public Boolean call() throws InterruptedException, ExecutionException, IOException {
+        try {
+            setupDatabasesPools();
+            return checkDatabases();
+        } finally {
+            closeDatabasesPools();
+        }
+    }
+
+    /**
+     * Checks that every database was restored, then checks each database at the same time.
+     * @return boolean for if the tests have all passed
+     */
+    private boolean checkDatabases() throws InterruptedException, ExecutionException {
         boolean dbsExists = checkAllDatabasesExist();
 
         List<Future<Boolean>> dbCheckResults;
         List<CheckDatabases> dbCheckTasks = new LinkedList<>();
 
         for(String database : databasesToCheck){
-            dbCheckTasks.add(new CheckDatabases(database, dsProd, dsRestored));
+            dbCheckTasks.add(new CheckDatabases(database, dsProd, dsRestored, connections, tableParallelism, checksum,
+                    checksumParallelism, checksumChunkMillis, checkExtendedMaxMb, checkQuickMinMb));
         }
 
         dbCheckResults = Util.executor.invokeAll(dbCheckTasks);
@@ -101,11 +148,64 @@ public class RDSValidate implements Callable<Boolean> {
         this.databasesToCheck = databasesToCheck;
     }
 
+    /**
+     * Sets how many tables of each database are checked at once.
+     * @param tableParallelism int number of tables checked at once
+     */
+    public void setTableParallelism(int tableParallelism){
+        this.tableParallelism = tableParallelism;
+    }
+
+    /**
+     * Sets whether the contents of tables are compared by checksums of their primary key ranges.
+     * @param checksum boolean if contents are checksummed
+     * @param checksumParallelism int number of chunks of each table checksummed at once
+     * @param checksumChunkMillis int query time in milliseconds chunks are sized to
+     */
+    public void setChecksum(boolean checksum, int checksumParallelism, int checksumChunkMillis){
+        this.checksum = checksum;
+        this.checksumParallelism = checksumParallelism;
+        this.checksumChunkMillis = checksumChunkMillis;
+    }
+
+    /**
+     * Sets how deeply CHECK TABLE checks tables of each size.  Tables between the two sizes are checked MEDIUM.
+     * @param checkExtendedMaxMb long size in MiB below which tables are checked EXTENDED
+     * @param checkQuickMinMb long size in MiB from which tables are checked QUICK
+     */
+    public void setCheckTableModes(long checkExtendedMaxMb, long checkQuickMinMb){
+        this.checkExtendedMaxMb = checkExtendedMaxMb;
+        this.checkQuickMinMb = checkQuickMinMb;
+    }
+
+    /**
+     * Sets the most connections opened to each database server.
+     * @param maxConnections int number of connections to each server
+     */
+    public void setMaxConnections(int maxConnections){
+        this.maxConnections = Math.max(2, maxConnections);
+    }
+
+    /**
+     * Sets the bastion the database connections are tunneled through when not running on EC2.
+     * @param bastionHost String of the bastion hostname or ip address, null to set up the tunnel by hand
+     * @param username String of the username on the bastion
+     * @param privateKeyFile String of the location of the private key for the bastion
+     */
+    public void setBastion(String bastionHost, String username, String privateKeyFile){
+        this.bastionHost = bastionHost;
+        this.bastionUsername = username;
+        this.bastionKeyFile = privateKeyFile;
+    }
+
     /**
      * Set up the database connection pools to both the production RDS instance and the Restored RDS instance for later use
+     * When not running on EC2 the connections go through an SSH tunnel: one opened through the bastion if there is
+     * one, with both servers forwarded over the same SSH session, otherwise one the user sets up by hand.
      * @throws InterruptedException if the thread is interrupted
+     * @throws IOException if the SSH tunnel through the bastion can't be opened
      */
-    public void setupDatabasesPools() throws InterruptedException{
+    public void setupDatabasesPools() throws InterruptedException, IOException {
         HikariConfig configProd = new HikariConfig();
         HikariConfig configRestored = new HikariConfig();
 
@@ -117,7 +217,11 @@ public class RDSValidate implements Callable<Boolean> {
         String urlProduction = engine + dbInstanceProd.endpoint().address() + ":" + dbInstanceProd.endpoint().port();
         String urlRestored = engine + dbInstanceRestored.endpoint().address() + ":" + dbInstanceRestored.endpoint().port();
 
-        if (!System.getProperty("user.name").startsWith("ec2")) {
+        if (!System.getProperty("user.name").startsWith("ec2") && bastionHost != null) {
+            tunnel = new SSHTunnel(bastionHost, bastionUsername, bastionKeyFile);
+            urlProduction = engine + "localhost:" + tunnel.forward(dbInstanceProd.endpoint().address(), dbInstanceProd.endpoint().port());
+            urlRestored = engine + "localhost:" + tunnel.forward(dbInstanceRestored.endpoint().address(), dbInstanceRestored.endpoint().port());
+        } else if (!System.getProperty("user.name").startsWith("ec2")) {
             System.out.println(CLI.ANSI_YELLOW_BACKGROUND + CLI.ANSI_BLACK + "Running this on your local machine, you need to setup an ssh tunnel.  This can be done with the following command:\n" +
                     "\t\tssh -i \"Path\\to\\PrivateKeyFile\" -N -l ec2-user -L 3306:" + dbInstanceProd.endpoint().address() + ":3306 -L 3307:" + dbInstanceRestored.endpoint().address() + ":3306  [EC2 Public Address With Access to Database With SSH Access From This Machine] -v\n" +
                     "The tunnel will stay open as long as the terminal is open.\n" +
@@ -144,10 +248,55 @@ public class RDSValidate implements Callable<Boolean> {
         configRestored.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
         configRestored.addDataSourceProperty("readOnly", true);
 
+        int poolSize = poolSize(maxConnections, databasesToCheck.size(), tableParallelism, checksum, checksumParallelism);
+        connections = new Semaphore(poolSize, true);
+        // a checksummed table can't need more connections than there are
+        checksumParallelism = Math.max(1, Math.min(checksumParallelism, poolSize - 1));
+        configProd.setMaximumPoolSize(poolSize);
+        configProd.setMinimumIdle(1);
+        configRestored.setMaximumPoolSize(poolSize);
+        configRestored.setMinimumIdle(1);
+
         dsProd = new HikariDataSource(configProd);
         dsRestored = new HikariDataSource(configRestored);
     }
 
+    /**
+     * Works out how many connections each pool holds.  Every database checks its tables at once, each table on its
+     * own connection to each server, and a checksummed table walks its keys on one more while its chunks are
+     * summarized.  CHECK TABLE statements run alongside them.  The pools stop at the most connections allowed, and
+     * work waits on the connections semaphore for its connections rather than timing out waiting on the pool.
+     *
+     * @param maxConnections int most connections to each server
+     * @param databases int number of databases checked at once
+     * @param tableParallelism int number of tables of each database checked at once
+     * @param checksum boolean if contents are checksummed
+     * @param checksumParallelism int number of chunks of each table checksummed at once
+     * @return int size of each pool
+     */
+    static int poolSize(int maxConnections, int databases, int tableParallelism, boolean checksum, int checksumParallelism) {
+        int perTable = (checksum ? checksumParallelism + 1 : 1) + 1;
+        return Math.min(maxConnections, Math.max(DEFAULT_POOL_SIZE, databases * tableParallelism * perTable + 1));
+    }
+
+    /**
+     * Closes the database connection pools and the SSH tunnel, if they were opened.
+     */
+    private void closeDatabasesPools() {
+        if (dsProd != null)
+            dsProd.close();
+        if (dsRestored != null)
+            dsRestored.close();
+        if (tunnel != null) {
+            try {
+                tunnel.close();
+            } catch (IOException e) {
+                logger.warn("Error closing the SSH tunnel through {}", bastionHost, e);
+            }
+            tunnel = null;
+        }
+    }
+
     /**
      * General check to make sure all databases present in production RDS instance are present in restored RDS instance
      * @return boolean of whether the test has passed or not
@@ -215,33 +364,68 @@ public class RDSValidate implements Callable<Boolean> {
     /**
      * Class to run tests on individual databases
      */
-    private static class CheckDatabases implements Callable<Boolean> {
+    static class CheckDatabases implements Callable<Boolean> {
         private final Logger logger;
-        private String db;
-        private HikariDataSource dsProd;
-        private HikariDataSource dsRestored;
-
-        public CheckDatabases(String db, HikariDataSource dsProd, HikariDataSource dsRestored) {
+        private final String db;
+        private final HikariDataSource dsProd;
+        private final HikariDataSource dsRestored;
+        private final Semaphore connections;
+        private final int tableParallelism;
+        private final boolean checksum;
+        private final int checksumParallelism;
+        private final int checksumChunkMillis;
+        private final long checkExtendedMaxMb;
+        private final long checkQuickMinMb;
+
+        public CheckDatabases(String db, HikariDataSource dsProd, HikariDataSource dsRestored, Semaphore connections,
+                              int tableParallelism, boolean checksum, int checksumParallelism, int checksumChunkMillis,
+                              long checkExtendedMaxMb, long checkQuickMinMb) {
             this.logger = LoggerFactory.getLogger(this.getClass().getName());
             this.db = db;
             this.dsProd = dsProd;
             this.dsRestored = dsRestored;
+            this.connections = connections;
+            this.tableParallelism = tableParallelism;
+            this.checksum = checksum;
+            this.checksumParallelism = checksumParallelism;
+            this.checksumChunkMillis = checksumChunkMillis;
+            this.checkExtendedMaxMb = checkExtendedMaxMb;
+            this.checkQuickMinMb = checkQuickMinMb;
         }
 
         /**
          * Entry point and tests of database
          * Checks if all the tables are present, if there are the same or more rows in the production database (based on
          * the idea that databases tend to grow rather than shrink) excluding tables with cache or sessions in the name
-         * since these tend toward volatility, and if the schema/metadata of columns is all the same.
+         * since these tend toward volatility, and if the schema is all the same.  The schema of the whole database,
+         * its tables, columns, indexes and key constraints, is compared at once with a {@link RDSSchemaDiff}.  If checksums are
+         * on, the contents of the same tables are compared with a {@link RDSTableChecksum}.
+         * <p>
+         * Once the tables are listed each one is checked by its own task on connections borrowed from the pools, no
+         * more than the table parallelism at once.  The largest tables are started first, so the database takes about
+         * as long as its slowest table rather than waiting on a large table picked up at the end.  CHECK TABLE runs
+         * alongside them in batches, see {@link #checkIntegrity(List)}.  Every database takes its connections from the
+         * same semaphore, a permit for a connection to each server, so together they never ask the pools for more
+         * connections than they hold.  An unexpected error in one table fails only that table.
          *
          * @return Boolean if the tests all pass.
          */
         public Boolean call() {
-
+            Set<String> setProdTables = new TreeSet<>();
+            Set<String> setRestoredTables = new TreeSet<>();
+            List<Table> tables;
+            Map<String, List<String>> schemaDifferences;
+
+            try {
+                connections.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("Interrupted waiting for connections to {}", db);
+                return false;
+            }
             try (Connection conProd = dsProd.getConnection();
                  Connection conRestored = dsRestored.getConnection();
             ) {
-                boolean passedTablePresentCheck = true;
                 // Check to see if all tables are present in restored database
                 PreparedStatement pstProdDb = conProd.prepareStatement("USE " + db + ";");
                 PreparedStatement pstRestoredDb = conRestored.prepareStatement("USE " + db + ";");
@@ -268,216 +452,439 @@ public class RDSValidate implements Callable<Boolean> {
                 }
 
                 // Check if tables are the same.
-                String rsProdTableName = "";
-                Set<String> setProdTables = new TreeSet<>();
-                while (rsProdTables.next()) {
-                    rsProdTableName = rsProdTables.getString(1);
-                    setProdTables.add(rsProdTableName);
-                }
+                while (rsProdTables.next())
+                    setProdTables.add(rsProdTables.getString(1));
+                while (rsRestoredTables.next())
+                    setRestoredTables.add(rsRestoredTables.getString(1));
 
-                String rsRestoredTableName = "";
-                Set<String> setRestoredTables = new TreeSet<>();
-                while (rsRestoredTables.next()) {
-                    rsRestoredTableName = rsRestoredTables.getString(1);
-                    setRestoredTables.add(rsRestoredTableName);
-                }
+                tables = largestFirst(conRestored, setRestoredTables);
+                schemaDifferences = RDSSchemaDiff.compare(conProd, conRestored, db);
 
-                Set<String> setTablesNotInRestored = new TreeSet<>();
-                for (String s : setProdTables) {
-                    if (!setRestoredTables.contains(s)) {
-                        setTablesNotInRestored.add(s);
-                    }
-                }
+                rsProdUseDb.close();
+                rsRestoredUseDb.close();
+                rsProdTables.close();
+                rsRestoredTables.close();
+            } catch (SQLException e) {
+                logger.error("SQL Error: {}", e.getMessage(), e);
+                return false;
+            } finally {
+                connections.release();
+            }
 
-                if (!setTablesNotInRestored.isEmpty()) {
-                    // Get names of tables missing from restored database
-                    logger.warn("Validation Error: The databases have a different number of tables. The production database has {} tables, and the restored has {} tables.", setProdTables.size(), setRestoredTables.size());
-                    passedTablePresentCheck = false;
-                    for (String s : setTablesNotInRestored) {
-                        logger.warn("Validation Error: The {} table is missing from the restored database.", s);
-                    }
+            boolean passedTablePresentCheck = true;
+            Set<String> setTablesNotInRestored = new TreeSet<>();
+            for (String s : setProdTables) {
+                if (!setRestoredTables.contains(s)) {
+                    setTablesNotInRestored.add(s);
                 }
+            }
 
-                if(passedTablePresentCheck)
-                    logger.info("Validated both databases have {} tables.", setProdTables.size());
-
-                boolean passedCheckTables = true;
-                // Run CHECK TABLES on all tables of restored database
-                List<String> corruptedDbList = new ArrayList<>();
-                Iterator<String> iter = setRestoredTables.iterator();
-                while (iter.hasNext()) {
-                    // Loop through all tables to query CHECK TABLE on each one
-                    PreparedStatement pstRestoredCHECKTable = conRestored.prepareStatement("CHECK TABLE " + iter.next() + ";");
-                    ResultSet rsRestoredCHECKTable = pstRestoredCHECKTable.executeQuery();
-
-                    // Check that ResultSet returns from each query
-                    if (rsRestoredCHECKTable == null) {
-                        logger.warn("Validation Error: NULL Result Set from \"CHECK TABLE [TableName]\".");
-                        return false;
-                    }
+            if (!setTablesNotInRestored.isEmpty()) {
+                // Get names of tables missing from restored database
+                logger.warn("Validation Error: The databases have a different number of tables. The production database has {} tables, and the restored has {} tables.", setProdTables.size(), setRestoredTables.size());
+                passedTablePresentCheck = false;
+                for (String s : setTablesNotInRestored) {
+                    logger.warn("Validation Error: The {} table is missing from the restored database.", s);
+                }
+            }
 
-                    ResultSetMetaData metaDataRestoredCHECKTable = rsRestoredCHECKTable.getMetaData();
+            if(passedTablePresentCheck)
+                logger.info("Validated both databases have {} tables.", setProdTables.size());
+
+            // CHECK TABLE only reads the restored server, so it runs alongside the row counts and checksums
+            CompletableFuture<List<CheckedTable>> integrity = Util.supplyAsync(() -> checkIntegrity(tables));
+            List<TableResult> results;
+            List<CheckedTable> checked;
+            try {
+                results = checkTables(tables);
+                checked = integrity.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("Interrupted checking the tables of {}", db);
+                return false;
+            } catch (ExecutionException e) {
+                logger.error("Error checking the tables of {}", db, Util.unwrap(e));
+                return false;
+            }
 
-                    rsRestoredCHECKTable.next();
-                    String rsRestoredCorruptedTableName = "";
-                    // If Msg_text column (4) returns anything other thank "OK", add to corruptedDbList
-                    String checkMsg = rsRestoredCHECKTable.getString(metaDataRestoredCHECKTable.getColumnName(4));
-                    if (!checkMsg.equals("OK")) {
-                        rsRestoredCorruptedTableName = rsRestoredCHECKTable.getString(1);
-                        corruptedDbList.add(rsRestoredCorruptedTableName);
-                    }
-                    rsRestoredCHECKTable.close();
-                }
+            boolean passedCheckTables = true;
+            boolean passedNumRowsCheck = true;
+            boolean passedChecksumCheck = true;
+            boolean passedQueries = true;
+            for (CheckedTable table : checked) {
+                passedCheckTables &= table.passed;
+                passedQueries &= table.passedQuery;
+            }
+            for (TableResult result : results) {
+                passedNumRowsCheck &= result.passedNumRows;
+                passedChecksumCheck &= result.passedChecksum;
+                passedQueries &= result.passedQueries;
+            }
 
-                if (corruptedDbList.size() != 0) {
-                    //Get names of corrupted tables
-                    for (String s : corruptedDbList) {
-                        logger.warn("Validation Error: {} table is corrupted." + s);
-                        passedCheckTables = false;
-                    }
-                }
+            // tables missing from either database were reported above
+            boolean passedSchemaCheck = true;
+            for (Map.Entry<String, List<String>> table : schemaDifferences.entrySet()) {
+                if (!setProdTables.contains(table.getKey()) || !setRestoredTables.contains(table.getKey()))
+                    continue;
+                for (String difference : table.getValue())
+                    logger.warn("Validation Error: Table {}: {}", table.getKey(), difference);
+                passedSchemaCheck = false;
+            }
 
-                if(passedCheckTables)
-                    logger.info("Validated no corrupted tables in the restored database.");
+            if(passedCheckTables)
+                logger.info("Validated no corrupted tables in the restored database.");
+            if(passedNumRowsCheck)
+                logger.info("Validated that production database is ahead of restored database. (Production database has the same or more rows than restored database.)");
+            if(passedSchemaCheck)
+                logger.info("Validated that tables' structures are the same.");
+            if(checksum && passedChecksumCheck)
+                logger.info("Validated that tables' contents are the same.");
 
+            return passedTablePresentCheck && passedCheckTables && passedNumRowsCheck && passedSchemaCheck && passedChecksumCheck && passedQueries;
+        }
 
-                boolean passedNumRowsCheck = true;
-                // Check the metadata of all tables of restored database
-                // Loop through all tables to query and validate each (only those present in the restored database)
-                iter = setRestoredTables.iterator();
-                while (iter.hasNext()) {
-                    String tableName = iter.next();
-                    if(tableName.toLowerCase().contains("cache") || tableName.toLowerCase().contains("session"))
-                        continue;
-                    String query = "SELECT COUNT(*) AS numRows FROM " + db + "." + tableName + ";";
+        /**
+         * Orders the tables from largest to smallest by the data and index size the restored server reports, so the
+         * longest checks start first.
+         * @param conRestored Connection to the restored server
+         * @param tableNames Set of the tables to order
+         * @return List of the tables, largest first
+         * @throws SQLException if the sizes can't be read
+         */
+        private List<Table> largestFirst(Connection conRestored, Set<String> tableNames) throws SQLException {
+            Map<String, Long> sizes = new HashMap<>();
+            PreparedStatement pstSizes = conRestored.prepareStatement("SELECT TABLE_NAME, COALESCE(DATA_LENGTH, 0) + COALESCE(INDEX_LENGTH, 0) " +
+                    "FROM information_schema.TABLES WHERE TABLE_SCHEMA = ?;");
+            pstSizes.setString(1, db);
+            try (ResultSet rsSizes = pstSizes.executeQuery()) {
+                while (rsSizes.next())
+                    sizes.put(rsSizes.getString(1), rsSizes.getLong(2));
+            }
 
-                    // Prepared Statements
-                    PreparedStatement pstProd = conProd.prepareStatement(query);
-                    PreparedStatement pstRestored = conRestored.prepareStatement(query);
+            List<Table> tables = new ArrayList<>(tableNames.size());
+            for (String tableName : tableNames)
+                tables.add(new Table(tableName, sizes.getOrDefault(tableName, 0L)));
+            tables.sort(Comparator.comparingLong((Table t) -> t.size).reversed());
+            return tables;
+        }
 
-                    // Execute SQL query
-                    ResultSet rsProdRows = pstProd.executeQuery();
-                    ResultSet rsRestoredRows = pstRestored.executeQuery();
+        /**
+         * Checks every table, handing the tables out largest first to as many workers as the table parallelism allows.
+         * @param tables List of the tables, largest first
+         * @return List of the result of each table
+         * @throws InterruptedException if interrupted while waiting for the workers
+         * @throws ExecutionException if a worker fails other than in a table
+         */
+        private List<TableResult> checkTables(List<Table> tables) throws InterruptedException, ExecutionException {
+            long start = System.nanoTime();
+            List<TableResult> results = largestFirst(tables,
+                    table -> checksum && !isVolatile(table.name) ? checksumParallelism + 1 : 1, this::checkTable, (table, e) -> {
+                        logger.error("Error checking {}.{}", db, table.name, e);
+                        TableResult failed = new TableResult(table.name);
+                        failed.passedQueries = false;
+                        return failed;
+                    });
+
+            TableResult slowest = results.stream().max(Comparator.comparingLong((TableResult r) -> r.nanos)).orElse(null);
+            if (slowest != null)
+                logger.info("Checked {} tables of {} in {} ms, {} at a time, the slowest was {} at {} ms", results.size(), db,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), Math.min(tableParallelism, tables.size()),
+                        slowest.table, TimeUnit.NANOSECONDS.toMillis(slowest.nanos));
+            return results;
+        }
 
-                    // Check that ResultSets return from each query
-                    if (rsProdRows == null || rsRestoredRows == null) {
-                        logger.warn("Validation Error: NULL Result Set from \"SELECT * FROM [DatabaseName].[DatabaseTable]\".");
-                        return false;
+        /**
+         * Hands out work in order, largest first, to as many workers as the table parallelism allows.  Each piece
+         * waits for the connections it uses before it starts.
+         * @param work List of the work, largest first
+         * @param connectionsOf ToIntFunction of how many connections to each server a piece uses at most
+         * @param task Function doing one piece of the work
+         * @param failed BiFunction giving the result of a piece that threw
+         * @return List of the results, in the order they finished
+         * @throws InterruptedException if interrupted while waiting for the workers
+         * @throws ExecutionException if a worker fails other than in a piece of work
+         */
+        private <T, R> List<R> largestFirst(List<T> work, ToIntFunction<T> connectionsOf, Function<T, R> task,
+                                            BiFunction<T, RuntimeException, R> failed) throws InterruptedException, ExecutionException {
+            Queue<T> queue = new ConcurrentLinkedQueue<>(work);
+            List<R> results = Collections.synchronizedList(new ArrayList<>(work.size()));
+            List<CompletableFuture<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < Math.min(tableParallelism, work.size()); i++) {
+                workers.add(Util.supplyAsync(() -> {
+                    T next;
+                    while ((next = queue.poll()) != null) {
+                        int permits = connectionsOf.applyAsInt(next);
+                        connections.acquire(permits);
+                        try {
+                            results.add(task.apply(next));
+                        } catch (RuntimeException e) {
+                            results.add(failed.apply(next, e));
+                        } finally {
+                            connections.release(permits);
+                        }
                     }
+                    return null;
+                }));
+            }
 
-                    rsProdRows.next();
-                    int numProdRows = rsProdRows.getInt("numRows");
+            try {
+                CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0])).get();
+            } catch (ExecutionException e) {
+                if (Util.unwrap(e) instanceof InterruptedException)
+                    throw (InterruptedException) Util.unwrap(e);
+                throw e;
+            }
+            return results;
+        }
 
-                    rsRestoredRows.next();
-                    int numRestoredRows = rsRestoredRows.getInt("numRows");
+        /**
+         * Runs CHECK TABLE on every table of the restored database.  Tables are checked in multi-table statements of
+         * tables of the same {@link CheckMode}, no more than {@value RDSValidate#CHECK_BATCH_TABLES} tables or
+         * {@value RDSValidate#CHECK_BATCH_MIB} MiB a statement, so small tables share a round trip and large ones get one to
+         * themselves.  The statements run at once on the restored pool, largest first.
+         * @param tables List of the tables, largest first
+         * @return List of how each table checked
+         * @throws InterruptedException if interrupted while waiting for the statements
+         * @throws ExecutionException if a worker fails other than in a statement
+         */
+        private List<CheckedTable> checkIntegrity(List<Table> tables) throws InterruptedException, ExecutionException {
+            long start = System.nanoTime();
+            List<List<Table>> batches = checkBatches(tables);
+
+            List<CheckedTable> checked = new ArrayList<>(tables.size());
+            List<List<CheckedTable>> results = largestFirst(batches, batch -> 1, this::checkBatch, (batch, e) -> {
+                logger.error("Error checking {} tables of {}", batch.size(), db, e);
+                List<CheckedTable> failed = new ArrayList<>(batch.size());
+                for (Table table : batch)
+                    failed.add(new CheckedTable(table.name, checkMode(table.size), true, false, 0));
+                return failed;
+            });
+            for (List<CheckedTable> batch : results)
+                checked.addAll(batch);
+
+            // a table checked alone is timed exactly, the tables of a batch only together as their statement
+            results.sort(Comparator.comparingLong((List<CheckedTable> batch) -> batch.get(0).nanos).reversed());
+            StringJoiner slowest = new StringJoiner(", ");
+            for (List<CheckedTable> batch : results.subList(0, Math.min(SLOWEST_REPORTED, results.size())))
+                slowest.add(describeBatch(batch) + " " + TimeUnit.NANOSECONDS.toMillis(batch.get(0).nanos) + " ms");
+            logger.info("Ran CHECK TABLE on {} tables of {} in {} statements in {} ms, slowest statements {}", checked.size(), db,
+                    batches.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), slowest);
+            for (List<CheckedTable> batch : results)
+                logger.debug("CHECK TABLE {} took {} ms", describeBatch(batch), TimeUnit.NANOSECONDS.toMillis(batch.get(0).nanos));
+            return checked;
+        }
 
-                    if (numProdRows != numRestoredRows) {
-                        logger.warn("Validation Error: The number of rows in {} is not the same. The production database table has {} rows, and the restored has {} rows.", tableName, numProdRows, numRestoredRows);
-                        passedNumRowsCheck = false;
-                    }
+        /**
+         * Splits the tables into CHECK TABLE statements of tables of the same {@link CheckMode}, no more than
+         * {@value RDSValidate#CHECK_BATCH_TABLES} tables or {@value RDSValidate#CHECK_BATCH_MIB} MiB a statement.
+         * @param tables List of the tables, largest first
+         * @return List of the tables of each statement, in the order the tables came
+         */
+        List<List<Table>> checkBatches(List<Table> tables) {
+            Map<CheckMode, List<Table>> open = new EnumMap<>(CheckMode.class);
+            Map<CheckMode, Long> openBytes = new EnumMap<>(CheckMode.class);
+            List<List<Table>> batches = new ArrayList<>();
+            for (Table table : tables) {
+                CheckMode mode = checkMode(table.size);
+                List<Table> batch = open.get(mode);
+                if (batch == null || batch.size() >= CHECK_BATCH_TABLES || openBytes.get(mode) + table.size > CHECK_BATCH_MIB * MIB) {
+                    batch = new ArrayList<>();
+                    batches.add(batch);
+                    open.put(mode, batch);
+                    openBytes.put(mode, 0L);
                 }
+                batch.add(table);
+                openBytes.put(mode, openBytes.get(mode) + table.size);
+            }
+            return batches;
+        }
 
-                if(passedNumRowsCheck)
-                    logger.info("Validated that production database is ahead of restored database. (Production database has the same or more rows than restored database.)");
-
+        private static String describeBatch(List<CheckedTable> batch) {
+            if (batch.size() == 1)
+                return batch.get(0).table + " " + batch.get(0).mode;
+            return batch.size() + " tables from " + batch.get(0).table + " " + batch.get(0).mode;
+        }
 
-                boolean passedSchemaCheck = true;
-                // Running query again to get to row 0 of result set to check metadata
-                iter = setRestoredTables.iterator();
-                while (iter.hasNext()) {
-                    String tableName = iter.next();
-                    String query = "SELECT * FROM " + db + "." + tableName + " LIMIT 1;";
+        CheckMode checkMode(long size) {
+            if (size >= checkQuickMinMb * MIB)
+                return CheckMode.QUICK;
+            if (size < checkExtendedMaxMb * MIB)
+                return CheckMode.EXTENDED;
+            return CheckMode.MEDIUM;
+        }
 
-                    // Prepared Statements
-                    PreparedStatement pstProd = conProd.prepareStatement(query);
-                    PreparedStatement pstRestored = conRestored.prepareStatement(query);
+        /**
+         * Runs one CHECK TABLE statement.  A table passes if its status is OK and it has no errors.  The server
+         * doesn't time each table of a statement, so each table gets the statement's time, which is the table's own
+         * only if it was checked alone.
+         * @param batch List of the tables, all of the same check mode
+         * @return List of how each table checked
+         */
+        private List<CheckedTable> checkBatch(List<Table> batch) {
+            long start = System.nanoTime();
+            CheckMode mode = checkMode(batch.get(0).size);
+            StringJoiner names = new StringJoiner(", ", "CHECK TABLE ", " " + mode + ";");
+            for (Table table : batch)
+                names.add(quote(db) + "." + quote(table.name));
+
+            Map<String, Boolean> passed = new HashMap<>();
+            boolean passedQuery = true;
+            try (Connection conRestored = dsRestored.getConnection();
+                 ResultSet rsRestoredCHECKTable = conRestored.prepareStatement(names.toString()).executeQuery()) {
+                // Rows are Table, Op, Msg_type and Msg_text, the status row of each table is OK if it isn't corrupted
+                while (rsRestoredCHECKTable.next()) {
+                    String checkedTable = rsRestoredCHECKTable.getString(1).toLowerCase();
+                    String msgType = rsRestoredCHECKTable.getString(3);
+                    String checkMsg = rsRestoredCHECKTable.getString(4);
+                    if ("error".equalsIgnoreCase(msgType))
+                        passed.put(checkedTable, false);
+                    else if ("status".equalsIgnoreCase(msgType))
+                        passed.merge(checkedTable, "OK".equals(checkMsg), Boolean::logicalAnd);
+                }
+            } catch (SQLException e) {
+                logger.error("SQL Error checking {} tables of {}: {}", batch.size(), db, e.getMessage(), e);
+                passedQuery = false;
+            }
 
-                    // Execute SQL query
-                    ResultSet rsProdRows = pstProd.executeQuery();
-                    ResultSet rsRestoredRows = pstRestored.executeQuery();
+            long nanos = System.nanoTime() - start;
+            List<CheckedTable> checked = new ArrayList<>(batch.size());
+            for (Table table : batch) {
+                boolean ok = passed.getOrDefault((db + "." + table.name).toLowerCase(), false);
+                if (passedQuery && !ok)
+                    logger.warn("Validation Error: {} table is corrupted.", table.name);
+                checked.add(new CheckedTable(table.name, mode, ok || !passedQuery, passedQuery, nanos));
+            }
+            return checked;
+        }
 
-                    // Check that ResultSets return from each query
-                    if (rsProdRows == null || rsRestoredRows == null) {
-                        logger.warn("Validation Error: NULL Result Set from \"SELECT * FROM [DatabaseName].[DatabaseTable]\".");
-                        return false;
+        /**
+         * Compares the number of rows of the production and restored tables, on its own pair of connections.  The
+         * checksum borrows its own connections afterwards.
+         * @param table Table to check
+         * @return TableResult of the checks
+         */
+        private TableResult checkTable(Table table) {
+            long start = System.nanoTime();
+            TableResult result = new TableResult(table.name);
+            String qualified = db + "." + table.name;
+            try (Connection conProd = dsProd.getConnection();
+                 Connection conRestored = dsRestored.getConnection();
+            ) {
+                if (!isVolatile(table.name)) {
+                    String query = "SELECT COUNT(*) AS numRows FROM " + qualified + ";";
+                    long numProdRows = count(conProd, query);
+                    long numRestoredRows = count(conRestored, query);
+                    if (numProdRows != numRestoredRows) {
+                        logger.warn("Validation Error: The number of rows in {} is not the same. The production database table has {} rows, and the restored has {} rows.", table.name, numProdRows, numRestoredRows);
+                        result.passedNumRows = false;
                     }
+                }
+            } catch (SQLException e) {
+                logger.error("SQL Error checking {}: {}", qualified, e.getMessage(), e);
+                result.passedQueries = false;
+            }
 
-                    // Get Meta Data
-                    ResultSetMetaData metaDataProdRows = rsProdRows.getMetaData();
-                    ResultSetMetaData metaDataRestoredRows = rsRestoredRows.getMetaData();
-
-                    // Store metadata, then compare results
-                    Map<String, Object> mapProdSchemaToMetaData = new HashMap<>();
-                    int columnCountProd = metaDataProdRows.getColumnCount();
-                    int columnNum = 1;
-                    rsProdRows.next();
-                    while (columnNum <= columnCountProd) {
-                        mapProdSchemaToMetaData.put("catalogName", metaDataProdRows.getCatalogName(columnNum));
-                        mapProdSchemaToMetaData.put("columnClassName", metaDataProdRows.getColumnClassName(columnNum));
-                        mapProdSchemaToMetaData.put("columnCount", metaDataProdRows.getColumnCount());
-                        mapProdSchemaToMetaData.put("columnDisplaySize", metaDataProdRows.getColumnDisplaySize(columnNum));
-                        mapProdSchemaToMetaData.put("columnLabel", metaDataProdRows.getColumnLabel(columnNum));
-                        mapProdSchemaToMetaData.put("columnName", metaDataProdRows.getColumnName(columnNum));
-                        mapProdSchemaToMetaData.put("columnType", metaDataProdRows.getColumnType(columnNum));
-                        mapProdSchemaToMetaData.put("columnTypeName", metaDataProdRows.getColumnTypeName(columnNum));
-                        mapProdSchemaToMetaData.put("precision", metaDataProdRows.getPrecision(columnNum));
-                        mapProdSchemaToMetaData.put("scale", metaDataProdRows.getScale(columnNum));
-                        mapProdSchemaToMetaData.put("schemaName", metaDataProdRows.getSchemaName(columnNum));
-                        mapProdSchemaToMetaData.put("tableName", metaDataProdRows.getTableName(columnNum));
-                        columnNum++;
+            if (checksum && !isVolatile(table.name)) {
+                RDSTableChecksum tableChecksum = new RDSTableChecksum(dsProd, dsRestored, db, table.name, checksumParallelism, checksumChunkMillis);
+                try {
+                    if (!tableChecksum.run()) {
+                        logger.warn("Validation Error: The contents of {} are not the same, {}", table.name, tableChecksum.describe());
+                        result.passedChecksum = false;
                     }
+                } catch (SQLException e) {
+                    logger.error("SQL Error checksumming {}: {}", qualified, e.getMessage(), e);
+                    result.passedQueries = false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.error("Interrupted checksumming {}", qualified);
+                    result.passedQueries = false;
+                }
+            }
+            result.nanos = System.nanoTime() - start;
+            return result;
+        }
 
-                    Map<String, Object> mapRestoredSchemaToMetaData = new HashMap<>();
-                    int columnCountRestored = metaDataRestoredRows.getColumnCount();
-                    columnNum = 1;
-                    rsRestoredRows.next();
-                    while (columnNum <= columnCountRestored) {
-                        mapRestoredSchemaToMetaData.put("catalogName", metaDataRestoredRows.getCatalogName(columnNum));
-                        mapRestoredSchemaToMetaData.put("columnClassName", metaDataRestoredRows.getColumnClassName(columnNum));
-                        mapRestoredSchemaToMetaData.put("columnCount", metaDataRestoredRows.getColumnCount());
-                        mapRestoredSchemaToMetaData.put("columnDisplaySize", metaDataRestoredRows.getColumnDisplaySize(columnNum));
-                        mapRestoredSchemaToMetaData.put("columnLabel", metaDataRestoredRows.getColumnLabel(columnNum));
-                        mapRestoredSchemaToMetaData.put("columnName", metaDataRestoredRows.getColumnName(columnNum));
-                        mapRestoredSchemaToMetaData.put("columnType", metaDataRestoredRows.getColumnType(columnNum));
-                        mapRestoredSchemaToMetaData.put("columnTypeName", metaDataRestoredRows.getColumnTypeName(columnNum));
-                        mapRestoredSchemaToMetaData.put("precision", metaDataRestoredRows.getPrecision(columnNum));
-                        mapRestoredSchemaToMetaData.put("scale", metaDataRestoredRows.getScale(columnNum));
-                        mapRestoredSchemaToMetaData.put("schemaName", metaDataRestoredRows.getSchemaName(columnNum));
-                        mapRestoredSchemaToMetaData.put("tableName", metaDataRestoredRows.getTableName(columnNum));
-                        columnNum++;
-                    }
+        /**
+         * Tables with cache or session in the name tend toward volatility, so their rows aren't compared.
+         */
+        private static boolean isVolatile(String tableName) {
+            return tableName.toLowerCase().contains("cache") || tableName.toLowerCase().contains("session");
+        }
 
-                    // Store tables that have missing or corrupted metadata
-                    List<String> listTablesWithBadColumns = new ArrayList<>();
-                    if (!mapProdSchemaToMetaData.equals(mapRestoredSchemaToMetaData)) {
-                        listTablesWithBadColumns.add(tableName);
-                    }
+        private static String quote(String name) {
+            return "`" + name.replace("`", "``") + "`";
+        }
 
-                    if (listTablesWithBadColumns.size() != 0) {
-                        for (String s : listTablesWithBadColumns) {
-                            logger.warn("Validation Error: Table {} has missing or corrupted column(s)", s);
-                        }
-                        passedSchemaCheck = false;
-                    }
+        private static long count(Connection connection, String query) throws SQLException {
+            try (ResultSet rsRows = connection.prepareStatement(query).executeQuery()) {
+                rsRows.next();
+                return rsRows.getLong("numRows");
+            }
+        }
+    }
 
-                    rsProdRows.close();
-                    rsRestoredRows.close();
-                }
-                if(passedSchemaCheck)
-                    logger.info("Validated that tables' structures are the same.");
+    /**
+     * A table and its size in bytes of data and indexes.
+     */
+    static final class Table {
+        final String name;
+        final long size;
 
+        Table(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+    }
 
+    /**
+     * How deeply CHECK TABLE checks a table, chosen by the table's size.
+     */
+    enum CheckMode {
+        /**
+         * Doesn't scan the rows for incorrect links, for the largest tables.
+         */
+        QUICK,
+        /**
+         * Scans the rows to verify deleted links are valid and checks a key checksum of the rows.
+         */
+        MEDIUM,
+        /**
+         * Does a full key lookup for every key of every row, for small tables.
+         */
+        EXTENDED
+    }
 
-                rsProdUseDb.close();
-                rsRestoredUseDb.close();
-                rsProdTables.close();
-                rsRestoredTables.close();
+    /**
+     * How CHECK TABLE went for a table, and how long the statement that checked it took.
+     */
+    private static final class CheckedTable {
+        final String table;
+        final CheckMode mode;
+        final boolean passed;
+        final boolean passedQuery;
+        final long nanos;
+
+        CheckedTable(String table, CheckMode mode, boolean passed, boolean passedQuery, long nanos) {
+            this.table = table;
+            this.mode = mode;
+            this.passed = passed;
+            this.passedQuery = passedQuery;
+            this.nanos = nanos;
+        }
+    }
 
-                return passedTablePresentCheck && passedCheckTables && passedNumRowsCheck && passedSchemaCheck;
-            } catch (SQLException e) {
-                logger.error("SQL Error: {}", e.getMessage(), e);
-                return false;
-            }
+    /**
+     * How each check of a table went, and how long the table took.
+     */
+    private static final class TableResult {
+        final String table;
+        boolean passedNumRows = true;
+        boolean passedChecksum = true;
+        boolean passedQueries = true;
+        long nanos;
+
+        TableResult(String table) {
+            this.table = table;
         }
     }
 }
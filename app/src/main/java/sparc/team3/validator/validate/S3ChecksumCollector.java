@@ -0,0 +1,206 @@
+package sparc.team3.validator.validate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+import sparc.team3.validator.util.Util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+
+/**
+ * Collects the checksums of every object in a bucket with GetObjectAttributes requests made on the async S3 client.
+ * The bucket is listed in the background and a request is sent for each object as it is listed, with no more than
+ * the in-flight limit outstanding.  When the limit is reached listing waits, and when the results aren't being read
+ * quickly enough requests stop being sent, so memory stays bounded however large the bucket is.  Results are
+ * returned in listing order.
+ */
+final class S3ChecksumCollector implements Iterator<S3ChecksumCollector.ObjectChecksum>, AutoCloseable {
+    private final S3AsyncClient s3Async;
+    private final String bucketName;
+    private final Semaphore inFlight;
+    private final BlockingQueue<CompletableFuture<ObjectChecksum>> results;
+    private final Logger logger;
+    private final Iterator<S3Object> listing;
+    private volatile boolean closed = false;
+    private ObjectChecksum next;
+    private boolean done = false;
+    private long collected = 0;
+
+    /**
+     * Starts listing the bucket and collecting checksums.
+     *
+     * @param s3         S3Client used to list the bucket
+     * @param s3Async    S3AsyncClient used to get the checksums
+     * @param bucketName String name of the bucket
+     * @param listingConcurrency int number of partitions of the bucket listed at once
+     * @param inFlight   Semaphore limiting the outstanding requests, may be shared between collectors
+     * @param maxInFlight int of the in-flight limit, used to size the buffer of results
+     */
+    S3ChecksumCollector(S3Client s3, S3AsyncClient s3Async, String bucketName, int listingConcurrency, Semaphore inFlight, int maxInFlight) {
+        this.s3Async = s3Async;
+        this.bucketName = bucketName;
+        this.inFlight = inFlight;
+        this.results = new ArrayBlockingQueue<>(Math.max(1, maxInFlight) * 2);
+        this.logger = LoggerFactory.getLogger(this.getClass().getName());
+        this.listing = S3Listing.of(s3, bucketName, listingConcurrency);
+        Util.supplyAsync(() -> {
+            produce(listing);
+            return null;
+        });
+    }
+
+    /**
+     * Sends a request for each listed object and queues the results in listing order, finishing with an empty
+     * result.  A failure listing the bucket is queued as a failed result.
+     * @param listing Iterator of the objects in the bucket
+     */
+    private void produce(Iterator<S3Object> listing) throws InterruptedException {
+        try {
+            while (!closed && listing.hasNext()) {
+                S3Object object = listing.next();
+                inFlight.acquire();
+                CompletableFuture<ObjectChecksum> result;
+                try {
+                    result = s3Async.getObjectAttributes(GetObjectAttributesRequest.builder().bucket(bucketName)
+                                    .key(object.key()).objectAttributes(ObjectAttributes.OBJECT_PARTS, ObjectAttributes.CHECKSUM,
+                                            ObjectAttributes.E_TAG, ObjectAttributes.OBJECT_SIZE).build())
+                            .thenApply(response -> ObjectChecksum.of(object.key(), response));
+                } catch (RuntimeException e) {
+                    inFlight.release();
+                    throw e;
+                }
+                result.whenComplete((checksum, e) -> inFlight.release());
+                put(result);
+            }
+            put(CompletableFuture.completedFuture(null));
+        } catch (RuntimeException e) {
+            put(CompletableFuture.failedFuture(e));
+        }
+    }
+
+    private void put(CompletableFuture<ObjectChecksum> result) throws InterruptedException {
+        while (!results.offer(result, 1, TimeUnit.SECONDS)) {
+            if (closed)
+                return;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null)
+            return true;
+        if (done)
+            return false;
+        try {
+            next = results.take().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted collecting checksums of " + bucketName, e);
+        } catch (CompletionException e) {
+            Throwable cause = Util.unwrap(e);
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw e;
+        }
+        if (next == null)
+            done = true;
+        else
+            collected++;
+        return next != null;
+    }
+
+    @Override
+    public ObjectChecksum next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        ObjectChecksum current = next;
+        next = null;
+        return current;
+    }
+
+    /**
+     * Number of checksums returned so far.
+     * @return long of the number of objects collected
+     */
+    long getCollected() {
+        return collected;
+    }
+
+    /**
+     * Stops listing and sending requests.  Requests already sent are left to finish.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        S3Listing.close(listing);
+        results.clear();
+        logger.debug("Stopped collecting checksums of {} after {} objects", bucketName, collected);
+    }
+
+    /**
+     * The attributes of an object that are compared.
+     */
+    static final class ObjectChecksum {
+        private final String key;
+        private final Long size;
+        private final String eTag;
+        private final Integer partsCount;
+        private final Checksum checksum;
+
+        ObjectChecksum(String key, Long size, String eTag, Integer partsCount, Checksum checksum) {
+            this.key = key;
+            this.size = size;
+            this.eTag = eTag;
+            this.partsCount = partsCount;
+            this.checksum = checksum;
+        }
+
+        static ObjectChecksum of(String key, GetObjectAttributesResponse response) {
+            return new ObjectChecksum(key, response.objectSize(), response.eTag(),
+                    response.objectParts() == null ? null : response.objectParts().totalPartsCount(), response.checksum());
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        /**
+         * @return String of the SHA-256 checksum, null if the object has none
+         */
+        String getChecksum() {
+            return checksum == null ? null : checksum.checksumSHA256();
+        }
+
+        /**
+         * @return Long size of the object in bytes, null if not known
+         */
+        Long getSize() {
+            return size;
+        }
+
+        /**
+         * @return String ETag of the object without quotes, null if not known
+         */
+        String getETag() {
+            return eTag == null ? null : eTag.replace("\"", "");
+        }
+
+        /**
+         * @return Integer number of parts the object was uploaded in, null if it wasn't a multipart upload
+         */
+        Integer getPartsCount() {
+            return partsCount;
+        }
+
+        /**
+         * @return Checksum with whichever checksums the object has, null if it has none
+         */
+        Checksum getChecksums() {
+            return checksum;
+        }
+    }
+}
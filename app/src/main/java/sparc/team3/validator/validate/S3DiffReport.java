@@ -0,0 +1,181 @@
+package sparc.team3.validator.validate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Every difference found between the production and restored S3 buckets, written to a gzip compressed, tab separated
+ * file as it is found, along with a count of each kind of difference.  The first few differences are also logged.
+ * Differences can be added from any thread.
+ */
+final class S3DiffReport implements AutoCloseable {
+    /**
+     * How many differences are logged, the rest are only written to the report file.
+     */
+    private static final int MAX_LOGGED = 20;
+
+    /**
+     * The kinds of difference.
+     */
+    enum Difference {
+        /**
+         * The object is in the production bucket but not the restored bucket.
+         */
+        MISSING,
+        /**
+         * The object is in the restored bucket but not the production bucket.  These don't fail the validation,
+         * production may have deleted the object since the backup.
+         */
+        EXTRA,
+        /**
+         * The restored object is a different size.
+         */
+        SIZE_MISMATCH,
+        /**
+         * The restored object has different contents.
+         */
+        CHECKSUM_MISMATCH,
+        /**
+         * The objects couldn't be compared.
+         */
+        ERROR
+    }
+
+    private final Path reportFile;
+    private final BufferedWriter writer;
+    private final Logger logger;
+    private final Map<Difference, AtomicLong> counts = new EnumMap<>(Difference.class);
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong sampledMatched = new AtomicLong();
+    private long logged = 0;
+    private final List<String> notes = new ArrayList<>();
+
+    /**
+     * Creates the report file.
+     *
+     * @param reportFile Path of the report file
+     * @throws IOException if the report file can't be created
+     */
+    S3DiffReport(Path reportFile) throws IOException {
+        this.reportFile = reportFile;
+        this.logger = LoggerFactory.getLogger(this.getClass().getName());
+        for (Difference difference : Difference.values())
+            counts.put(difference, new AtomicLong());
+
+        if (reportFile.getParent() != null)
+            Files.createDirectories(reportFile.getParent());
+        writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(reportFile)), StandardCharsets.UTF_8));
+        writer.write("difference\tkey\tdetail\n");
+    }
+
+    /**
+     * Records an object that matches.
+     */
+    void matched() {
+        matched.incrementAndGet();
+    }
+
+    /**
+     * Records an object whose sampled byte ranges match, which is kept apart from {@link #matched()} as a difference
+     * outside the ranges isn't seen.
+     */
+    void sampledMatched() {
+        sampledMatched.incrementAndGet();
+    }
+
+    /**
+     * Records a difference.
+     *
+     * @param difference Difference found
+     * @param key        String key of the object
+     * @param detail     String describing the difference, may be empty
+     */
+    synchronized void add(Difference difference, String key, String detail) {
+        counts.get(difference).incrementAndGet();
+        if (logged < MAX_LOGGED && difference != Difference.EXTRA) {
+            logged++;
+            logger.warn("S3 object {} {} {}", key, difference, detail);
+        }
+        try {
+            writer.write(difference + "\t" + key.replace('\t', ' ').replace('\n', ' ') + "\t" + detail + "\n");
+        } catch (IOException e) {
+            logger.error("Unable to write to S3 diff report {}: {}", reportFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Number of differences of a kind found so far.
+     * @param difference Difference to count
+     * @return long count
+     */
+    long getCount(Difference difference) {
+        return counts.get(difference).get();
+    }
+
+    /**
+     * Number of differences that fail the validation, every kind except {@link Difference#EXTRA}.
+     * @return long count
+     */
+    long getFailures() {
+        return getCount(Difference.MISSING) + getCount(Difference.SIZE_MISMATCH)
+                + getCount(Difference.CHECKSUM_MISMATCH) + getCount(Difference.ERROR);
+    }
+
+    /**
+     * Adds a line about how the bucket was checked, such as an estimate made from a sample, written at the end of
+     * the report.
+     * @param note String to add
+     */
+    synchronized void addNote(String note) {
+        notes.add(note);
+    }
+
+    synchronized List<String> getNotes() {
+        return new ArrayList<>(notes);
+    }
+
+    Path getReportFile() {
+        return reportFile;
+    }
+
+    /**
+     * One line summary of the counts.
+     * @return String summary
+     */
+    String summary() {
+        StringBuilder summary = new StringBuilder("matched=").append(matched.get());
+        if (sampledMatched.get() > 0)
+            summary.append(", range_sampled_matched=").append(sampledMatched.get());
+        for (Difference difference : Difference.values())
+            summary.append(", ").append(difference.name().toLowerCase()).append('=').append(getCount(difference));
+        return summary.toString();
+    }
+
+    /**
+     * Writes the counts to the end of the report and closes it.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            writer.write("# " + summary() + "\n");
+            for (String note : notes)
+                writer.write("# " + note + "\n");
+            writer.close();
+        } catch (IOException e) {
+            logger.error("Unable to finish S3 diff report {}: {}", reportFile, e.getMessage());
+        }
+    }
+}
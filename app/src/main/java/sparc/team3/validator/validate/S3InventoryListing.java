@@ -0,0 +1,461 @@
+package sparc.team3.validator.validate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import sparc.team3.validator.util.Util;
+
+import java.io.*;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Lists a bucket from an S3 Inventory report instead of ListObjectsV2, for buckets too large to list quickly.
+ * The inventory can be in S3, given as {@code s3://bucket/prefix/}, or in a local directory.  The location can be
+ * the inventory's manifest.json, or the directory above the dated inventory folders, in which case the newest one
+ * is used.
+ * <p>
+ * Only CSV inventories can be read.  Each data file is decoded in blocks on a pool of decoder threads, a block
+ * ahead of where it is being read, and the files are merged by key so objects come back in {@link S3Listing#KEY_ORDER}
+ * like a listing does.  Only a couple of blocks of each file are held in memory.  The merge needs each data file to be
+ * sorted by key, which S3 doesn't promise, so every file is read through once first to check it is, and an
+ * {@link UnsortedException} thrown if one isn't.
+ * <p>
+ * Data files in S3 are first downloaded to a temporary directory, {@value #MAX_DOWNLOADS} at a time, so the merge
+ * doesn't hold a connection of the shared S3 client open for every data file.  The copies are deleted on close.
+ */
+final class S3InventoryListing implements Iterator<S3Object>, AutoCloseable {
+    /**
+     * How many rows of a data file are decoded at a time.
+     */
+    private static final int BLOCK_SIZE = 256;
+    /**
+     * How many data files are downloaded from S3 at once.
+     */
+    static final int MAX_DOWNLOADS = 4;
+    private static final String MANIFEST = "manifest.json";
+    private static final String S3_SCHEME = "s3://";
+
+    private final S3Client s3;
+    private final Logger logger;
+    private final ExecutorService decoders;
+    private final PriorityQueue<DataFile> heads = new PriorityQueue<>(
+            (a, b) -> S3Listing.KEY_ORDER.compare(a.peek().key(), b.peek().key()));
+    private final List<DataFile> files = new ArrayList<>();
+    private Path downloadDirectory;
+
+    /**
+     * Reads the inventory manifest and starts decoding its data files.
+     *
+     * @param s3       S3Client used to read an inventory in S3
+     * @param location String location of the inventory
+     * @throws IOException if the inventory can't be read or isn't a CSV inventory
+     */
+    S3InventoryListing(S3Client s3, String location) throws IOException {
+        this.s3 = s3;
+        this.logger = LoggerFactory.getLogger(this.getClass().getName());
+
+        String manifestLocation = findManifest(location);
+        JsonNode manifest;
+        try (InputStream in = open(manifestLocation)) {
+            manifest = new ObjectMapper().readTree(in);
+        }
+
+        String format = manifest.path("fileFormat").asText();
+        if (!format.equalsIgnoreCase("CSV"))
+            throw new IOException("S3 Inventory format " + format + " is not supported, only CSV inventories can be read");
+
+        List<String> schema = Arrays.stream(manifest.path("fileSchema").asText().split(","))
+                .map(String::trim).collect(Collectors.toList());
+        Columns columns = new Columns(schema);
+        if (columns.key < 0)
+            throw new IOException("S3 Inventory " + manifestLocation + " has no Key column");
+
+        String base = manifestLocation.substring(0, manifestLocation.length() - MANIFEST.length());
+        List<String> dataFiles = new ArrayList<>();
+        for (JsonNode file : manifest.path("files"))
+            dataFiles.add(dataFileLocation(base, manifest.path("destinationBucket").asText(), file.path("key").asText()));
+
+        logger.info("Reading S3 Inventory {} of bucket {}, {} data files", manifestLocation,
+                manifest.path("sourceBucket").asText(), dataFiles.size());
+        decoders = Executors.newFixedThreadPool(Math.max(1, Math.min(dataFiles.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            if (base.startsWith(S3_SCHEME))
+                dataFiles = download(dataFiles);
+            checkSorted(dataFiles, columns);
+            for (String dataFile : dataFiles) {
+                DataFile file = new DataFile(dataFile, columns);
+                files.add(file);
+            }
+            for (DataFile file : files) {
+                if (file.peek() != null)
+                    heads.add(file);
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public S3Object next() {
+        DataFile file = heads.poll();
+        if (file == null)
+            throw new NoSuchElementException();
+        S3Object next = file.next();
+        if (file.peek() != null)
+            heads.add(file);
+        return next;
+    }
+
+    /**
+     * Stops decoding, closes the data files and deletes any downloaded copies.
+     */
+    @Override
+    public void close() {
+        decoders.shutdownNow();
+        files.forEach(DataFile::close);
+        if (downloadDirectory == null)
+            return;
+        try (Stream<Path> copies = Files.list(downloadDirectory)) {
+            for (Path copy : (Iterable<Path>) copies::iterator)
+                Files.deleteIfExists(copy);
+            Files.deleteIfExists(downloadDirectory);
+        } catch (IOException e) {
+            logger.warn("Unable to delete downloaded S3 Inventory files in {}", downloadDirectory);
+        }
+    }
+
+    /**
+     * Downloads the data files from S3 to a temporary directory, a few at a time.
+     * @param dataFiles List of the S3 locations of the data files
+     * @return List of the local locations, in the same order
+     * @throws IOException if a data file can't be downloaded
+     */
+    private List<String> download(List<String> dataFiles) throws IOException {
+        downloadDirectory = Files.createTempDirectory("s3-inventory");
+        Semaphore downloads = new Semaphore(MAX_DOWNLOADS);
+        List<CompletableFuture<String>> copies = new ArrayList<>(dataFiles.size());
+        for (int i = 0; i < dataFiles.size(); i++) {
+            String location = dataFiles.get(i);
+            Path copy = downloadDirectory.resolve(i + ".csv.gz");
+            copies.add(Util.supplyAsync(() -> {
+                downloads.acquire();
+                try {
+                    int slash = location.indexOf('/', S3_SCHEME.length());
+                    s3.getObject(GetObjectRequest.builder().bucket(location.substring(S3_SCHEME.length(), slash))
+                            .key(location.substring(slash + 1)).build(), copy);
+                } finally {
+                    downloads.release();
+                }
+                return copy.toString();
+            }));
+        }
+
+        List<String> local = new ArrayList<>(copies.size());
+        try {
+            for (CompletableFuture<String> copy : copies)
+                local.add(copy.join());
+        } catch (CompletionException e) {
+            // let the other downloads end before their directory is deleted
+            CompletableFuture.allOf(copies.toArray(new CompletableFuture<?>[0])).handle((result, thrown) -> null).join();
+            Throwable cause = Util.unwrap(e);
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw e;
+        }
+        logger.info("Downloaded {} S3 Inventory data files", local.size());
+        return local;
+    }
+
+    /**
+     * Reads every data file through once, on the decoder threads, to check its keys are in order.
+     * @param dataFiles List of the local locations of the data files
+     * @param columns Columns of the inventory
+     * @throws UnsortedException if a data file isn't sorted by key
+     * @throws IOException if a data file can't be read
+     */
+    private void checkSorted(List<String> dataFiles, Columns columns) throws IOException {
+        List<CompletableFuture<String>> checks = new ArrayList<>(dataFiles.size());
+        for (String dataFile : dataFiles) {
+            checks.add(CompletableFuture.supplyAsync(() -> {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(open(dataFile)), StandardCharsets.UTF_8))) {
+                    String previous = null;
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isEmpty())
+                            continue;
+                        String key = URLDecoder.decode(parseCsv(line).get(columns.key), StandardCharsets.UTF_8);
+                        if (previous != null && S3Listing.KEY_ORDER.compare(previous, key) > 0)
+                            return "S3 Inventory file " + dataFile + " isn't sorted by key, " + key + " follows " + previous;
+                        previous = key;
+                    }
+                    return null;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to read S3 Inventory file " + dataFile, e);
+                }
+            }, decoders));
+        }
+
+        try {
+            for (CompletableFuture<String> check : checks) {
+                String unsorted = check.join();
+                if (unsorted != null)
+                    throw new UnsortedException(unsorted);
+            }
+        } catch (CompletionException e) {
+            Throwable cause = Util.unwrap(e);
+            if (cause instanceof UncheckedIOException)
+                throw ((UncheckedIOException) cause).getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Finds the manifest.json of the inventory, picking the newest dated folder if the location is above them.
+     * @param location String location given in the settings
+     * @return String location of the manifest
+     * @throws IOException if no manifest is found
+     */
+    private String findManifest(String location) throws IOException {
+        if (location.endsWith(MANIFEST))
+            return location;
+
+        if (location.startsWith(S3_SCHEME)) {
+            String prefix = location.endsWith("/") ? location : location + "/";
+            String bucket = prefix.substring(S3_SCHEME.length(), prefix.indexOf('/', S3_SCHEME.length()));
+            String keyPrefix = prefix.substring(prefix.indexOf('/', S3_SCHEME.length()) + 1);
+            Optional<String> newest = s3.listObjectsV2Paginator(ListObjectsV2Request.builder().bucket(bucket).prefix(keyPrefix).build())
+                    .contents().stream()
+                    .map(S3Object::key)
+                    .filter(key -> key.endsWith("/" + MANIFEST))
+                    .max(Comparator.naturalOrder());
+            if (newest.isEmpty())
+                throw new IOException("No S3 Inventory manifest found under " + location);
+            return S3_SCHEME + bucket + "/" + newest.get();
+        }
+
+        Path dir = Paths.get(location);
+        if (Files.exists(dir.resolve(MANIFEST)))
+            return dir.resolve(MANIFEST).toString();
+        try (Stream<Path> dated = Files.list(dir)) {
+            return dated.filter(sub -> Files.isRegularFile(sub.resolve(MANIFEST)))
+                    .max(Comparator.naturalOrder())
+                    .map(sub -> sub.resolve(MANIFEST).toString())
+                    .orElseThrow(() -> new IOException("No S3 Inventory manifest found in " + location));
+        }
+    }
+
+    /**
+     * Works out where a data file is.  In S3 the manifest gives its key in the destination bucket.  In a local copy
+     * the file is looked for under the same key, then in a data folder beside the manifest, then beside the manifest.
+     */
+    private static String dataFileLocation(String base, String destinationBucket, String key) {
+        if (base.startsWith(S3_SCHEME)) {
+            String bucket = destinationBucket.startsWith("arn:aws:s3:::") ? destinationBucket.substring("arn:aws:s3:::".length()) : destinationBucket;
+            return S3_SCHEME + bucket + "/" + key;
+        }
+        Path dir = Paths.get(base);
+        String fileName = key.substring(key.lastIndexOf('/') + 1);
+        for (Path candidate : List.of(dir.resolve(key), dir.resolve("data").resolve(fileName), dir.resolve(fileName))) {
+            if (Files.exists(candidate))
+                return candidate.toString();
+        }
+        return dir.resolve("data").resolve(fileName).toString();
+    }
+
+    private InputStream open(String location) throws IOException {
+        if (location.startsWith(S3_SCHEME)) {
+            int slash = location.indexOf('/', S3_SCHEME.length());
+            return s3.getObject(GetObjectRequest.builder().bucket(location.substring(S3_SCHEME.length(), slash))
+                    .key(location.substring(slash + 1)).build());
+        }
+        return Files.newInputStream(Paths.get(location));
+    }
+
+    /**
+     * Splits a CSV line, the inventory quotes every value.
+     * @param line String line of the data file
+     * @return List of the values
+     */
+    static List<String> parseCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    /**
+     * Exception used when a data file of the inventory isn't sorted by key, so it can't be merged with the restored
+     * listing.
+     */
+    static class UnsortedException extends IOException {
+
+        UnsortedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Where each needed column is in the inventory's schema.
+     */
+    private static final class Columns {
+        final int key;
+        final int size;
+        final int eTag;
+        final int lastModified;
+        final int isLatest;
+        final int isDeleteMarker;
+
+        Columns(List<String> schema) {
+            key = schema.indexOf("Key");
+            size = schema.indexOf("Size");
+            eTag = schema.indexOf("ETag");
+            lastModified = schema.indexOf("LastModifiedDate");
+            isLatest = schema.indexOf("IsLatest");
+            isDeleteMarker = schema.indexOf("IsDeleteMarker");
+        }
+
+        /**
+         * Turns a row into an object, skipping old versions and delete markers of versioned inventories.
+         * @param values List of the row's values
+         * @return S3Object of the row, null if the row isn't a current object
+         */
+        S3Object toObject(List<String> values) {
+            if (isLatest >= 0 && isLatest < values.size() && values.get(isLatest).equalsIgnoreCase("false"))
+                return null;
+            if (isDeleteMarker >= 0 && isDeleteMarker < values.size() && values.get(isDeleteMarker).equalsIgnoreCase("true"))
+                return null;
+
+            S3Object.Builder object = S3Object.builder().key(URLDecoder.decode(values.get(key), StandardCharsets.UTF_8));
+            if (size >= 0 && size < values.size() && !values.get(size).isEmpty())
+                object.size(Long.parseLong(values.get(size)));
+            if (eTag >= 0 && eTag < values.size() && !values.get(eTag).isEmpty())
+                object.eTag("\"" + values.get(eTag) + "\"");
+            if (lastModified >= 0 && lastModified < values.size() && !values.get(lastModified).isEmpty())
+                object.lastModified(Instant.parse(values.get(lastModified)));
+            return object.build();
+        }
+    }
+
+    /**
+     * A gzip compressed data file, decoded a block ahead of where it is being read.
+     */
+    private final class DataFile {
+        private final String location;
+        private final Columns columns;
+        private final BufferedReader reader;
+        private Iterator<S3Object> block = Collections.emptyIterator();
+        private CompletableFuture<List<S3Object>> nextBlock;
+        private S3Object head;
+
+        DataFile(String location, Columns columns) throws IOException {
+            this.location = location;
+            this.columns = columns;
+            this.reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(open(location)), StandardCharsets.UTF_8));
+            this.nextBlock = decode();
+            advance();
+        }
+
+        private CompletableFuture<List<S3Object>> decode() {
+            return CompletableFuture.supplyAsync(() -> {
+                List<S3Object> objects = new ArrayList<>(BLOCK_SIZE);
+                try {
+                    String line;
+                    while (objects.size() < BLOCK_SIZE && (line = reader.readLine()) != null) {
+                        if (line.isEmpty())
+                            continue;
+                        S3Object object = columns.toObject(parseCsv(line));
+                        if (object != null)
+                            objects.add(object);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to read S3 Inventory file " + location, e);
+                }
+                return objects;
+            }, decoders);
+        }
+
+        private void advance() {
+            while (!block.hasNext() && nextBlock != null) {
+                List<S3Object> objects;
+                try {
+                    objects = nextBlock.join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    throw e;
+                }
+                nextBlock = objects.size() < BLOCK_SIZE ? null : decode();
+                block = objects.iterator();
+            }
+            head = block.hasNext() ? block.next() : null;
+        }
+
+        S3Object peek() {
+            return head;
+        }
+
+        S3Object next() {
+            S3Object current = head;
+            advance();
+            return current;
+        }
+
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close {}", location);
+            }
+        }
+    }
+}
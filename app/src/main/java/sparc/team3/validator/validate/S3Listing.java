@@ -0,0 +1,107 @@
+package sparc.team3.validator.validate;
+
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import sparc.team3.validator.util.Util;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Lists every object in a bucket one page at a time with ListObjectsV2.  Only the current page is held in memory,
+ * and the next page is requested in the background while the current one is used.  Objects come back in the order
+ * S3 lists them, which is {@link #KEY_ORDER}.
+ */
+final class S3Listing implements Iterator<S3Object> {
+    /**
+     * The order S3 lists keys in, the order of their UTF-8 bytes.  This is the same as comparing code points, which
+     * differs from {@link String#compareTo} for keys with characters outside the Basic Multilingual Plane.
+     */
+    static final Comparator<String> KEY_ORDER = (a, b) -> {
+        int i = 0, j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb)
+                return Integer.compare(ca, cb);
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    };
+
+    private final S3Client s3;
+    private final String bucketName;
+    private Iterator<S3Object> page = Collections.emptyIterator();
+    private CompletableFuture<ListObjectsV2Response> nextPage;
+
+    /**
+     * Starts listing the bucket.
+     * @param s3 S3Client to list with
+     * @param bucketName String name of the bucket to list
+     */
+    S3Listing(S3Client s3, String bucketName) {
+        this.s3 = s3;
+        this.bucketName = bucketName;
+        this.nextPage = fetch(null);
+    }
+
+    /**
+     * Lists a bucket, split into partitions listed at once when the concurrency is above 1, see
+     * {@link S3PartitionedListing}.  The listing should be handed to {@link #close(Iterator)} when done with.
+     * @param s3 S3Client to list with
+     * @param bucketName String name of the bucket to list
+     * @param concurrency int number of partitions listed at once
+     * @return Iterator of the objects in {@link #KEY_ORDER}
+     */
+    static Iterator<S3Object> of(S3Client s3, String bucketName, int concurrency) {
+        if (concurrency > 1)
+            return new S3PartitionedListing(s3, bucketName, concurrency);
+        return new S3Listing(s3, bucketName);
+    }
+
+    /**
+     * Stops a listing from {@link #of} that may not have been read to the end.
+     * @param listing Iterator returned by {@link #of}
+     */
+    static void close(Iterator<S3Object> listing) {
+        if (listing instanceof S3PartitionedListing)
+            ((S3PartitionedListing) listing).close();
+    }
+
+    private CompletableFuture<ListObjectsV2Response> fetch(String continuationToken) {
+        ListObjectsV2Request request = ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .continuationToken(continuationToken)
+                .build();
+        return Util.supplyAsync(() -> s3.listObjectsV2(request));
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext() && nextPage != null) {
+            ListObjectsV2Response response;
+            try {
+                response = nextPage.join();
+            } catch (CompletionException e) {
+                Throwable cause = Util.unwrap(e);
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                throw e;
+            }
+            nextPage = Boolean.TRUE.equals(response.isTruncated()) ? fetch(response.nextContinuationToken()) : null;
+            page = response.contents().iterator();
+        }
+        return page.hasNext();
+    }
+
+    @Override
+    public S3Object next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return page.next();
+    }
+}
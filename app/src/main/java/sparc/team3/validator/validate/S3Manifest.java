@@ -0,0 +1,590 @@
+package sparc.team3.validator.validate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import sparc.team3.validator.util.Util;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A cache of the SHA-256 of every object in the production bucket, kept between runs and keyed on each object's
+ * ETag, size and last modified time.  Each run merges the production listing into the manifest, so objects whose
+ * ETag, size and last modified time haven't changed keep the SHA-256 found on an earlier run and don't need to be
+ * checksummed or downloaded again.  The work done on the production bucket each day is then close to the size of
+ * the day's changes.  The restored bucket is new on every run, so each of its objects is still listed and compared.
+ * <p>
+ * SHA-256s found after the listing, for objects checked as part of a sample, are handed to {@link #learned} and
+ * written into the manifest when it is finished.
+ * <p>
+ * The manifest is streamed, the old manifest is read and the new one written one entry at a time in key order, so
+ * memory doesn't grow with the bucket.  The file is compact so it stays cheap at hundreds of millions of objects.
+ * Each key only stores what differs from the key before it, MD5 ETags and SHA-256 checksums are stored as raw bytes
+ * and numbers as varints, which comes to a few dozen bytes an object for typical keys.  The old manifest is read
+ * through memory mapped windows, so it lives in the page cache rather than on the heap.
+ */
+final class S3Manifest {
+    /**
+     * How many entries can wait for their SHA-256 before {@link #record} blocks.
+     */
+    private static final int PENDING_LIMIT = 10000;
+    /**
+     * Marks the start of a manifest file, followed by the format version.
+     */
+    private static final int MAGIC = 0x53334d46;
+    private static final int VERSION = 1;
+
+    /**
+     * Seconds between checks that the writer is still running while {@link #record} waits for room.
+     */
+    private static final long WRITER_CHECK_SECONDS = 1;
+
+    private final Path manifestFile;
+    private final String bucketName;
+    private final Logger logger;
+    private final BlockingQueue<Pending> pending = new ArrayBlockingQueue<>(PENDING_LIMIT);
+    private final Map<String, String> learned = new ConcurrentHashMap<>();
+    private Path tempFile;
+    private CompletableFuture<Written> written;
+
+    /**
+     * Sets up the manifest of a bucket.
+     *
+     * @param directory  Path of the directory the manifest is kept in
+     * @param bucketName String name of the bucket
+     */
+    S3Manifest(Path directory, String bucketName) {
+        this.manifestFile = directory.resolve("s3-manifest-" + bucketName + ".bin");
+        this.bucketName = bucketName;
+        this.logger = LoggerFactory.getLogger(this.getClass().getName());
+    }
+
+    /**
+     * Merges the current listing of the bucket with the manifest from the last run.  Every entry returned has to be
+     * handed back to {@link #record} in the same order, which writes the new manifest, and then {@link #finish} called.
+     *
+     * @param listing Iterator of the objects listed in the bucket, in {@link S3Listing#KEY_ORDER}
+     * @return Iterator of the entries in the bucket, with the SHA-256 from the last run for unchanged objects
+     * @throws IOException if the new manifest can't be created
+     */
+    Iterator<Entry> refresh(Iterator<S3Object> listing) throws IOException {
+        Files.createDirectories(manifestFile.getParent());
+        tempFile = manifestFile.resolveSibling(manifestFile.getFileName() + ".tmp");
+        EntryWriter writer = new EntryWriter(tempFile);
+        pending.clear();
+        learned.clear();
+        written = Util.supplyAsync(() -> write(writer));
+
+        PreviousEntries previous = new PreviousEntries(manifestFile, logger);
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                boolean hasNext = listing.hasNext();
+                if (!hasNext)
+                    previous.close();
+                return hasNext;
+            }
+
+            @Override
+            public Entry next() {
+                S3Object object = listing.next();
+                Entry old = previous.find(object.key());
+                if (old != null && old.sameVersion(object))
+                    return new Entry(object, old.sha256, false);
+                return new Entry(object, null, true);
+            }
+        };
+    }
+
+    /**
+     * Adds an entry to the new manifest.  Entries are written in the order they are recorded, once their SHA-256
+     * future completes, so this blocks while too many entries are still waiting.
+     *
+     * @param entry  Entry returned by {@link #refresh}
+     * @param sha256 CompletableFuture of the SHA-256 of the object, completing with null if it isn't known
+     * @throws IOException if the manifest stopped being written
+     * @throws InterruptedException if interrupted while waiting to record
+     */
+    void record(Entry entry, CompletableFuture<String> sha256) throws IOException, InterruptedException {
+        enqueue(new Pending(entry, sha256));
+    }
+
+    /**
+     * Keeps the SHA-256 of an object found after its entry was recorded, to be written when the manifest is finished.
+     *
+     * @param key    String key of the object
+     * @param sha256 String SHA-256 of the object
+     */
+    void learned(String key, String sha256) {
+        learned.put(key, sha256);
+    }
+
+    /**
+     * Queues an entry for the writer, failing with the writer's error if it stops rather than waiting for room
+     * forever.
+     */
+    private void enqueue(Pending next) throws IOException, InterruptedException {
+        while (!pending.offer(next, WRITER_CHECK_SECONDS, TimeUnit.SECONDS)) {
+            if (written.isDone()) {
+                awaitWritten();
+                throw new IOException("Manifest of " + bucketName + " stopped being written");
+            }
+        }
+    }
+
+    private Written awaitWritten() throws IOException, InterruptedException {
+        try {
+            return written.get();
+        } catch (ExecutionException e) {
+            Throwable cause = Util.unwrap(e);
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("Unable to write manifest of " + bucketName, cause);
+        }
+    }
+
+    /**
+     * Waits for the new manifest to be written, adds the SHA-256s learned since their entries were recorded, and
+     * replaces the old manifest with it.
+     * @throws IOException if the manifest can't be written
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void finish() throws IOException, InterruptedException {
+        enqueue(new Pending(null, null));
+        Written counts = awaitWritten();
+        if (!learned.isEmpty())
+            counts = addLearned(counts);
+
+        Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Manifest of S3 bucket {} updated, {} objects, {} new or changed since the last run, {} with a known SHA-256",
+                bucketName, counts.entries, counts.changed, counts.hashed);
+    }
+
+    /**
+     * Rewrites the new manifest with the SHA-256s learned after their entries were written.
+     * @param counts Written counts of the manifest as first written
+     * @return Written counts of the rewritten manifest
+     */
+    private Written addLearned(Written counts) throws IOException {
+        Path rewritten = manifestFile.resolveSibling(manifestFile.getFileName() + ".learned.tmp");
+        Written recounted = new Written();
+        PreviousEntries entries = new PreviousEntries(tempFile, logger);
+        try (EntryWriter writer = new EntryWriter(rewritten)) {
+            for (Entry entry = entries.next(); entry != null; entry = entries.next()) {
+                String sha256 = learned.getOrDefault(entry.getKey(), entry.sha256);
+                recounted.entries++;
+                if (sha256 != null)
+                    recounted.hashed++;
+                writer.write(entry, sha256);
+            }
+        } finally {
+            entries.close();
+        }
+
+        // the reader stops quietly at anything it can't read, so only a copy of every entry replaces the original
+        if (recounted.entries != counts.entries) {
+            Files.deleteIfExists(rewritten);
+            logger.warn("Unable to add {} learned SHA-256s to the manifest of {}, they will be found again", learned.size(), bucketName);
+            return counts;
+        }
+        Files.move(rewritten, tempFile, StandardCopyOption.REPLACE_EXISTING);
+        recounted.changed = counts.changed;
+        return recounted;
+    }
+
+    /**
+     * Stops writing the new manifest and keeps the old one.
+     */
+    void abandon() {
+        pending.clear();
+        pending.offer(new Pending(null, null));
+        if (written != null)
+            written.whenComplete((index, e) -> {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ioException) {
+                    logger.warn("Unable to delete {}", tempFile);
+                }
+            });
+    }
+
+    /**
+     * Writes recorded entries in order as their SHA-256 becomes known.
+     * @param writer EntryWriter of the new manifest
+     * @return Written counts of the entries
+     */
+    private Written write(EntryWriter writer) throws IOException, InterruptedException {
+        Written counts = new Written();
+        try (writer) {
+            while (true) {
+                Pending next = pending.take();
+                if (next.entry == null)
+                    break;
+
+                Entry entry = next.entry;
+                String sha256 = entry.sha256;
+                try {
+                    String learned = next.sha256.get();
+                    if (learned != null)
+                        sha256 = learned;
+                } catch (ExecutionException e) {
+                    // keep what was known before
+                }
+
+                counts.entries++;
+                if (entry.isChanged())
+                    counts.changed++;
+                if (sha256 != null)
+                    counts.hashed++;
+                writer.write(entry, sha256);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * An object in the manifest.
+     */
+    static final class Entry {
+        private final String key;
+        private final long size;
+        private final String eTag;
+        private final long lastModified;
+        private final String sha256;
+        private final boolean changed;
+        private final S3Object object;
+
+        private Entry(String key, long size, String eTag, long lastModified, String sha256) {
+            this.key = key;
+            this.size = size;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.sha256 = sha256;
+            this.changed = false;
+            this.object = null;
+        }
+
+        Entry(S3Object object, String sha256, boolean changed) {
+            this.key = object.key();
+            this.size = object.size() == null ? -1 : object.size();
+            this.eTag = object.eTag() == null ? "" : object.eTag().replace("\"", "");
+            this.lastModified = object.lastModified() == null ? 0 : object.lastModified().toEpochMilli();
+            this.sha256 = sha256;
+            this.changed = changed;
+            this.object = object;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        String getETag() {
+            return eTag;
+        }
+
+        /**
+         * @return String SHA-256 of the object found on an earlier run, null if not known or the object changed
+         */
+        String getSha256() {
+            return sha256;
+        }
+
+        /**
+         * @return boolean if the object is new or changed since the last run
+         */
+        boolean isChanged() {
+            return changed;
+        }
+
+        /**
+         * @return S3Object as listed
+         */
+        S3Object getObject() {
+            return object;
+        }
+
+        boolean sameVersion(S3Object listed) {
+            Entry current = new Entry(listed, null, false);
+            return size == current.size && eTag.equals(current.eTag) && lastModified == current.lastModified;
+        }
+    }
+
+    /*
+     * Each entry is written as:
+     *   flags            byte, HAS_SHA256 | MD5_ETAG | PARTS_ETAG
+     *   shared           varint, bytes of the key the same as the key before
+     *   suffix           varint length then the UTF-8 bytes of the rest of the key
+     *   size + 1         varint, so an unknown size of -1 is 0
+     *   lastModified     varint epoch millis
+     *   eTag             16 raw bytes, followed by a varint part count for PARTS_ETAG, or a varint length and UTF-8
+     *                    bytes for any other ETag
+     *   sha256           32 raw bytes if HAS_SHA256
+     */
+    private static final int HAS_SHA256 = 1;
+    private static final int MD5_ETAG = 2;
+    private static final int PARTS_ETAG = 4;
+    /**
+     * More than the longest entry can take, a 1024 byte key plus the fixed fields.
+     */
+    private static final int MAX_ENTRY_BYTES = 4096;
+
+    /**
+     * Writes entries to a new manifest file.
+     */
+    private static final class EntryWriter implements Closeable {
+        private final DataOutputStream out;
+        private byte[] previousKey = new byte[0];
+
+        EntryWriter(Path file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+        }
+
+        void write(Entry entry, String sha256) throws IOException {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] digest = sha256 == null ? null : decodeSha256(sha256);
+            String eTag = entry.getETag();
+            int dash = eTag.indexOf('-');
+            String md5 = dash < 0 ? eTag : eTag.substring(0, dash);
+            boolean md5ETag = isMd5(md5) && (dash < 0 || isNumber(eTag.substring(dash + 1)));
+
+            int flags = (digest != null ? HAS_SHA256 : 0) | (md5ETag ? MD5_ETAG : 0) | (md5ETag && dash >= 0 ? PARTS_ETAG : 0);
+            out.writeByte(flags);
+
+            int shared = 0;
+            while (shared < key.length && shared < previousKey.length && key[shared] == previousKey[shared])
+                shared++;
+            writeVarint(shared);
+            writeVarint(key.length - shared);
+            out.write(key, shared, key.length - shared);
+            previousKey = key;
+
+            writeVarint(entry.getSize() + 1);
+            writeVarint(entry.lastModified);
+            if (md5ETag) {
+                for (int i = 0; i < 32; i += 2)
+                    out.writeByte(Integer.parseInt(md5.substring(i, i + 2), 16));
+                if (dash >= 0)
+                    writeVarint(Long.parseLong(eTag.substring(dash + 1)));
+            } else {
+                byte[] raw = eTag.getBytes(StandardCharsets.UTF_8);
+                writeVarint(raw.length);
+                out.write(raw);
+            }
+            if (digest != null)
+                out.write(digest);
+        }
+
+        private void writeVarint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        private static byte[] decodeSha256(String sha256) {
+            try {
+                byte[] digest = Base64.getDecoder().decode(sha256);
+                return digest.length == 32 ? digest : null;
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        private static boolean isMd5(String hex) {
+            if (hex.length() != 32)
+                return false;
+            for (int i = 0; i < hex.length(); i++) {
+                if (Character.digit(hex.charAt(i), 16) < 0 || Character.isUpperCase(hex.charAt(i)))
+                    return false;
+            }
+            return true;
+        }
+
+        private static boolean isNumber(String digits) {
+            return !digits.isEmpty() && digits.length() < 10 && digits.chars().allMatch(Character::isDigit);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the manifest from the last run in step with the listing, through a memory mapped window of the file
+     * that is moved along as it is read.
+     */
+    private static final class PreviousEntries {
+        /**
+         * Bytes of the file mapped at once.
+         */
+        private static final long WINDOW = 256L * 1024 * 1024;
+
+        private final Logger logger;
+        private FileChannel channel;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private byte[] key = new byte[1024];
+        private Entry current;
+
+        PreviousEntries(Path manifestFile, Logger logger) {
+            this.logger = logger;
+            if (!Files.exists(manifestFile))
+                return;
+            try {
+                channel = FileChannel.open(manifestFile, StandardOpenOption.READ);
+                map(0);
+                if (channel.size() < 5 || window.getInt() != MAGIC || window.get() != VERSION)
+                    throw new IOException("not a version " + VERSION + " manifest");
+                advance();
+            } catch (IOException e) {
+                logger.warn("Unable to read manifest {}, all objects will be treated as changed: {}", manifestFile, e.getMessage());
+                close();
+            }
+        }
+
+        private void map(long position) throws IOException {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, channel.size() - position));
+        }
+
+        /**
+         * Returns the entry at the read position and moves past it.
+         * @return Entry read, null at the end of the file
+         */
+        Entry next() {
+            Entry entry = current;
+            if (entry != null)
+                advance();
+            return entry;
+        }
+
+        /**
+         * Skips past entries before the key and returns the entry for the key.
+         * @param key String key of the listed object
+         * @return Entry of the key, null if it wasn't in the last manifest
+         */
+        Entry find(String key) {
+            while (current != null && S3Listing.KEY_ORDER.compare(current.getKey(), key) < 0)
+                advance();
+            return current != null && current.getKey().equals(key) ? current : null;
+        }
+
+        private void advance() {
+            if (channel == null) {
+                current = null;
+                return;
+            }
+            try {
+                long position = windowStart + window.position();
+                if (position >= channel.size()) {
+                    close();
+                    return;
+                }
+                if (window.remaining() < MAX_ENTRY_BYTES && windowStart + window.limit() < channel.size())
+                    map(position);
+                current = read();
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Unable to read the rest of the last manifest: {}", e.getMessage());
+                close();
+            }
+        }
+
+        private Entry read() {
+            int flags = window.get();
+            int shared = (int) readVarint();
+            int suffix = (int) readVarint();
+            if (shared + suffix > key.length)
+                key = Arrays.copyOf(key, shared + suffix);
+            window.get(key, shared, suffix);
+            String name = new String(key, 0, shared + suffix, StandardCharsets.UTF_8);
+
+            long size = readVarint() - 1;
+            long lastModified = readVarint();
+            String eTag;
+            if ((flags & MD5_ETAG) != 0) {
+                StringBuilder md5 = new StringBuilder(40);
+                for (int i = 0; i < 16; i++) {
+                    int b = window.get() & 0xFF;
+                    md5.append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xF, 16));
+                }
+                if ((flags & PARTS_ETAG) != 0)
+                    md5.append('-').append(readVarint());
+                eTag = md5.toString();
+            } else {
+                byte[] raw = new byte[(int) readVarint()];
+                window.get(raw);
+                eTag = new String(raw, StandardCharsets.UTF_8);
+            }
+            String sha256 = null;
+            if ((flags & HAS_SHA256) != 0) {
+                byte[] digest = new byte[32];
+                window.get(digest);
+                sha256 = Base64.getEncoder().encodeToString(digest);
+            }
+            return new Entry(name, size, eTag, lastModified, sha256);
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = window.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IllegalStateException("Malformed varint in manifest");
+        }
+
+        void close() {
+            current = null;
+            window = null;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // nothing left to read
+                }
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * An entry waiting for its SHA-256 before being written.
+     */
+    private static final class Pending {
+        final Entry entry;
+        final CompletableFuture<String> sha256;
+
+        Pending(Entry entry, CompletableFuture<String> sha256) {
+            this.entry = entry;
+            this.sha256 = sha256;
+        }
+    }
+
+    /**
+     * How many entries the new manifest holds.
+     */
+    private static final class Written {
+        long entries = 0;
+        long changed = 0;
+        long hashed = 0;
+    }
+}
@@ -0,0 +1,115 @@
+package sparc.team3.validator.validate;
+
+import software.amazon.awssdk.services.s3.model.Checksum;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Decides whether two objects hold the same data from the checksums, sizes and ETags S3 already has for them, without
+ * reading either object.  Objects that can't be decided this way are left for the caller to hash.
+ */
+final class S3ObjectComparator {
+    /**
+     * The outcome of a comparison.
+     */
+    enum Result {
+        /**
+         * The objects hold the same data.
+         */
+        MATCH,
+        /**
+         * The objects hold different data.
+         */
+        MISMATCH,
+        /**
+         * The attributes S3 has aren't enough to tell, the objects need to be read and hashed.
+         */
+        UNKNOWN
+    }
+
+    /**
+     * The checksum algorithms in the order they are tried, strongest first.
+     */
+    private static final List<Function<Checksum, String>> CHECKSUMS = List.of(
+            Checksum::checksumSHA256, Checksum::checksumSHA1, Checksum::checksumCRC32C, Checksum::checksumCRC32);
+
+    private S3ObjectComparator() {
+    }
+
+    /**
+     * Compares two objects from what the listing returns for them, which is enough for most objects.
+     * <ol>
+     *     <li>Different sizes are a mismatch.</li>
+     *     <li>Two empty objects are a match.</li>
+     *     <li>Equal ETags are a match, see {@link #compare(S3ChecksumCollector.ObjectChecksum, S3ChecksumCollector.ObjectChecksum)}.
+     *     The ETag of a multipart upload, with a "-" and the part count at the end, is never treated as an MD5 of the
+     *     data, so a restore uploaded in different parts than the original is left undecided rather than flagged.</li>
+     * </ol>
+     * The last modified time can't clear anything, restoring gives every object a new one.
+     *
+     * @param original S3Object listed in the production bucket
+     * @param restored S3Object listed in the restored bucket
+     * @return Result of the comparison
+     */
+    static Result compare(S3Object original, S3Object restored) {
+        if (original.size() != null && restored.size() != null) {
+            if (!original.size().equals(restored.size()))
+                return Result.MISMATCH;
+            if (original.size() == 0)
+                return Result.MATCH;
+        }
+
+        String originalETag = stripQuotes(original.eTag());
+        if (originalETag != null && originalETag.equals(stripQuotes(restored.eTag())))
+            return Result.MATCH;
+
+        return Result.UNKNOWN;
+    }
+
+    private static String stripQuotes(String eTag) {
+        return eTag == null ? null : eTag.replace("\"", "");
+    }
+
+    /**
+     * Compares two objects from their attributes.
+     * <ol>
+     *     <li>Different sizes are a mismatch.</li>
+     *     <li>A checksum of the same algorithm on both objects decides it.  A checksum of a multipart upload is built
+     *     from the part checksums, so it is only used when both were uploaded in the same number of parts, and a
+     *     difference only counts as a mismatch for whole object checksums.</li>
+     *     <li>Equal ETags are a match.  The ETag of a single part upload is the MD5 of the data and that of a multipart
+     *     upload is built from the MD5s of the parts, so equal ETags only happen for equal data.  Different ETags
+     *     prove nothing, encryption with KMS or a different part size both change the ETag of the same data.</li>
+     * </ol>
+     *
+     * @param original ObjectChecksum of the object in the production bucket
+     * @param restored ObjectChecksum of the object in the restored bucket
+     * @return Result of the comparison
+     */
+    static Result compare(S3ChecksumCollector.ObjectChecksum original, S3ChecksumCollector.ObjectChecksum restored) {
+        if (original.getSize() != null && restored.getSize() != null && !original.getSize().equals(restored.getSize()))
+            return Result.MISMATCH;
+
+        if (original.getChecksums() != null && restored.getChecksums() != null
+                && Objects.equals(original.getPartsCount(), restored.getPartsCount())) {
+            boolean composite = original.getPartsCount() != null && original.getPartsCount() > 1;
+            for (Function<Checksum, String> checksum : CHECKSUMS) {
+                String originalChecksum = checksum.apply(original.getChecksums());
+                String restoredChecksum = checksum.apply(restored.getChecksums());
+                if (originalChecksum == null || restoredChecksum == null)
+                    continue;
+                if (originalChecksum.equals(restoredChecksum))
+                    return Result.MATCH;
+                return composite ? Result.UNKNOWN : Result.MISMATCH;
+            }
+        }
+
+        if (original.getETag() != null && original.getETag().equals(restored.getETag()))
+            return Result.MATCH;
+
+        return Result.UNKNOWN;
+    }
+}
@@ -0,0 +1,429 @@
+package sparc.team3.validator.validate;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ChecksumAlgorithm;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import sparc.team3.validator.config.settings.ValidationSettings.S3HashAlgorithm;
+import sparc.team3.validator.util.Util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Downloads objects and hashes them on the client, for objects S3 has no comparable checksum for.
+ * <p>
+ * Bodies are streamed through direct buffers taken from a pool, so nothing is copied into byte arrays the size of
+ * the object.  Objects bigger than two parts are downloaded as ranged GETs of {@link #PART_SIZE}, with up to
+ * {@link #PARTS_AHEAD} parts of each object downloading at once.  A CRC32C is worked out for each part as it arrives
+ * and the part CRCs are combined into the CRC32C of the whole object.  A SHA-256 can't be combined from parts, so
+ * parts are buffered and fed to the digest in order instead.  Either way the result is the hash of the whole object,
+ * base64 encoded the same way S3 encodes its checksums, and memory for each object being hashed stays constant.
+ * <p>
+ * Each object reserves the most buffers it can hold at once before it takes any, so an object waiting on the pool
+ * holds none and objects already hashing always get the buffers they need.
+ */
+final class S3ObjectHasher {
+    /**
+     * Size of the ranges large objects are downloaded in.
+     */
+    static final long PART_SIZE = 8L * 1024 * 1024;
+    /**
+     * Size of each pooled buffer.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    /**
+     * How many pooled buffers one part fills.
+     */
+    private static final int BUFFERS_PER_PART = (int) (PART_SIZE / BUFFER_SIZE);
+    /**
+     * How many parts of one object are downloaded at once.
+     */
+    static final int PARTS_AHEAD = 4;
+    /**
+     * CRC32C polynomial, reversed.
+     */
+    private static final long CRC32C_POLY = 0x82F63B78L;
+
+    private final S3Client s3;
+    private final ChecksumAlgorithm algorithm;
+    private final BufferPool buffers;
+
+    /**
+     * Sets up the hasher.
+     *
+     * @param s3           S3Client to download with
+     * @param algorithm    S3HashAlgorithm to hash with
+     * @param maxDownloads int number of objects hashed at once, counting each object of a pair, used to size the
+     *                     buffer pool
+     */
+    S3ObjectHasher(S3Client s3, S3HashAlgorithm algorithm, int maxDownloads) {
+        this.s3 = s3;
+        this.algorithm = algorithm == S3HashAlgorithm.CRC32C ? ChecksumAlgorithm.CRC32_C : ChecksumAlgorithm.SHA256;
+        this.buffers = new BufferPool(maxDownloads * PARTS_AHEAD * BUFFERS_PER_PART);
+    }
+
+    /**
+     * Whether hashes are SHA-256, which can be compared with the SHA-256 checksums S3 and the manifest keep.
+     * @return boolean if the algorithm is SHA-256
+     */
+    boolean isSha256() {
+        return algorithm == ChecksumAlgorithm.SHA256;
+    }
+
+    /**
+     * Downloads an object and hashes it.
+     *
+     * @param bucketName String name of the bucket holding the object
+     * @param key        String key of the object
+     * @param size       long size of the object, or -1 if not known, in which case it is downloaded in one go
+     * @return String of the base64 encoded hash
+     * @throws UncheckedIOException if the download fails part way through
+     */
+    String hash(String bucketName, String key, long size) {
+        int quota = size <= 2 * PART_SIZE ? 1 : algorithm == ChecksumAlgorithm.CRC32_C ? PARTS_AHEAD : PARTS_AHEAD * BUFFERS_PER_PART;
+        buffers.reserve(quota);
+        try {
+            if (size <= 2 * PART_SIZE)
+                return whole(bucketName, key);
+            if (algorithm == ChecksumAlgorithm.CRC32_C)
+                return crc32cParts(bucketName, key, size);
+            return sha256Parts(bucketName, key, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to download " + key + " from " + bucketName, e);
+        } finally {
+            buffers.release(quota);
+        }
+    }
+
+    /**
+     * Downloads a range of an object and hashes it the way S3 checksums a part, for comparing with part checksums.
+     *
+     * @param bucketName String name of the bucket holding the object
+     * @param key        String key of the object
+     * @param start      long offset of the first byte
+     * @param end        long offset of the last byte
+     * @param algorithm  ChecksumAlgorithm to hash with
+     * @return String of the base64 encoded hash
+     * @throws UncheckedIOException if the download fails part way through
+     */
+    String hashRange(String bucketName, String key, long start, long end, ChecksumAlgorithm algorithm) {
+        buffers.reserve(1);
+        try {
+            return stream(range(bucketName, key, start, end), newHash(algorithm));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to download " + key + " from " + bucketName, e);
+        } finally {
+            buffers.release(1);
+        }
+    }
+
+    private String whole(String bucketName, String key) throws IOException {
+        return stream(s3.getObject(GetObjectRequest.builder().bucket(bucketName).key(key).build()), newHash(algorithm));
+    }
+
+    private String stream(ResponseInputStream<GetObjectResponse> in, Hash hash) throws IOException {
+        ByteBuffer buffer = buffers.take();
+        try (ReadableByteChannel channel = Channels.newChannel(in)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                hash.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            buffers.give(buffer);
+        }
+        return hash.finish();
+    }
+
+    /**
+     * Downloads the parts a few at a time, each worked out into its own CRC32C, and combines them in order.
+     */
+    private String crc32cParts(String bucketName, String key, long size) {
+        long crc = 0;
+        Deque<CompletableFuture<Long>> window = new ArrayDeque<>();
+        long parts = (size + PART_SIZE - 1) / PART_SIZE;
+        try {
+            for (long part = 0; part < parts || !window.isEmpty(); ) {
+                if (part < parts && window.size() < PARTS_AHEAD) {
+                    long start = part * PART_SIZE;
+                    long end = Math.min(size, start + PART_SIZE) - 1;
+                    window.add(Util.supplyAsync(() -> {
+                        CRC32C partCrc = new CRC32C();
+                        ByteBuffer buffer = buffers.take();
+                        try (ReadableByteChannel channel = Channels.newChannel(range(bucketName, key, start, end))) {
+                            while (channel.read(buffer) != -1) {
+                                buffer.flip();
+                                partCrc.update(buffer);
+                                buffer.clear();
+                            }
+                        } finally {
+                            buffers.give(buffer);
+                        }
+                        return partCrc.getValue();
+                    }));
+                    part++;
+                    continue;
+                }
+                long length = Math.min(PART_SIZE, size - (part - window.size()) * PART_SIZE);
+                crc = crc32cCombine(crc, join(window.poll()), length);
+            }
+        } finally {
+            // parts left behind by a failure still hold a buffer each until they end
+            for (CompletableFuture<Long> left : window)
+                left.handle((partCrc, e) -> null).join();
+        }
+        return encodeCrc32c(crc);
+    }
+
+    /**
+     * Downloads the parts a few at a time into pooled buffers and feeds them to the digest in order.
+     */
+    private String sha256Parts(String bucketName, String key, long size) {
+        Hash hash = newHash(algorithm);
+        Deque<CompletableFuture<List<ByteBuffer>>> window = new ArrayDeque<>();
+        long parts = (size + PART_SIZE - 1) / PART_SIZE;
+        try {
+            for (long part = 0; part < parts || !window.isEmpty(); ) {
+                if (part < parts && window.size() < PARTS_AHEAD) {
+                    long start = part * PART_SIZE;
+                    long end = Math.min(size, start + PART_SIZE) - 1;
+                    window.add(Util.supplyAsync(() -> download(bucketName, key, start, end)));
+                    part++;
+                    continue;
+                }
+                List<ByteBuffer> filled = join(window.poll());
+                for (ByteBuffer buffer : filled) {
+                    hash.update(buffer);
+                    buffers.give(buffer);
+                }
+            }
+        } finally {
+            // give back the buffers of parts left behind by a failure before the object's quota is
+            // released
+            for (CompletableFuture<List<ByteBuffer>> left : window)
+                left.handle((filled, e) -> filled).thenAccept(filled -> {
+                    if (filled != null)
+                        filled.forEach(buffers::give);
+                }).join();
+        }
+        return hash.finish();
+    }
+
+    /**
+     * Downloads a range into as many buffers as its length needs, taking no more than that.
+     */
+    private List<ByteBuffer> download(String bucketName, String key, long start, long end) throws IOException {
+        List<ByteBuffer> filled = new ArrayList<>();
+        try (ReadableByteChannel channel = Channels.newChannel(range(bucketName, key, start, end))) {
+            for (long remaining = end - start + 1; remaining > 0; remaining -= BUFFER_SIZE) {
+                ByteBuffer buffer = buffers.take();
+                filled.add(buffer);
+                buffer.limit((int) Math.min(BUFFER_SIZE, remaining));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) == -1)
+                        throw new EOFException("Range " + start + "-" + end + " of " + key + " ended early");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            filled.forEach(buffers::give);
+            throw e;
+        }
+        filled.forEach(ByteBuffer::flip);
+        return filled;
+    }
+
+    private ResponseInputStream<GetObjectResponse> range(String bucketName, String key, long start, long end) {
+        return s3.getObject(GetObjectRequest.builder().bucket(bucketName).key(key)
+                .range("bytes=" + start + "-" + end).build());
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = Util.unwrap(e);
+            if (cause instanceof IOException)
+                throw new UncheckedIOException((IOException) cause);
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw e;
+        }
+    }
+
+    private static Hash newHash(ChecksumAlgorithm algorithm) {
+        if (algorithm == ChecksumAlgorithm.CRC32_C || algorithm == ChecksumAlgorithm.CRC32) {
+            Checksum crc = algorithm == ChecksumAlgorithm.CRC32_C ? new CRC32C() : new CRC32();
+            return new Hash() {
+                @Override
+                public void update(ByteBuffer buffer) {
+                    crc.update(buffer);
+                }
+
+                @Override
+                public String finish() {
+                    return encodeCrc32c(crc.getValue());
+                }
+            };
+        }
+
+        String name = algorithm == ChecksumAlgorithm.SHA1 ? "SHA-1" : "SHA-256";
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(name);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(name + " is not available", e);
+        }
+        return new Hash() {
+            @Override
+            public void update(ByteBuffer buffer) {
+                digest.update(buffer);
+            }
+
+            @Override
+            public String finish() {
+                return Base64.getEncoder().encodeToString(digest.digest());
+            }
+        };
+    }
+
+    /**
+     * Encodes a CRC32C or CRC32 the way S3 does, the four bytes big endian and base64 encoded.
+     */
+    private static String encodeCrc32c(long crc) {
+        return Base64.getEncoder().encodeToString(ByteBuffer.allocate(4).putInt((int) crc).array());
+    }
+
+    /**
+     * The CRC32C of two pieces of data one after the other, from the CRC32C of each and the length of the second,
+     * the same way zlib combines CRC32s.
+     *
+     * @param crc1    long CRC32C of the first piece
+     * @param crc2    long CRC32C of the second piece
+     * @param length2 long length of the second piece
+     * @return long CRC32C of both pieces
+     */
+    static long crc32cCombine(long crc1, long crc2, long length2) {
+        if (length2 <= 0)
+            return crc1;
+
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        odd[0] = CRC32C_POLY;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        square(even, odd);
+        square(odd, even);
+
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0)
+                crc1 = times(even, crc1);
+            length2 >>>= 1;
+            if (length2 == 0)
+                break;
+            square(odd, even);
+            if ((length2 & 1) != 0)
+                crc1 = times(odd, crc1);
+            length2 >>>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0)
+                sum ^= matrix[i];
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++)
+            square[n] = times(matrix, matrix[n]);
+    }
+
+    /**
+     * A hash being worked out.
+     */
+    private interface Hash {
+        void update(ByteBuffer buffer);
+
+        String finish();
+    }
+
+    /**
+     * Direct buffers shared by every download.  Buffers are made as they are first needed, up to the limit, and
+     * reused after that.  An object reserves its quota of buffers before taking any and takes no more than that, so
+     * the buffers out never pass the limit and taking one never waits for long.  Waiting for a reservation is where
+     * objects queue up, while holding no buffers.
+     */
+    private static final class BufferPool {
+        private final BlockingQueue<ByteBuffer> free = new LinkedBlockingQueue<>();
+        private final AtomicInteger made = new AtomicInteger();
+        private final int limit;
+        private final Semaphore reserved;
+
+        BufferPool(int limit) {
+            this.limit = Math.max(1, limit);
+            this.reserved = new Semaphore(this.limit);
+        }
+
+        void reserve(int quota) {
+            try {
+                reserved.acquire(Math.min(quota, limit));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for download buffers", e);
+            }
+        }
+
+        void release(int quota) {
+            reserved.release(Math.min(quota, limit));
+        }
+
+        ByteBuffer take() {
+            ByteBuffer buffer = free.poll();
+            if (buffer != null)
+                return buffer;
+            if (made.getAndUpdate(n -> n < limit ? n + 1 : n) < limit)
+                return ByteBuffer.allocateDirect(BUFFER_SIZE);
+            try {
+                return free.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for a download buffer", e);
+            }
+        }
+
+        void give(ByteBuffer buffer) {
+            buffer.clear();
+            free.add(buffer);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package sparc.team3.validator.validate;
+
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Compares two objects part by part from the part checksums of their multipart uploads, for objects whose whole
+ * object checksums can't be compared because they were uploaded in different parts, or are composite checksums that
+ * don't match.
+ * <ul>
+ *     <li>If both objects have the same part sizes, each pair of parts is compared by a checksum they both have.
+ *     Parts with no checksum in common are downloaded as ranges from both objects and hashed.</li>
+ *     <li>If the part sizes differ, the object whose parts all have checksums is the reference.  The other object is
+ *     downloaded a range at a time along the reference's parts, each range hashed the way the reference part was
+ *     and compared, stopping at the first difference.  Only one of the objects is downloaded.</li>
+ * </ul>
+ * An object uploaded in one part counts as a single part holding its whole object checksum.  Two objects both
+ * uploaded in one part are left to the caller.
+ */
+final class S3PartCheck {
+    /**
+     * The checksum algorithms of a part in the order they are tried, strongest first.
+     */
+    private static final ChecksumAlgorithm[] ALGORITHMS = {
+            ChecksumAlgorithm.SHA256, ChecksumAlgorithm.SHA1, ChecksumAlgorithm.CRC32_C, ChecksumAlgorithm.CRC32};
+
+    private final S3Client s3;
+    private final S3ObjectHasher hasher;
+
+    /**
+     * Sets up the check.
+     *
+     * @param s3     S3Client used to page through long part lists
+     * @param hasher S3ObjectHasher used to hash ranges
+     */
+    S3PartCheck(S3Client s3, S3ObjectHasher hasher) {
+        this.s3 = s3;
+        this.hasher = hasher;
+    }
+
+    /**
+     * Compares two objects by their parts.  Blocks while parts are listed and ranges downloaded.
+     *
+     * @param productionBucket String name of the production bucket
+     * @param restoredBucket   String name of the restored bucket
+     * @param key              String key of the objects
+     * @param production       GetObjectAttributesResponse of the production object
+     * @param restored         GetObjectAttributesResponse of the restored object
+     * @return Result of the comparison, UNKNOWN if neither object has checksums for all its parts
+     */
+    S3ObjectComparator.Result compare(String productionBucket, String restoredBucket, String key,
+                                      GetObjectAttributesResponse production, GetObjectAttributesResponse restored) {
+        List<Part> productionParts = parts(productionBucket, key, production);
+        List<Part> restoredParts = parts(restoredBucket, key, restored);
+        // two single part uploads were already compared by their whole object checksums
+        if (productionParts == null || restoredParts == null || productionParts.size() + restoredParts.size() == 2)
+            return S3ObjectComparator.Result.UNKNOWN;
+
+        if (sameLayout(productionParts, restoredParts))
+            return compareAligned(productionBucket, restoredBucket, key, productionParts, restoredParts);
+
+        if (allChecksummed(productionParts))
+            return compareAlong(productionParts, restoredBucket, key);
+        if (allChecksummed(restoredParts))
+            return compareAlong(restoredParts, productionBucket, key);
+        return S3ObjectComparator.Result.UNKNOWN;
+    }
+
+    private S3ObjectComparator.Result compareAligned(String productionBucket, String restoredBucket, String key,
+                                                     List<Part> productionParts, List<Part> restoredParts) {
+        List<Part> unchecked = new ArrayList<>();
+        for (int i = 0; i < productionParts.size(); i++) {
+            Part original = productionParts.get(i);
+            Part copy = restoredParts.get(i);
+            ChecksumAlgorithm common = null;
+            for (ChecksumAlgorithm algorithm : ALGORITHMS) {
+                if (original.checksum(algorithm) != null && copy.checksum(algorithm) != null) {
+                    common = algorithm;
+                    break;
+                }
+            }
+            if (common == null)
+                unchecked.add(original);
+            else if (!original.checksum(common).equals(copy.checksum(common)))
+                return S3ObjectComparator.Result.MISMATCH;
+        }
+
+        for (Part part : unchecked) {
+            if (part.size == 0)
+                continue;
+            String original = hasher.hashRange(productionBucket, key, part.start, part.end(), ChecksumAlgorithm.SHA256);
+            if (!original.equals(hasher.hashRange(restoredBucket, key, part.start, part.end(), ChecksumAlgorithm.SHA256)))
+                return S3ObjectComparator.Result.MISMATCH;
+        }
+        return S3ObjectComparator.Result.MATCH;
+    }
+
+    private S3ObjectComparator.Result compareAlong(List<Part> reference, String otherBucket, String key) {
+        for (Part part : reference) {
+            if (part.size == 0)
+                continue;
+            ChecksumAlgorithm algorithm = part.firstAlgorithm();
+            if (!part.checksum(algorithm).equals(hasher.hashRange(otherBucket, key, part.start, part.end(), algorithm)))
+                return S3ObjectComparator.Result.MISMATCH;
+        }
+        return S3ObjectComparator.Result.MATCH;
+    }
+
+    private static boolean sameLayout(List<Part> a, List<Part> b) {
+        if (a.size() != b.size())
+            return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i).size != b.get(i).size)
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean allChecksummed(List<Part> parts) {
+        return parts.stream().allMatch(part -> part.firstAlgorithm() != null);
+    }
+
+    /**
+     * The parts of an object in order, paging through the part list if the attributes only had the start of it.
+     * @return List of the parts, null if the part sizes aren't known
+     */
+    private List<Part> parts(String bucketName, String key, GetObjectAttributesResponse attributes) {
+        GetObjectAttributesParts objectParts = attributes.objectParts();
+        if (objectParts == null || objectParts.totalPartsCount() == null || objectParts.totalPartsCount() <= 1) {
+            if (attributes.objectSize() == null)
+                return null;
+            Checksum checksum = attributes.checksum();
+            return List.of(new Part(0, attributes.objectSize(),
+                    algorithm -> checksum == null ? null : wholeChecksum(checksum, algorithm)));
+        }
+
+        List<Part> parts = new ArrayList<>(objectParts.totalPartsCount());
+        long start = 0;
+        while (true) {
+            if (!objectParts.hasParts())
+                return null;
+            for (ObjectPart part : objectParts.parts()) {
+                if (part.size() == null || part.size() < 0)
+                    return null;
+                parts.add(new Part(start, part.size(), algorithm -> partChecksum(part, algorithm)));
+                start += part.size();
+            }
+            if (!Boolean.TRUE.equals(objectParts.isTruncated()))
+                break;
+            objectParts = s3.getObjectAttributes(GetObjectAttributesRequest.builder().bucket(bucketName).key(key)
+                    .objectAttributes(ObjectAttributes.OBJECT_PARTS)
+                    .partNumberMarker(objectParts.nextPartNumberMarker()).build()).objectParts();
+            if (objectParts == null)
+                return null;
+        }
+        return parts.size() == objectParts.totalPartsCount() ? parts : null;
+    }
+
+    private static String wholeChecksum(Checksum checksum, ChecksumAlgorithm algorithm) {
+        switch (algorithm) {
+            case SHA256:
+                return checksum.checksumSHA256();
+            case SHA1:
+                return checksum.checksumSHA1();
+            case CRC32_C:
+                return checksum.checksumCRC32C();
+            case CRC32:
+                return checksum.checksumCRC32();
+            default:
+                return null;
+        }
+    }
+
+    private static String partChecksum(ObjectPart part, ChecksumAlgorithm algorithm) {
+        switch (algorithm) {
+            case SHA256:
+                return part.checksumSHA256();
+            case SHA1:
+                return part.checksumSHA1();
+            case CRC32_C:
+                return part.checksumCRC32C();
+            case CRC32:
+                return part.checksumCRC32();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * A byte range of an object and the checksums S3 has for it.
+     */
+    private static final class Part {
+        final long start;
+        final long size;
+        final Function<ChecksumAlgorithm, String> checksums;
+
+        Part(long start, long size, Function<ChecksumAlgorithm, String> checksums) {
+            this.start = start;
+            this.size = size;
+            this.checksums = checksums;
+        }
+
+        long end() {
+            return start + size - 1;
+        }
+
+        String checksum(ChecksumAlgorithm algorithm) {
+            return checksums.apply(algorithm);
+        }
+
+        ChecksumAlgorithm firstAlgorithm() {
+            for (ChecksumAlgorithm algorithm : ALGORITHMS) {
+                if (checksum(algorithm) != null)
+                    return algorithm;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package sparc.team3.validator.validate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import sparc.team3.validator.util.Util;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Lists a bucket as several partitions at once, for buckets too large for one {@link S3Listing} to keep up with.
+ * <p>
+ * The bucket is first listed with a "/" delimiter, which returns the objects at the top level and the common
+ * prefixes under it.  If that is a single prefix and nothing else, the listing moves down into it.  Each common prefix
+ * is a partition, listed in the background into a buffer of pages, with no more than the concurrency limit of
+ * partitions listed at once.  A common prefix holds every key between it and the next object or prefix, so reading
+ * the top level objects and partitions in turn gives one stream in {@link S3Listing#KEY_ORDER}, the same as listing
+ * the whole bucket.  Memory is bounded by the concurrency limit and the pages each partition can buffer.
+ */
+final class S3PartitionedListing implements Iterator<S3Object>, AutoCloseable {
+    /**
+     * How many pages a partition lists before waiting for them to be read.
+     */
+    private static final int PAGES_AHEAD = 16;
+    /**
+     * How many top level pages and partitions can wait to be read.
+     */
+    private static final int UNITS_AHEAD = 64;
+    private static final String DELIMITER = "/";
+    private static final List<S3Object> END = Collections.emptyList();
+
+    private final S3Client s3;
+    private final String bucketName;
+    private final Semaphore partitions;
+    private final BlockingQueue<Unit> units = new ArrayBlockingQueue<>(UNITS_AHEAD);
+    private final Logger logger;
+    private volatile boolean closed = false;
+    private Iterator<S3Object> page = Collections.emptyIterator();
+    private Partition partition;
+    private boolean done = false;
+    private long partitionCount = 0;
+
+    /**
+     * Starts listing the bucket.
+     *
+     * @param s3          S3Client to list with
+     * @param bucketName  String name of the bucket to list
+     * @param concurrency int number of partitions listed at once
+     */
+    S3PartitionedListing(S3Client s3, String bucketName, int concurrency) {
+        this.s3 = s3;
+        this.bucketName = bucketName;
+        this.partitions = new Semaphore(Math.max(1, concurrency));
+        this.logger = LoggerFactory.getLogger(this.getClass().getName());
+        Util.supplyAsync(() -> {
+            discover();
+            return null;
+        });
+    }
+
+    /**
+     * Lists the top level of the bucket, starting a partition for each common prefix, and queues the objects and
+     * partitions in key order.
+     */
+    private void discover() throws InterruptedException {
+        try {
+            String prefix = null;
+            ListObjectsV2Response response = list(null, null);
+            while (!Boolean.TRUE.equals(response.isTruncated()) && response.contents().isEmpty()
+                    && response.commonPrefixes().size() == 1) {
+                prefix = response.commonPrefixes().get(0).prefix();
+                response = list(prefix, null);
+            }
+
+            while (!closed) {
+                queuePage(response);
+                if (!Boolean.TRUE.equals(response.isTruncated()))
+                    break;
+                response = list(prefix, response.nextContinuationToken());
+            }
+            put(units, new Unit(null, null, null));
+            logger.debug("Listed S3 bucket {} as {} partitions", bucketName, partitionCount);
+        } catch (RuntimeException e) {
+            put(units, new Unit(null, null, e));
+        }
+    }
+
+    private ListObjectsV2Response list(String prefix, String continuationToken) {
+        return s3.listObjectsV2(ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .prefix(prefix)
+                .delimiter(DELIMITER)
+                .continuationToken(continuationToken)
+                .build());
+    }
+
+    /**
+     * Queues a page of the top level, merging its objects and common prefixes, which S3 returns as two sorted lists.
+     */
+    private void queuePage(ListObjectsV2Response response) throws InterruptedException {
+        List<S3Object> objects = response.contents();
+        List<CommonPrefix> prefixes = response.commonPrefixes();
+        int o = 0;
+        int p = 0;
+        while (!closed && (o < objects.size() || p < prefixes.size())) {
+            if (p >= prefixes.size()) {
+                put(units, new Unit(objects.subList(o, objects.size()), null, null));
+                o = objects.size();
+            } else if (o < objects.size() && S3Listing.KEY_ORDER.compare(objects.get(o).key(), prefixes.get(p).prefix()) < 0) {
+                int run = o;
+                while (run < objects.size() && S3Listing.KEY_ORDER.compare(objects.get(run).key(), prefixes.get(p).prefix()) < 0)
+                    run++;
+                put(units, new Unit(objects.subList(o, run), null, null));
+                o = run;
+            } else {
+                while (!partitions.tryAcquire(1, TimeUnit.SECONDS)) {
+                    if (closed)
+                        return;
+                }
+                Partition started = new Partition(prefixes.get(p++).prefix());
+                partitionCount++;
+                put(units, new Unit(null, started, null));
+            }
+        }
+    }
+
+    private <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (!queue.offer(item, 1, TimeUnit.SECONDS)) {
+            if (closed)
+                return;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (!page.hasNext() && !done) {
+                if (partition != null) {
+                    List<S3Object> next = partition.pages.take();
+                    if (next == END) {
+                        partitions.release();
+                        Partition finished = partition;
+                        partition = null;
+                        if (finished.error != null)
+                            throw finished.error;
+                    }
+                    page = next.iterator();
+                    continue;
+                }
+
+                Unit unit = units.take();
+                if (unit.error != null)
+                    throw unit.error;
+                if (unit.partition != null)
+                    partition = unit.partition;
+                else if (unit.objects != null)
+                    page = unit.objects.iterator();
+                else
+                    done = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted listing S3 bucket " + bucketName, e);
+        }
+        return page.hasNext();
+    }
+
+    @Override
+    public S3Object next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return page.next();
+    }
+
+    /**
+     * Stops listing.  Partitions still being listed give up the next time they would wait.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * A common prefix, listed in the background into a buffer of pages ending with {@link #END}.
+     */
+    private final class Partition {
+        private final BlockingQueue<List<S3Object>> pages = new ArrayBlockingQueue<>(PAGES_AHEAD);
+        private volatile RuntimeException error;
+
+        Partition(String prefix) {
+            Util.supplyAsync(() -> {
+                try {
+                    String continuationToken = null;
+                    do {
+                        ListObjectsV2Response response = s3.listObjectsV2(ListObjectsV2Request.builder()
+                                .bucket(bucketName)
+                                .prefix(prefix)
+                                .continuationToken(continuationToken)
+                                .build());
+                        if (!response.contents().isEmpty())
+                            put(pages, response.contents());
+                        continuationToken = Boolean.TRUE.equals(response.isTruncated()) ? response.nextContinuationToken() : null;
+                    } while (continuationToken != null && !closed);
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                put(pages, END);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * The next thing to read: a run of top level objects, a partition, an error, or the end of the listing when
+     * everything is null.
+     */
+    private static final class Unit {
+        final List<S3Object> objects;
+        final Partition partition;
+        final RuntimeException error;
+
+        Unit(List<S3Object> objects, Partition partition, RuntimeException error) {
+            this.objects = objects;
+            this.partition = partition;
+            this.error = error;
+        }
+    }
+}
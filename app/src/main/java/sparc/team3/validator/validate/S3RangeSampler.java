@@ -0,0 +1,173 @@
+package sparc.team3.validator.validate;
+
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import sparc.team3.validator.util.Util;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares large objects by reading a few byte ranges of each from both buckets instead of downloading them.  This
+ * is evidence rather than proof, a difference outside the ranges isn't seen, but it costs a tiny fraction of a full
+ * download.
+ * <p>
+ * The ranges are picked at random from a seed made from the configured seed, the key and the size, so the same
+ * object is always sampled at the same offsets and a result can be reproduced.  The first and last ranges of the
+ * object, where headers and trailers live, are always included.  Each range is read from both buckets at once, with
+ * {@value #RANGES_AHEAD} ranges of an object read at a time, the same number of requests as downloading it in parts.
+ * Each range is read into memory, so ranges can be no bigger than {@value #MAX_RANGE_SIZE} bytes.
+ */
+final class S3RangeSampler {
+    /**
+     * Objects must be at least this many times the bytes sampled from them to be sampled, smaller objects are
+     * cheap enough to download.
+     */
+    private static final int MIN_SIZE_FACTOR = 4;
+    /**
+     * How many ranges of one object are read at once.
+     */
+    private static final int RANGES_AHEAD = S3ObjectHasher.PARTS_AHEAD;
+    /**
+     * The biggest range read is {@value} bytes, each range is read into an array.
+     */
+    static final int MAX_RANGE_SIZE = 1024 * 1024;
+    /**
+     * The most bytes read from each copy of an object is {@value}, past that it is as cheap to download it.
+     */
+    static final long MAX_BYTES_PER_OBJECT = 64L * 1024 * 1024;
+
+    private final S3Client s3;
+    private final int ranges;
+    private final int rangeSize;
+    private final long seed;
+    private final AtomicLong objects = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesCompared = new AtomicLong();
+    private final AtomicLong bytesTotal = new AtomicLong();
+
+    /**
+     * Sets up the sampler.
+     *
+     * @param s3        S3Client to read ranges with
+     * @param ranges    int number of ranges read from each object
+     * @param rangeSize int size in bytes of each range
+     * @param seed      long seed the offsets are picked from
+     */
+    S3RangeSampler(S3Client s3, int ranges, int rangeSize, long seed) {
+        this.s3 = s3;
+        this.ranges = ranges;
+        this.rangeSize = rangeSize;
+        this.seed = seed;
+    }
+
+    /**
+     * Whether an object is big enough to be sampled rather than downloaded.
+     * @param size long size of the object
+     * @return boolean if the object should be sampled
+     */
+    boolean shouldSample(long size) {
+        return size > (long) MIN_SIZE_FACTOR * ranges * rangeSize;
+    }
+
+    /**
+     * Reads the ranges of an object from both buckets and compares them.
+     *
+     * @param productionBucket String name of the production bucket
+     * @param restoredBucket   String name of the restored bucket
+     * @param key              String key of the object
+     * @param size             long size of the object
+     * @return String describing the first range that differs, null if every range is the same
+     */
+    String compare(String productionBucket, String restoredBucket, String key, long size) {
+        Deque<CompletableFuture<String>> window = new ArrayDeque<>(RANGES_AHEAD);
+        String difference = null;
+        try {
+            for (long offset : offsets(key, size)) {
+                if (window.size() == RANGES_AHEAD)
+                    difference = firstDifference(difference, join(window.poll()));
+                long end = Math.min(size, offset + rangeSize) - 1;
+                String range = "bytes=" + offset + "-" + end;
+                CompletableFuture<byte[]> original = Util.supplyAsync(() -> read(productionBucket, key, range));
+                CompletableFuture<byte[]> restored = Util.supplyAsync(() -> read(restoredBucket, key, range));
+                window.add(original.thenCombine(restored, (a, b) -> {
+                    bytesRead.addAndGet(a.length + b.length);
+                    bytesCompared.addAndGet(a.length);
+                    return Arrays.equals(a, b) ? null : range;
+                }));
+            }
+            while (!window.isEmpty())
+                difference = firstDifference(difference, join(window.poll()));
+        } finally {
+            // a range that failed leaves the others reading, they are waited for so no more are in flight than allowed
+            for (CompletableFuture<String> range : window)
+                range.handle((different, e) -> null).join();
+        }
+
+        objects.incrementAndGet();
+        bytesTotal.addAndGet(size);
+        return difference == null ? null : "sampled range " + difference + " differs";
+    }
+
+    private static String firstDifference(String difference, String different) {
+        return difference != null ? difference : different;
+    }
+
+    /**
+     * The offsets of the ranges of an object, in order and not overlapping.
+     * @param key String key of the object
+     * @param size long size of the object
+     * @return List of the offsets
+     */
+    List<Long> offsets(String key, long size) {
+        long last = Math.max(0, size - rangeSize);
+        SplittableRandom random = new SplittableRandom(seed ^ (key.hashCode() * 0x9E3779B97F4A7C15L) ^ size);
+        List<Long> offsets = new ArrayList<>(ranges);
+        offsets.add(0L);
+        if (ranges > 1)
+            offsets.add(last);
+        while (offsets.size() < ranges)
+            offsets.add(last == 0 ? 0 : random.nextLong(last + 1));
+        offsets.sort(Long::compare);
+
+        // ranges that overlap the one before are dropped, so no byte is read twice
+        List<Long> apart = new ArrayList<>(offsets.size());
+        for (long offset : offsets) {
+            if (apart.isEmpty() || offset >= apart.get(apart.size() - 1) + rangeSize)
+                apart.add(offset);
+        }
+        return apart;
+    }
+
+    private byte[] read(String bucketName, String key, String range) {
+        ResponseBytes<GetObjectResponse> bytes = s3.getObjectAsBytes(GetObjectRequest.builder().bucket(bucketName)
+                .key(key).range(range).build());
+        return bytes.asByteArrayUnsafe();
+    }
+
+    private static String join(CompletableFuture<String> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = Util.unwrap(e);
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * One line describing how much was sampled.
+     * @return String summary, null if nothing was sampled
+     */
+    String summary() {
+        if (objects.get() == 0)
+            return null;
+        return String.format("range sampled %d objects, %d bytes read, %.4f%% of their bytes compared (seed %d)",
+                objects.get(), bytesRead.get(), 100.0 * bytesCompared.get() / Math.max(1, bytesTotal.get()), seed);
+    }
+}
@@ -0,0 +1,257 @@
+package sparc.team3.validator.validate;
+
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.*;
+
+/**
+ * A stratified random sample of the objects the listing couldn't decide, so only the sample is checksummed or
+ * downloaded and the rate of corrupt objects in the rest is estimated from it.
+ * <p>
+ * Objects are split into strata by their top level prefix and size class, and a uniform sample of each stratum is kept
+ * as the listing streams past, so the bucket never has to be held in memory.  Every object is given a random priority
+ * and those below one threshold are kept, lowering the threshold to drop the highest whenever more than
+ * {@value #OVERSAMPLE} times the sample size are held.  Whatever a stratum keeps is a uniform sample of it, about
+ * {@value #OVERSAMPLE} times its share whichever part of the listing it came from.  Once the listing is done the sample
+ * size is split across the strata in proportion to how many objects each had.
+ * <p>
+ * The estimated rate weights each stratum's rate by its share of the objects in the strata that were sampled.  Its
+ * 95% interval is a Wilson score interval over the effective sample size of the stratified estimate, the rate's
+ * binomial variance over its stratified variance, and the estimated count only covers the sampled strata.
+ */
+final class S3Sample {
+    /**
+     * The most top level prefixes given their own strata, objects under any others share one.
+     */
+    private static final int MAX_PREFIXES = 20;
+    /**
+     * The upper bounds of the size classes, objects bigger than the last are in a class of their own.
+     */
+    private static final long[] SIZE_CLASSES = {1024L * 1024, 128L * 1024 * 1024};
+    /**
+     * z score of the 95% confidence interval.
+     */
+    private static final double Z = 1.96;
+    /**
+     * The most objects held is {@value} times the sample size, so a stratum has more than its share to draw from.
+     */
+    private static final int OVERSAMPLE = 2;
+    private static final String OTHER_PREFIXES = "*";
+    /**
+     * Priorities sort the lowest first, which are the ones kept.
+     */
+    private static final Comparator<Sampled> LOWEST_FIRST = Comparator.comparingDouble(sampled -> sampled.priority);
+
+    private final int sampleSize;
+    private final long seed;
+    private final SplittableRandom random;
+    private final Map<String, Stratum> strata = new TreeMap<>();
+    private final Set<String> prefixes = new HashSet<>();
+    private final PriorityQueue<Sampled> kept = new PriorityQueue<>(LOWEST_FIRST.reversed());
+    private double threshold = 1;
+    private long population = 0;
+
+    /**
+     * Creates an empty sample.
+     *
+     * @param sampleSize int number of objects to sample
+     * @param seed       long seed of the random choices, logged so a sample can be drawn again
+     */
+    S3Sample(int sampleSize, long seed) {
+        this.sampleSize = sampleSize;
+        this.seed = seed;
+        this.random = new SplittableRandom(seed);
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Offers an undecided object to the sample.
+     *
+     * @param original S3Manifest.Entry of the production object
+     * @param restored S3Object listed in the restored bucket
+     */
+    void offer(S3Manifest.Entry original, S3Object restored) {
+        population++;
+        Stratum stratum = strata.computeIfAbsent(stratumOf(original.getKey(), original.getSize()), Stratum::new);
+        stratum.population++;
+        double priority = random.nextDouble();
+        if (priority >= threshold)
+            return;
+
+        kept.add(new Sampled(priority, new Pair(stratum.name, original, restored)));
+        if (kept.size() > (long) OVERSAMPLE * sampleSize)
+            threshold = kept.poll().priority;
+    }
+
+    /**
+     * Number of objects held for the sample, for keeping an eye on memory.
+     * @return int of the objects held in every stratum
+     */
+    int held() {
+        return kept.size();
+    }
+
+    private String stratumOf(String key, Long size) {
+        int slash = key.indexOf('/');
+        String prefix = slash < 0 ? "" : key.substring(0, slash + 1);
+        if (!prefixes.contains(prefix)) {
+            if (prefixes.size() >= MAX_PREFIXES)
+                prefix = OTHER_PREFIXES;
+            else
+                prefixes.add(prefix);
+        }
+
+        int sizeClass = 0;
+        while (sizeClass < SIZE_CLASSES.length && size != null && size >= SIZE_CLASSES[sizeClass])
+            sizeClass++;
+        return prefix + "#" + sizeClass;
+    }
+
+    /**
+     * Splits the sample size across the strata in proportion to their objects, giving any left over to the strata
+     * with the largest remainders, and returns that many objects of each.
+     * @return List of the sampled objects
+     */
+    List<Pair> draw() {
+        // the lowest priorities of a uniform sample are a uniform sample too
+        List<Sampled> lowestFirst = new ArrayList<>(kept);
+        lowestFirst.sort(LOWEST_FIRST);
+        for (Sampled sampled : lowestFirst)
+            strata.get(sampled.pair.stratum).reservoir.add(sampled.pair);
+
+        List<Stratum> all = new ArrayList<>(strata.values());
+        int allocated = 0;
+        for (Stratum stratum : all) {
+            double share = population == 0 ? 0 : (double) sampleSize * stratum.population / population;
+            stratum.allocated = Math.min(stratum.reservoir.size(), (int) share);
+            stratum.remainder = share - (int) share;
+            allocated += stratum.allocated;
+        }
+
+        all.sort(Comparator.comparingDouble((Stratum s) -> s.remainder).reversed());
+        boolean added = true;
+        while (allocated < sampleSize && added) {
+            added = false;
+            for (Stratum stratum : all) {
+                if (allocated < sampleSize && stratum.allocated < stratum.reservoir.size()) {
+                    stratum.allocated++;
+                    allocated++;
+                    added = true;
+                }
+            }
+        }
+
+        List<Pair> drawn = new ArrayList<>(allocated);
+        for (Stratum stratum : strata.values()) {
+            drawn.addAll(stratum.reservoir.subList(0, stratum.allocated));
+            stratum.reservoir.clear();
+        }
+        return drawn;
+    }
+
+    /**
+     * Records how a sampled object compared.  Objects that couldn't be compared aren't recorded.
+     * @param pair Pair that was compared
+     * @param mismatch boolean if the objects were different
+     */
+    synchronized void result(Pair pair, boolean mismatch) {
+        Stratum stratum = strata.get(pair.stratum);
+        stratum.checked++;
+        if (mismatch)
+            stratum.mismatched++;
+    }
+
+    /**
+     * One line describing the estimated corrupt objects among those the listing couldn't decide.
+     * @return String estimate
+     */
+    synchronized String estimate() {
+        long checked = 0;
+        long mismatched = 0;
+        long covered = 0;
+        for (Stratum stratum : strata.values()) {
+            if (stratum.checked > 0)
+                covered += stratum.population;
+            checked += stratum.checked;
+            mismatched += stratum.mismatched;
+        }
+        if (checked == 0)
+            return "sampled 0 of " + population + " undecided objects";
+
+        // strata that got no sample are left out, the others are weighted among themselves
+        double rate = 0;
+        double variance = 0;
+        for (Stratum stratum : strata.values()) {
+            if (stratum.checked == 0)
+                continue;
+            double weight = (double) stratum.population / covered;
+            double stratumRate = (double) stratum.mismatched / stratum.checked;
+            rate += weight * stratumRate;
+            variance += weight * weight * stratumRate * (1 - stratumRate) / stratum.checked;
+        }
+        double[] interval = wilson(rate, variance > 0 ? rate * (1 - rate) / variance : checked);
+
+        return String.format("sampled %d of %d undecided objects in %d strata, %d corrupt, estimated %.4f%% corrupt "
+                        + "(95%% confidence %.4f%% to %.4f%%), about %d of the %d objects in sampled strata (up to %d)",
+                checked, population, strata.size(), mismatched, rate * 100, interval[0] * 100, interval[1] * 100,
+                Math.round(rate * covered), covered, Math.round(interval[1] * covered));
+    }
+
+    /**
+     * The Wilson score interval of a rate.
+     * @param rate double estimated rate
+     * @param n double effective number of objects the rate is from
+     * @return double array of the low and high ends
+     */
+    static double[] wilson(double rate, double n) {
+        double z2n = Z * Z / n;
+        double center = (rate + z2n / 2) / (1 + z2n);
+        double margin = Z / (1 + z2n) * Math.sqrt(rate * (1 - rate) / n + z2n / (4 * n));
+        return new double[]{Math.max(0, center - margin), Math.min(1, center + margin)};
+    }
+
+    /**
+     * A sampled production object and its restored copy.
+     */
+    static final class Pair {
+        final String stratum;
+        final S3Manifest.Entry original;
+        final S3Object restored;
+
+        Pair(String stratum, S3Manifest.Entry original, S3Object restored) {
+            this.stratum = stratum;
+            this.original = original;
+            this.restored = restored;
+        }
+    }
+
+    /**
+     * An object held for the sample and its random priority.
+     */
+    private static final class Sampled {
+        final double priority;
+        final Pair pair;
+
+        Sampled(double priority, Pair pair) {
+            this.priority = priority;
+            this.pair = pair;
+        }
+    }
+
+    private static final class Stratum {
+        final String name;
+        final List<Pair> reservoir = new ArrayList<>();
+        long population = 0;
+        int allocated = 0;
+        double remainder = 0;
+        long checked = 0;
+        long mismatched = 0;
+
+        Stratum(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -2,13 +2,28 @@ package sparc.team3.validator.validate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 import sparc.team3.validator.config.settings.InstanceSettings;
+import sparc.team3.validator.config.settings.ValidationSettings;
+import sparc.team3.validator.config.settings.ValidationSettings.S3HashAlgorithm;
+import sparc.team3.validator.config.settings.ValidationSettings.S3ValidationMode;
+import sparc.team3.validator.util.SortedMergeDiff;
+import sparc.team3.validator.util.Util;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
@@ -16,27 +31,176 @@ import java.util.concurrent.Callable;
  */
 public class S3ValidateBucket implements Callable<Boolean> {
 
+    /**
+     * How many objects are compared between progress messages.
+     */
+    private static final long PROGRESS_INTERVAL = 10000;
+    /**
+     * How many objects can be downloaded and hashed at the same time in {@link S3ValidationMode#METADATA} mode.  Both
+     * objects of a pair count, the buffers of {@link S3ObjectHasher} are sized from it.
+     */
+    private static final int MAX_DOWNLOADS = 8;
     private final S3Client s3;
+    private final S3AsyncClient s3Async;
     private final InstanceSettings instanceSettings;
     private final Logger logger;
     private String restoredBucket;
+    private S3ObjectHasher hasher;
+    private S3PartCheck partCheck;
+    private S3RangeSampler rangeSampler;
+    private int maxInFlight = ValidationSettings.DEFAULT_S3_MAX_IN_FLIGHT;
+    private S3ValidationMode mode = ValidationSettings.DEFAULT_S3_VALIDATION_MODE;
+    private long maxDifferences = ValidationSettings.DEFAULT_S3_MAX_DIFFERENCES;
+    private Path reportDirectory = Util.REPORTS_DIR;
+    private String diffSummary;
+    private Path manifestDirectory;
+    private String inventoryLocation;
+    private int sampleSize = ValidationSettings.DEFAULT_S3_SAMPLE_SIZE;
+    private int listingConcurrency = ValidationSettings.DEFAULT_S3_LISTING_CONCURRENCY;
 
-    public S3ValidateBucket(S3Client s3, InstanceSettings instanceSettings){
+    public S3ValidateBucket(S3Client s3, S3AsyncClient s3Async, InstanceSettings instanceSettings){
         this.s3 = s3;
+        this.s3Async = s3Async;
+        this.hasher = new S3ObjectHasher(s3, ValidationSettings.DEFAULT_S3_HASH_ALGORITHM, MAX_DOWNLOADS);
+        this.partCheck = new S3PartCheck(s3, hasher);
         this.instanceSettings = instanceSettings;
         this.logger = LoggerFactory.getLogger(this.getClass().getName());
     }
 
+    /**
+     * The most requests one validation has outstanding at once on the S3Client: the partitions of both buckets being
+     * listed, the ranged GETs of the objects downloading at once, and the inventory data files being downloaded.
+     * @param listingConcurrency int number of partitions of each bucket listed at once
+     * @return int of the connections the S3Client needs
+     */
+    public static int syncConnections(int listingConcurrency){
+        return 2 * (Math.max(1, listingConcurrency) + 1) + MAX_DOWNLOADS * S3ObjectHasher.PARTS_AHEAD
+                + S3InventoryListing.MAX_DOWNLOADS;
+    }
+
+    /**
+     * The most requests one validation has outstanding at once on the S3AsyncClient, the GetObjectAttributes of both
+     * buckets for every object in flight, or a HeadObject checking an object against the production bucket.
+     * @param maxInFlight int of the in-flight limit
+     * @return int of the connections the S3AsyncClient needs
+     */
+    public static int asyncConnections(int maxInFlight){
+        return 2 * Math.max(1, maxInFlight);
+    }
+
     public void setRestoredBucket(String restoredBucket){
         this.restoredBucket = restoredBucket;
     }
 
+    /**
+     * Sets how many objects can have checksum requests outstanding at once across both buckets.
+     * @param maxInFlight int of the in-flight limit
+     */
+    public void setMaxInFlight(int maxInFlight){
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Sets how the restored objects are checksummed.
+     * @param mode S3ValidationMode to validate with
+     */
+    public void setMode(S3ValidationMode mode){
+        this.mode = mode;
+    }
+
+    /**
+     * Sets how many differences are allowed before the validation fails.
+     * @param maxDifferences long number of differences allowed
+     */
+    public void setMaxDifferences(long maxDifferences){
+        this.maxDifferences = Math.max(0, maxDifferences);
+    }
+
+    /**
+     * Sets the directory the diff report is written to.
+     * @param reportDirectory Path of the directory
+     */
+    public void setReportDirectory(Path reportDirectory){
+        this.reportDirectory = reportDirectory;
+    }
+
+    /**
+     * Sets the directory a manifest of the production bucket is kept in between runs, which is only used in
+     * {@link S3ValidationMode#METADATA} mode.
+     * @param manifestDirectory Path of the directory, null to not keep a manifest
+     */
+    public void setManifestDirectory(Path manifestDirectory){
+        this.manifestDirectory = manifestDirectory;
+    }
+
+    /**
+     * Sets an S3 Inventory of the production bucket to read instead of listing it, which is only used in
+     * {@link S3ValidationMode#METADATA} mode.  See {@link S3InventoryListing} for the locations it can be read from.
+     * @param inventoryLocation String location of the inventory, null to list the bucket
+     */
+    public void setInventoryLocation(String inventoryLocation){
+        this.inventoryLocation = inventoryLocation;
+    }
+
+    /**
+     * Sets how many of the objects the listing can't decide are checksummed, the rest are estimated from them.  Only
+     * used in {@link S3ValidationMode#METADATA} mode.
+     * @param sampleSize int number of objects sampled, 0 to check every object
+     */
+    public void setSampleSize(int sampleSize){
+        this.sampleSize = Math.max(0, sampleSize);
+    }
+
+    /**
+     * Sets how many partitions of each bucket are listed at once.
+     * @param listingConcurrency int number of partitions listed at once, 1 to list each bucket in one go
+     */
+    public void setListingConcurrency(int listingConcurrency){
+        this.listingConcurrency = Math.max(1, listingConcurrency);
+    }
+
+    /**
+     * Sets the hash used for objects that have to be downloaded.
+     * @param hashAlgorithm S3HashAlgorithm to hash with
+     */
+    public void setHashAlgorithm(S3HashAlgorithm hashAlgorithm){
+        this.hasher = new S3ObjectHasher(s3, hashAlgorithm, MAX_DOWNLOADS);
+        this.partCheck = new S3PartCheck(s3, hasher);
+    }
+
+    /**
+     * Sets objects that would have to be downloaded to be compared by reading a few random byte ranges from both
+     * buckets instead, if they are large enough.  Only used in {@link S3ValidationMode#METADATA} mode.
+     * @param ranges int number of ranges read from each object, 0 to download objects
+     * @param rangeSize int size in bytes of each range
+     * @param seed long seed the ranges are picked from
+     */
+    public void setRangeSampling(int ranges, int rangeSize, long seed){
+        if (ranges >= 1 && (rangeSize > S3RangeSampler.MAX_RANGE_SIZE || (long) ranges * rangeSize > S3RangeSampler.MAX_BYTES_PER_OBJECT)) {
+            logger.warn("Range sampling {} ranges of {} bytes is more than ranges of {} bytes or {} bytes of each object, objects will be downloaded instead",
+                    ranges, rangeSize, S3RangeSampler.MAX_RANGE_SIZE, S3RangeSampler.MAX_BYTES_PER_OBJECT);
+            this.rangeSampler = null;
+            return;
+        }
+        this.rangeSampler = ranges < 1 || rangeSize < 1 ? null : new S3RangeSampler(s3, ranges, rangeSize, seed);
+    }
+
+    /**
+     * The counts of each kind of difference found by the last validation.
+     * @return String summary, null if the bucket hasn't been validated
+     */
+    public String getDiffSummary(){
+        return diffSummary;
+    }
+
     /**
      * Entrypoint for validation testing.
      * @return Boolean of whether the tests have passed
+     * @throws InterruptedException if interrupted while waiting for objects to be compared
+     * @throws IOException if the diff report can't be created
      */
     @Override
-    public Boolean call() {
+    public Boolean call() throws InterruptedException, IOException {
         return ChecksumValidate();
     }
 
@@ -47,97 +211,538 @@ public class S3ValidateBucket implements Callable<Boolean> {
      */
     private void CopyS3Objects() {
 
-        // initialize ListObjectsRequest
-        ListObjectsRequest listObjects = ListObjectsRequest
-                .builder()
-                .bucket(restoredBucket)
-                .build();
+        logger.info("Preparing S3 bucket {} for validation.", restoredBucket);
 
-        ListObjectsResponse res = s3.listObjects(listObjects);
-        List<S3Object> objects = res.contents();
+        // iterate through each object in the bucket, a page at a time, and perform the copy action
+        Iterator<S3Object> objects = S3Listing.of(s3, restoredBucket, listingConcurrency);
+        try {
+            while (objects.hasNext()) {
+                S3Object myValue = objects.next();
 
-        logger.info("Preparing S3 bucket {} for validation.", restoredBucket);
+                // initialize CopyObjectsRequest
+                CopyObjectRequest copyObjects = CopyObjectRequest
+                        .builder()
+                        .sourceBucket(restoredBucket)
+                        .sourceKey(myValue.key())
+                        .destinationBucket(restoredBucket)
+                        .destinationKey(myValue.key())
+                        .checksumAlgorithm("SHA256") // turn on checksum for SHA256
+                        .storageClass(StorageClass.STANDARD_IA) // added in to ensure copy action passes through
+                        .build();
 
-        // iterate through each object in the bucket and perform the copy action
-        for (S3Object myValue : objects) {
-
-            // initialize CopyObjectsRequest
-            CopyObjectRequest copyObjects = CopyObjectRequest
-                    .builder()
-                    .sourceBucket(restoredBucket)
-                    .sourceKey(myValue.key())
-                    .destinationBucket(restoredBucket)
-                    .destinationKey(myValue.key())
-                    .checksumAlgorithm("SHA256") // turn on checksum for SHA256
-                    .storageClass(StorageClass.STANDARD_IA) // added in to ensure copy action passes through
-                    .build();
-
-            // copy objects
-            s3.copyObject(copyObjects);
+                // copy objects
+                s3.copyObject(copyObjects);
+            }
+        } finally {
+            S3Listing.close(objects);
         }
 
     }
 
     /**
-     * Extract S3 objects from a given S3 bucket, and returning their key and checksum values in a HashMap
-     * @param bucketName the string name of the bucket to get the objects of
-     * @return a HashMap of S3 objects
+     * Cross-check the checksum values of each S3 object in the original S3 bucket and the restored S3 bucket.
+     * Since S3 lists keys in order, the two buckets are diffed with a {@link SortedMergeDiff} so objects are compared
+     * as they arrive without holding either bucket in memory.  Every difference is written to an {@link S3DiffReport}
+     * and the whole bucket is always compared, so one run shows everything that is wrong with a restore.  Objects
+     * only in the restored bucket are reported but don't count against the validation.
+     * In {@link S3ValidationMode#COPY} mode the restored objects are first copied to give them SHA-256 checksums.  In
+     * {@link S3ValidationMode#METADATA} mode nothing is copied and objects are compared in tiers, see
+     * {@link #validateTiered(S3DiffReport)}.
+     * @return a boolean value of whether there were no more differences than allowed
+     * @throws InterruptedException if interrupted while waiting for objects to be compared
+     * @throws IOException if the diff report can't be created
      */
-    private HashMap<String, String> GetS3Objects(String bucketName){
+    public boolean ChecksumValidate() throws InterruptedException, IOException {
+
+        // copy objects to get SHA-256 checksum values
+        if (mode == S3ValidationMode.COPY)
+            CopyS3Objects();
 
-        // initialize return map
-        HashMap<String, String> s3Objects = new HashMap<>();
+        logger.info("Validating S3 bucket {}", restoredBucket);
+        long start = System.nanoTime();
+        SortedMergeDiff.Counts counts;
+        try (S3DiffReport report = new S3DiffReport(reportDirectory.resolve("s3-diff-" + restoredBucket + ".tsv.gz"))) {
+            if (mode == S3ValidationMode.METADATA)
+                counts = validateTiered(report);
+            else
+                counts = validateCopied(report);
+            diffSummary = report.summary();
+            for (String note : report.getNotes())
+                diffSummary += "; " + note;
 
-        // initialize ListObjectsRequest
-        ListObjectsRequest listObjects = ListObjectsRequest
-                .builder()
-                .bucket(bucketName)
-                .build();
+            logger.info("Compared {} objects of S3 bucket {}: {}", counts.getBoth(), restoredBucket, diffSummary);
+            logThroughput(counts.getBoth(), counts.getBoth(), start);
+            logger.info("S3 diff report written to {}", report.getReportFile());
 
-        ListObjectsResponse res = s3.listObjects(listObjects);
-        List<S3Object> objects = res.contents();
+            if (report.getFailures() > maxDifferences) {
+                logger.warn("S3 bucket {} has {} differences, more than the {} allowed", restoredBucket,
+                        report.getFailures(), maxDifferences);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares the SHA-256 checksums of the copied objects.
+     * @param report S3DiffReport the differences are written to
+     * @return Counts of the objects in each bucket
+     */
+    private SortedMergeDiff.Counts validateCopied(S3DiffReport report) {
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        long start = System.nanoTime();
 
-        // retrieve the keys of the S3 objects and add them to s3Objects
-        for (S3Object myValue : objects) {
+        try (S3ChecksumCollector originalObjs = new S3ChecksumCollector(s3, s3Async, instanceSettings.getProductionName(), listingConcurrency, inFlight, maxInFlight);
+             S3ChecksumCollector restoredObjs = new S3ChecksumCollector(s3, s3Async, restoredBucket, listingConcurrency, inFlight, maxInFlight)) {
 
-            // initialize AWS GetObjectAttributesResponse object to get checksum value
-            GetObjectAttributesResponse
-                    objectAttributes = s3.getObjectAttributes(GetObjectAttributesRequest.builder().bucket(bucketName).key(myValue.key())
-                    .objectAttributes(ObjectAttributes.OBJECT_PARTS, ObjectAttributes.CHECKSUM).build());
+            return new SortedMergeDiff<>(originalObjs, S3ChecksumCollector.ObjectChecksum::getKey,
+                    restoredObjs, S3ChecksumCollector.ObjectChecksum::getKey, S3Listing.KEY_ORDER)
+                    .run(new SortedMergeDiff.Handler<>() {
+                        private long compared = 0;
 
-            // add S3 object key and checksum value to map
-            s3Objects.put(myValue.key(), objectAttributes.checksum().checksumSHA256());
+                        @Override
+                        public boolean both(S3ChecksumCollector.ObjectChecksum original, S3ChecksumCollector.ObjectChecksum restored) {
+                            // compare checksum value of the obj
+                            if (Objects.equals(original.getChecksum(), restored.getChecksum()))
+                                report.matched();
+                            else
+                                report.add(S3DiffReport.Difference.CHECKSUM_MISMATCH, original.getKey(),
+                                        "production=" + original.getChecksum() + " restored=" + restored.getChecksum());
+
+                            if (++compared % PROGRESS_INTERVAL == 0)
+                                logThroughput(compared, originalObjs.getCollected() + restoredObjs.getCollected(), start);
+                            return true;
+                        }
+
+                        @Override
+                        public boolean leftOnly(S3ChecksumCollector.ObjectChecksum original) {
+                            report.add(S3DiffReport.Difference.MISSING, original.getKey(), "");
+                            return true;
+                        }
+
+                        @Override
+                        public boolean rightOnly(S3ChecksumCollector.ObjectChecksum restored) {
+                            report.add(S3DiffReport.Difference.EXTRA, restored.getKey(), "");
+                            return true;
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Compares the buckets in tiers, each tier only looking at the objects the one before couldn't decide.
+     * <ol>
+     *     <li>The size and ETag the listing already returns, see {@link S3ObjectComparator#compare(S3Object, S3Object)}.</li>
+     *     <li>The checksums from GetObjectAttributes, requested on the async client for both objects.</li>
+     *     <li>Downloading both objects and hashing them.</li>
+     * </ol>
+     * Tiers two and three run in the background while the listings are still being compared, with no more than the
+     * in-flight limit of objects past the first tier at once.  With a {@link S3Manifest} of the production bucket,
+     * production objects that haven't changed since an earlier run use the SHA-256 found then, so only the restored
+     * copy is checksummed or downloaded.  With an S3 Inventory the production bucket is read from the inventory instead
+     * of being listed, falling back to listing it if the inventory's data files aren't sorted by key.  The inventory
+     * can be older than the restore, so objects missing from the restore or only in it are looked up in production
+     * with HeadObject before being reported, and those created or deleted since the inventory are only counted.
+     * <p>
+     * With a sample size set, objects the listing can't decide aren't escalated straight away but offered to a
+     * {@link S3Sample}.  Once the listings are compared only the drawn sample is escalated, and the estimated number
+     * of corrupt objects is added to the report.
+     * @param report S3DiffReport the differences are written to
+     * @return Counts of the objects in each bucket
+     * @throws InterruptedException if interrupted while waiting for objects to be compared
+     * @throws IOException if the manifest can't be read or written
+     */
+    private SortedMergeDiff.Counts validateTiered(S3DiffReport report) throws InterruptedException, IOException {
+        String productionBucket = instanceSettings.getProductionName();
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        Semaphore downloads = new Semaphore(MAX_DOWNLOADS);
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+        AtomicReference<IOException> manifestError = new AtomicReference<>();
+        AtomicLong clearedByListing = new AtomicLong();
+        AtomicLong clearedByAttributes = new AtomicLong();
+        AtomicLong clearedByParts = new AtomicLong();
+        AtomicLong fromManifest = new AtomicLong();
+        AtomicLong hashed = new AtomicLong();
+        AtomicLong sinceInventory = new AtomicLong();
+        long start = System.nanoTime();
+
+        S3InventoryListing inventory = null;
+        if (inventoryLocation != null) {
+            try {
+                inventory = new S3InventoryListing(s3, inventoryLocation);
+            } catch (S3InventoryListing.UnsortedException e) {
+                logger.warn("{}, listing S3 bucket {} instead", e.getMessage(), productionBucket);
+            }
+        }
+        boolean fromInventory = inventory != null;
+        Iterator<S3Object> productionListing = inventory != null ? inventory : S3Listing.of(s3, productionBucket, listingConcurrency);
+        Iterator<S3Object> restoredListing = S3Listing.of(s3, restoredBucket, listingConcurrency);
+        S3Manifest manifest = manifestDirectory == null ? null : new S3Manifest(manifestDirectory, productionBucket);
+        S3Sample sample = sampleSize == 0 ? null : new S3Sample(sampleSize, System.nanoTime());
+        if (sample != null)
+            logger.info("Sampling {} undecided objects of S3 bucket {} with seed {}", sampleSize, restoredBucket, sample.getSeed());
+        Iterator<S3Manifest.Entry> productionObjs = manifest != null ? manifest.refresh(productionListing) : new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return productionListing.hasNext();
+            }
+
+            @Override
+            public S3Manifest.Entry next() {
+                return new S3Manifest.Entry(productionListing.next(), null, true);
+            }
+        };
+
+        SortedMergeDiff.Counts counts;
+        try {
+            counts = new SortedMergeDiff<>(productionObjs, S3Manifest.Entry::getKey,
+                    restoredListing, S3Object::key, S3Listing.KEY_ORDER)
+                    .run(new SortedMergeDiff.Handler<>() {
+                        private long compared = 0;
+
+                        @Override
+                        public boolean both(S3Manifest.Entry original, S3Object restored) {
+                            String key = original.getKey();
+                            CompletableFuture<String> sha256 = CompletableFuture.completedFuture(original.getSha256());
+
+                            S3ObjectComparator.Result result = S3ObjectComparator.compare(original.getObject(), restored);
+                            if (result == S3ObjectComparator.Result.MISMATCH) {
+                                report.add(S3DiffReport.Difference.SIZE_MISMATCH, key,
+                                        "production=" + original.getSize() + " restored=" + restored.size());
+                            } else if (result == S3ObjectComparator.Result.MATCH) {
+                                clearedByListing.incrementAndGet();
+                                report.matched();
+                            } else if (sample != null) {
+                                sample.offer(original, restored);
+                            } else {
+                                try {
+                                    inFlight.acquire();
+                                } catch (InterruptedException e) {
+                                    interrupted.set(true);
+                                    return false;
+                                }
+                                if (original.getSha256() != null)
+                                    fromManifest.incrementAndGet();
+                                CompletableFuture<Escalation> escalation = escalate(productionBucket, original, downloads, clearedByAttributes, clearedByParts, hashed);
+                                escalation.whenComplete((escalated, e) -> {
+                                    inFlight.release();
+                                    if (e != null)
+                                        report.add(S3DiffReport.Difference.ERROR, key, String.valueOf(Util.unwrap(e).getMessage()));
+                                    else if (!escalated.equal)
+                                        report.add(S3DiffReport.Difference.CHECKSUM_MISMATCH, key, escalated.detail);
+                                    else
+                                        escalated.matched(report);
+                                });
+                                sha256 = escalation.handle((escalated, e) -> escalated == null ? original.getSha256() : escalated.productionSha256);
+                            }
+
+                            if (++compared % PROGRESS_INTERVAL == 0)
+                                logThroughput(compared, compared, start);
+                            return record(original, sha256);
+                        }
+
+                        @Override
+                        public boolean leftOnly(S3Manifest.Entry original) {
+                            if (!fromInventory)
+                                report.add(S3DiffReport.Difference.MISSING, original.getKey(), "");
+                            else if (!confirm(S3DiffReport.Difference.MISSING, original.getKey(), true))
+                                return false;
+                            return record(original, CompletableFuture.completedFuture(original.getSha256()));
+                        }
+
+                        @Override
+                        public boolean rightOnly(S3Object restored) {
+                            if (!fromInventory)
+                                report.add(S3DiffReport.Difference.EXTRA, restored.key(), "");
+                            else
+                                return confirm(S3DiffReport.Difference.EXTRA, restored.key(), false);
+                            return true;
+                        }
+
+                        /**
+                         * Looks an object the inventory disagrees with up in production, reporting the difference only
+                         * if production still agrees with the inventory.
+                         */
+                        private boolean confirm(S3DiffReport.Difference difference, String key, boolean inInventory) {
+                            try {
+                                inFlight.acquire();
+                            } catch (InterruptedException e) {
+                                interrupted.set(true);
+                                return false;
+                            }
+                            inProduction(productionBucket, key).whenComplete((exists, e) -> {
+                                inFlight.release();
+                                if (e != null)
+                                    report.add(S3DiffReport.Difference.ERROR, key, String.valueOf(Util.unwrap(e).getMessage()));
+                                else if (exists == inInventory)
+                                    report.add(difference, key, "");
+                                else
+                                    sinceInventory.incrementAndGet();
+                            });
+                            return true;
+                        }
+
+                        private boolean record(S3Manifest.Entry original, CompletableFuture<String> sha256) {
+                            if (manifest == null)
+                                return true;
+                            try {
+                                manifest.record(original, sha256);
+                                return true;
+                            } catch (InterruptedException e) {
+                                interrupted.set(true);
+                                return false;
+                            } catch (IOException e) {
+                                manifestError.set(e);
+                                return false;
+                            }
+                        }
+                    });
+
+            // wait for the last escalated objects
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+            if (interrupted.get())
+                throw new InterruptedException("Interrupted validating S3 bucket " + restoredBucket);
+            if (manifestError.get() != null)
+                throw manifestError.get();
+
+            if (sample != null) {
+                int held = sample.held();
+                List<S3Sample.Pair> drawn = sample.draw();
+                logger.info("Checking a sample of {} objects of S3 bucket {}, drawn from {} held", drawn.size(), restoredBucket, held);
+                for (S3Sample.Pair pair : drawn) {
+                    inFlight.acquire();
+                    escalate(productionBucket, pair.original, downloads, clearedByAttributes, clearedByParts, hashed)
+                            .whenComplete((escalated, e) -> {
+                                inFlight.release();
+                                if (e != null) {
+                                    report.add(S3DiffReport.Difference.ERROR, pair.original.getKey(), String.valueOf(Util.unwrap(e).getMessage()));
+                                    return;
+                                }
+                                sample.result(pair, !escalated.equal);
+                                if (manifest != null && escalated.productionSha256 != null)
+                                    manifest.learned(pair.original.getKey(), escalated.productionSha256);
+                                if (!escalated.equal)
+                                    report.add(S3DiffReport.Difference.CHECKSUM_MISMATCH, pair.original.getKey(),
+                                            escalated.detail.isEmpty() ? "sampled" : "sampled, " + escalated.detail);
+                                else
+                                    escalated.matched(report);
+                            });
+                }
+                inFlight.acquire(maxInFlight);
+                inFlight.release(maxInFlight);
+                report.addNote(sample.estimate());
+                logger.info("S3 bucket {}: {}", restoredBucket, sample.estimate());
+            }
+            // finished after the sample, so the SHA-256s found checking it are kept
+            if (manifest != null)
+                manifest.finish();
+            if (sinceInventory.get() > 0) {
+                String note = sinceInventory.get() + " objects created or deleted in production since the S3 Inventory was made weren't compared";
+                report.addNote(note);
+                logger.info("S3 bucket {}: {}", restoredBucket, note);
+            }
+            if (rangeSampler != null && rangeSampler.summary() != null) {
+                report.addNote(rangeSampler.summary());
+                logger.info("S3 bucket {}: {}", restoredBucket, rangeSampler.summary());
+            }
+        } catch (InterruptedException | IOException | RuntimeException e) {
+            if (manifest != null)
+                manifest.abandon();
+            throw e;
+        } finally {
+            if (inventory != null)
+                inventory.close();
+            S3Listing.close(productionListing);
+            S3Listing.close(restoredListing);
         }
 
-        return s3Objects;
+        logger.info("S3 bucket {}: {} objects cleared by listing, {} by checksum, {} by part checksums, {} downloaded and hashed, {} used the manifest's checksum",
+                restoredBucket, clearedByListing.get(), clearedByAttributes.get(), clearedByParts.get(), hashed.get(), fromManifest.get());
+        return counts;
     }
 
     /**
-     * Cross-check the checksum values of each S3 object in the original S3 bucket and the restored S3 bucket.
-     * If all values match, return true; otherwise, false
-     * @return a boolean value of whether the checksums match
+     * Whether an object is in the production bucket now, asked with HeadObject.
+     * @param productionBucket String name of the production bucket
+     * @param key String key of the object
+     * @return CompletableFuture of whether the object exists
      */
-    public boolean ChecksumValidate() {
+    private CompletableFuture<Boolean> inProduction(String productionBucket, String key) {
+        return s3Async.headObject(HeadObjectRequest.builder().bucket(productionBucket).key(key).build())
+                .handle((response, e) -> {
+                    if (e == null)
+                        return true;
+                    Throwable cause = Util.unwrap(e);
+                    if (cause instanceof NoSuchKeyException
+                            || (cause instanceof S3Exception && ((S3Exception) cause).statusCode() == 404))
+                        return false;
+                    throw new CompletionException(cause);
+                });
+    }
 
-        // copy objects to get SHA-256 checksum values
-        CopyS3Objects();
+    /**
+     * Compares an object the listing couldn't decide, first by the checksums GetObjectAttributes returns, then part by
+     * part with a {@link S3PartCheck}, which only downloads the ranges it has to, and then, if neither can decide, by
+     * downloading and hashing both objects, or reading a few ranges of both with a {@link S3RangeSampler} if the
+     * object is large and range sampling is on.  If the SHA-256 of the production object is already
+     * known from the manifest only the restored object is checked, unless objects are hashed with something other than
+     * SHA-256 and have to be downloaded, in which case both are.  Both objects of a pair are downloaded at once.
+     *
+     * @param productionBucket String name of the production bucket
+     * @param original S3Manifest.Entry of the production object
+     * @param downloads Semaphore limiting the objects downloading at once
+     * @param clearedByAttributes AtomicLong counting objects decided by their checksums
+     * @param clearedByParts AtomicLong counting objects decided by their part checksums
+     * @param hashed AtomicLong counting objects downloaded and hashed
+     * @return CompletableFuture of the Escalation
+     */
+    private CompletableFuture<Escalation> escalate(String productionBucket, S3Manifest.Entry original, Semaphore downloads,
+                                                   AtomicLong clearedByAttributes, AtomicLong clearedByParts, AtomicLong hashed) {
+        String key = original.getKey();
+        CompletableFuture<GetObjectAttributesResponse> restored = s3Async.getObjectAttributes(attributesRequest(restoredBucket, key));
 
-        HashMap<String, String> originalObjs = GetS3Objects(instanceSettings.getProductionName());
-        HashMap<String, String> restoredObjs = GetS3Objects(restoredBucket);
+        if (original.getSha256() != null) {
+            String known = original.getSha256();
+            return restored.thenCompose(r -> {
+                String restoredSha256 = fullObjectSha256(r);
+                if (restoredSha256 != null) {
+                    clearedByAttributes.incrementAndGet();
+                    return CompletableFuture.completedFuture(new Escalation(known.equals(restoredSha256), known));
+                }
+                if (rangeSampler != null && rangeSampler.shouldSample(original.getSize()))
+                    return download(downloads, 2, () -> sampleRanges(productionBucket, key, original.getSize(), known));
+                hashed.incrementAndGet();
+                if (!hasher.isSha256())
+                    return download(downloads, 2, () -> hashBoth(productionBucket, key, original.getSize(), known));
+                return download(downloads, 1, () -> new Escalation(known.equals(hasher.hash(restoredBucket, key, original.getSize())), known));
+            });
+        }
 
-        logger.info("Validating S3 bucket {}", restoredBucket);
-        for (String key : originalObjs.keySet()){
-            if (restoredObjs.containsKey(key)){
-                // compare checksum value of the obj
-                if (!originalObjs.get(key).equals(restoredObjs.get(key))){
-                    logger.warn("The {} item in the restored bucket has a different checksum value than the original item.", key);
-                    return false;
+        CompletableFuture<GetObjectAttributesResponse> production = s3Async.getObjectAttributes(attributesRequest(productionBucket, key));
+        return production.thenCompose(o -> restored.thenCompose(r -> {
+            S3ObjectComparator.Result result = S3ObjectComparator.compare(
+                    S3ChecksumCollector.ObjectChecksum.of(key, o), S3ChecksumCollector.ObjectChecksum.of(key, r));
+            if (result != S3ObjectComparator.Result.UNKNOWN) {
+                clearedByAttributes.incrementAndGet();
+                return CompletableFuture.completedFuture(new Escalation(result == S3ObjectComparator.Result.MATCH, fullObjectSha256(o)));
+            }
+            return download(downloads, 2, () -> {
+                S3ObjectComparator.Result byParts = partCheck.compare(productionBucket, restoredBucket, key, o, r);
+                if (byParts != S3ObjectComparator.Result.UNKNOWN) {
+                    clearedByParts.incrementAndGet();
+                    return new Escalation(byParts == S3ObjectComparator.Result.MATCH, null);
                 }
-            } else {
-                logger.warn("{} is not present in the restored S3 bucket", key);
-                return false;
+                if (rangeSampler != null && rangeSampler.shouldSample(original.getSize()))
+                    return sampleRanges(productionBucket, key, original.getSize(), null);
+                hashed.incrementAndGet();
+                return hashBoth(productionBucket, key, original.getSize(), null);
+            });
+        }));
+    }
+
+    /**
+     * Compares a few byte ranges of the production and restored objects, see {@link S3RangeSampler}.
+     * @param known String SHA-256 of the production object already known
+     */
+    private Escalation sampleRanges(String productionBucket, String key, long size, String known) {
+        String difference = rangeSampler.compare(productionBucket, restoredBucket, key, size);
+        return new Escalation(difference == null, known, difference == null ? "" : difference, true);
+    }
+
+    /**
+     * Downloads and hashes the production and restored objects at the same time.
+     * @param known String SHA-256 of the production object already known, kept if the hash isn't SHA-256
+     */
+    private Escalation hashBoth(String productionBucket, String key, long size, String known) {
+        CompletableFuture<String> production = Util.supplyAsync(() -> hasher.hash(productionBucket, key, size));
+        String restored = hasher.hash(restoredBucket, key, size);
+        String productionHash;
+        try {
+            productionHash = production.join();
+        } catch (CompletionException e) {
+            Throwable cause = Util.unwrap(e);
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw e;
+        }
+        return new Escalation(productionHash.equals(restored), hasher.isSha256() ? productionHash : known);
+    }
+
+    /**
+     * Runs a comparison that downloads once there is room for its objects.
+     * @param objects int number of objects it downloads at once, two if both objects of a pair are
+     */
+    private CompletableFuture<Escalation> download(Semaphore downloads, int objects, Callable<Escalation> hash) {
+        return Util.supplyAsync(() -> {
+            downloads.acquire(objects);
+            try {
+                return hash.call();
+            } finally {
+                downloads.release(objects);
             }
+        });
+    }
+
+    /**
+     * The SHA-256 of a whole object from its attributes.  The checksum of a multipart upload is built from the
+     * checksums of its parts, so it isn't one.
+     * @param attributes GetObjectAttributesResponse of the object
+     * @return String of the SHA-256, null if the object doesn't have one
+     */
+    private static String fullObjectSha256(GetObjectAttributesResponse attributes) {
+        if (attributes.checksum() == null || attributes.checksum().checksumSHA256() == null)
+            return null;
+        if (attributes.objectParts() != null && attributes.objectParts().totalPartsCount() != null
+                && attributes.objectParts().totalPartsCount() > 1)
+            return null;
+        return attributes.checksum().checksumSHA256();
+    }
+
+    /**
+     * Whether an escalated object matched, and the SHA-256 of the production object if it was found.
+     */
+    private static final class Escalation {
+        final boolean equal;
+        final String productionSha256;
+        final String detail;
+        final boolean rangeSampled;
+
+        Escalation(boolean equal, String productionSha256) {
+            this(equal, productionSha256, "");
         }
-        return true;
+
+        Escalation(boolean equal, String productionSha256, String detail) {
+            this(equal, productionSha256, detail, false);
+        }
+
+        Escalation(boolean equal, String productionSha256, String detail, boolean rangeSampled) {
+            this.equal = equal;
+            this.productionSha256 = productionSha256;
+            this.detail = detail;
+            this.rangeSampled = rangeSampled;
+        }
+
+        /**
+         * Counts a match in the report, apart from full matches if only byte ranges were compared.
+         */
+        void matched(S3DiffReport report) {
+            if (rangeSampled)
+                report.sampledMatched();
+            else
+                report.matched();
+        }
+    }
+
+    private static GetObjectAttributesRequest attributesRequest(String bucketName, String key) {
+        return GetObjectAttributesRequest.builder().bucket(bucketName).key(key)
+                .objectAttributes(ObjectAttributes.OBJECT_PARTS, ObjectAttributes.CHECKSUM,
+                        ObjectAttributes.E_TAG, ObjectAttributes.OBJECT_SIZE).build();
+    }
+
+    private void logThroughput(long compared, long collected, long start) {
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        logger.info("Compared {} objects of S3 bucket {} at {} objects/sec", compared,
+                restoredBucket, String.format("%.1f", collected / seconds));
     }
-}
\ No newline at end of file
+}
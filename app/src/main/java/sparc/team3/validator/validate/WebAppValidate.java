@@ -33,6 +33,7 @@ public class WebAppValidate implements Callable<Boolean> {
     private final Instance instance;
     private final Logger logger;
     private final SeleniumSettings settings;
+    private static boolean chromeDriverSetup = false;
 
 
     public WebAppValidate(Instance instance, SeleniumSettings settings) {
@@ -52,6 +53,17 @@ public class WebAppValidate implements Callable<Boolean> {
         return validateWebFunctionality();
     }
 
+    /**
+     * Downloads and sets up the chrome driver the first time it is needed, every later validation in this
+     * process reuses it.
+     */
+    private static synchronized void setupChromeDriver() {
+        if (!chromeDriverSetup) {
+            WebDriverManager.chromedriver().setup();
+            chromeDriverSetup = true;
+        }
+    }
+
     /**
      * Validates web app functionality based on user input.
      * <p>
@@ -77,7 +89,7 @@ public class WebAppValidate implements Callable<Boolean> {
         options.addArguments("--disable-dev-shm-usage");
 
         //CHRIS: UPDATE FILE PATH HERE
-        WebDriverManager.chromedriver().setup();
+        setupChromeDriver();
         ChromeDriverService service = new ChromeDriverService.Builder()
                 //.usingDriverExecutable(new File("/home/sparcDev/chromedriver"))
                 .build();
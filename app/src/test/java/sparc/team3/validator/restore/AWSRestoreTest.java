@@ -0,0 +1,148 @@
+package sparc.team3.validator.restore;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.backup.model.RecoveryPointByBackupVault;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AWSRestoreTest {
+    private static final long TIMEOUT_SECONDS = 10;
+
+    /**
+     * A restore of strings whose restores finish when the test completes them.
+     */
+    private static final class FakeRestore extends AWSRestore<String> {
+        final Map<String, CompletableFuture<String>> results = new ConcurrentHashMap<>();
+        final List<String> started = Collections.synchronizedList(new ArrayList<>());
+        final List<String> tornDown = Collections.synchronizedList(new ArrayList<>());
+
+        FakeRestore(String... newestFirst) {
+            super(null, null, null, "EC2");
+            recoveryPoints = new TreeSet<>(new RecoveryPointDateComparator());
+            Instant created = Instant.now();
+            for (String name : newestFirst) {
+                recoveryPoints.add(RecoveryPointByBackupVault.builder().recoveryPointArn(name).creationDate(created).build());
+                results.put(name, new CompletableFuture<>());
+                created = created.minusSeconds(60);
+            }
+            recoveryPointSetIterator = recoveryPoints.iterator();
+        }
+
+        @Override
+        String restore(RecoveryPointByBackupVault recoveryPoint) throws Exception {
+            started.add(recoveryPoint.recoveryPointArn());
+            try {
+                return results.get(recoveryPoint.recoveryPointArn()).get();
+            } catch (ExecutionException e) {
+                throw (Exception) e.getCause();
+            }
+        }
+
+        @Override
+        void tearDown(String restored) {
+            tornDown.add(restored);
+        }
+
+        @Override
+        Map<String, String> setMetadata(RecoveryPointByBackupVault recoveryPoint) {
+            return Map.of();
+        }
+
+        Future<String> start() {
+            FutureTask<String> call = new FutureTask<>(this);
+            Thread thread = new Thread(call);
+            thread.setDaemon(true);
+            thread.start();
+            return call;
+        }
+
+        void awaitStarted(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (started.size() < count && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            assertEquals(count, started.size());
+        }
+    }
+
+    private static long deadline() {
+        return System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+    }
+
+    @Test
+    void returnsTheFirstRestoreToFinishAndTearsDownTheOther() throws Exception {
+        FakeRestore restore = new FakeRestore("newest", "older");
+        restore.setSpeculativeRestores(2);
+        Future<String> first = restore.start();
+        restore.awaitStarted(2);
+
+        restore.results.get("older").complete("restored older");
+        assertEquals("restored older", first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("older", restore.getCurrentRecoveryPoint().recoveryPointArn());
+
+        restore.results.get("newest").complete("restored newest");
+        assertTrue(restore.awaitRestores(deadline()));
+        assertEquals(List.of("restored newest"), restore.tornDown);
+    }
+
+    @Test
+    void replacesAFailedRestoreWithTheNextRecoveryPoint() throws Exception {
+        FakeRestore restore = new FakeRestore("newest", "older", "oldest");
+        restore.setSpeculativeRestores(2);
+        Future<String> first = restore.start();
+        restore.awaitStarted(2);
+
+        restore.results.get("newest").completeExceptionally(new IllegalStateException("failed"));
+        restore.awaitStarted(3);
+        restore.results.get("oldest").complete("restored oldest");
+        assertEquals("restored oldest", first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        restore.results.get("older").complete(null);
+        assertTrue(restore.awaitRestores(deadline()));
+        assertEquals(List.of(), restore.tornDown);
+    }
+
+    @Test
+    void throwsTheLastFailureOnceEveryRestoreHasFailed() throws Exception {
+        FakeRestore restore = new FakeRestore("newest", "older");
+        restore.setSpeculativeRestores(2);
+        Future<String> first = restore.start();
+        restore.awaitStarted(2);
+
+        restore.results.get("newest").completeExceptionally(new IllegalStateException("first"));
+        restore.results.get("older").completeExceptionally(new IllegalStateException("second"));
+
+        ExecutionException thrown = assertThrows(ExecutionException.class, () -> first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(thrown.getCause() instanceof IllegalStateException);
+        assertEquals(null, restore.getCurrentRecoveryPoint());
+    }
+
+    @Test
+    void returnsNullWhenTheOnlyRestoreDoesNotComplete() throws Exception {
+        FakeRestore restore = new FakeRestore("newest", "older");
+        Future<String> first = restore.start();
+        restore.awaitStarted(1);
+
+        restore.results.get("newest").complete(null);
+        assertEquals(null, first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(List.of("newest"), restore.started);
+    }
+
+    @Test
+    void reportsRestoresStillRunningAtTheDeadline() throws Exception {
+        FakeRestore restore = new FakeRestore("newest", "older");
+        restore.setSpeculativeRestores(2);
+        Future<String> first = restore.start();
+        restore.awaitStarted(2);
+
+        restore.results.get("newest").complete("restored newest");
+        assertEquals("restored newest", first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(restore.awaitRestores(System.nanoTime()));
+
+        restore.results.get("older").complete(null);
+        assertTrue(restore.awaitRestores(deadline()));
+    }
+}
@@ -0,0 +1,179 @@
+package sparc.team3.validator.restore;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.backup.BackupClient;
+import software.amazon.awssdk.services.backup.model.BackupException;
+import software.amazon.awssdk.services.backup.model.CalculatedLifecycle;
+import software.amazon.awssdk.services.backup.model.ListRecoveryPointsByBackupVaultRequest;
+import software.amazon.awssdk.services.backup.model.ListRecoveryPointsByBackupVaultResponse;
+import software.amazon.awssdk.services.backup.model.RecoveryPointByBackupVault;
+import software.amazon.awssdk.services.backup.paginators.ListRecoveryPointsByBackupVaultIterable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecoveryPointCatalogTest {
+    private static final String VAULT = "vault";
+
+    private Path dir;
+    private Path catalogFile;
+
+    /**
+     * Returns a fixed set of recovery points, only those created after the request's byCreatedAfter, and keeps the
+     * requests it was sent.
+     */
+    private static final class FakeBackup implements BackupClient {
+        final List<RecoveryPointByBackupVault> recoveryPoints = new ArrayList<>();
+        final List<ListRecoveryPointsByBackupVaultRequest> requests = new ArrayList<>();
+        boolean failing = false;
+
+        @Override
+        public ListRecoveryPointsByBackupVaultResponse listRecoveryPointsByBackupVault(ListRecoveryPointsByBackupVaultRequest request) {
+            requests.add(request);
+            if (failing)
+                throw BackupException.builder().message("unreachable").build();
+            return ListRecoveryPointsByBackupVaultResponse.builder().recoveryPoints(recoveryPoints.stream()
+                    .filter(point -> request.byCreatedAfter() == null || point.creationDate().isAfter(request.byCreatedAfter()))
+                    .collect(Collectors.toList())).build();
+        }
+
+        @Override
+        public ListRecoveryPointsByBackupVaultIterable listRecoveryPointsByBackupVaultPaginator(ListRecoveryPointsByBackupVaultRequest request) {
+            return new ListRecoveryPointsByBackupVaultIterable(this, request);
+        }
+
+        @Override
+        public String serviceName() {
+            return "backup";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static RecoveryPointByBackupVault point(String name, Instant created, String status, Instant deleteAt) {
+        return RecoveryPointByBackupVault.builder().recoveryPointArn("arn:" + name).backupVaultName(VAULT)
+                .resourceType("EC2").status(status).creationDate(created)
+                .calculatedLifecycle(deleteAt == null ? null : CalculatedLifecycle.builder().deleteAt(deleteAt).build())
+                .build();
+    }
+
+    private static List<String> arns(List<RecoveryPointByBackupVault> recoveryPoints) {
+        return recoveryPoints.stream().map(RecoveryPointByBackupVault::recoveryPointArn).collect(Collectors.toList());
+    }
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("catalog-test");
+        catalogFile = dir.resolve(RecoveryPointCatalog.CATALOG_FILENAME);
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator)
+                Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    void listsTheWholeVaultTheFirstTime() {
+        Instant now = Instant.now();
+        FakeBackup backup = new FakeBackup();
+        backup.recoveryPoints.add(point("old", now.minus(Duration.ofDays(3)), "COMPLETED", null));
+        backup.recoveryPoints.add(point("new", now.minus(Duration.ofDays(1)), "COMPLETED", null));
+
+        List<RecoveryPointByBackupVault> found = new RecoveryPointCatalog(backup, catalogFile).query(VAULT, null, null, null);
+
+        assertEquals(List.of("arn:new", "arn:old"), arns(found));
+        assertEquals(1, backup.requests.size());
+        assertEquals(null, backup.requests.get(0).byCreatedAfter());
+        assertTrue(Files.exists(catalogFile));
+    }
+
+    @Test
+    void mergesRecoveryPointsCreatedSinceTheLastSync() {
+        Instant now = Instant.now();
+        FakeBackup backup = new FakeBackup();
+        backup.recoveryPoints.add(point("old", now.minus(Duration.ofDays(10)), "COMPLETED", null));
+        new RecoveryPointCatalog(backup, catalogFile).query(VAULT, null, null, null);
+
+        backup.recoveryPoints.add(point("new", now.plus(Duration.ofMinutes(1)), "COMPLETED", null));
+        backup.requests.clear();
+        List<RecoveryPointByBackupVault> found = new RecoveryPointCatalog(backup, catalogFile).query(VAULT, null, null, null);
+
+        assertEquals(List.of("arn:new", "arn:old"), arns(found));
+        Instant since = backup.requests.get(0).byCreatedAfter();
+        assertTrue(since != null, "incremental sync");
+        assertFalse(since.isBefore(now.truncatedTo(ChronoUnit.SECONDS).minus(RecoveryPointCatalog.SYNC_OVERLAP)));
+        assertTrue(since.isBefore(now.minus(RecoveryPointCatalog.SYNC_OVERLAP).plusSeconds(1)));
+    }
+
+    @Test
+    void listsAgainFromARecoveryPointStillBeingCreated() {
+        Instant now = Instant.now();
+        Instant creating = now.minus(Duration.ofDays(3));
+        FakeBackup backup = new FakeBackup();
+        backup.recoveryPoints.add(point("creating", creating, "CREATING", null));
+        new RecoveryPointCatalog(backup, catalogFile).query(VAULT, null, null, null);
+
+        backup.recoveryPoints.set(0, point("creating", creating, "COMPLETED", null));
+        backup.requests.clear();
+        List<RecoveryPointByBackupVault> found = new RecoveryPointCatalog(backup, catalogFile).query(VAULT, null, null, "COMPLETED");
+
+        assertTrue(backup.requests.get(0).byCreatedAfter().isBefore(creating));
+        assertEquals(List.of("arn:creating"), arns(found));
+    }
+
+    @Test
+    void dropsRecoveryPointsPastTheirLifecycle() {
+        Instant now = Instant.now();
+        FakeBackup backup = new FakeBackup();
+        backup.recoveryPoints.add(point("expired", now.minus(Duration.ofDays(40)), "COMPLETED", now.minus(Duration.ofDays(5))));
+        backup.recoveryPoints.add(point("kept", now.minus(Duration.ofDays(2)), "COMPLETED", now.plus(Duration.ofDays(30))));
+
+        List<RecoveryPointByBackupVault> found = new RecoveryPointCatalog(backup, catalogFile).query(VAULT, null, null, null);
+
+        assertEquals(List.of("arn:kept"), arns(found));
+    }
+
+    @Test
+    void filtersByTypeAgeAndStatus() {
+        Instant now = Instant.now();
+        FakeBackup backup = new FakeBackup();
+        backup.recoveryPoints.add(point("recent", now.minus(Duration.ofDays(1)), "COMPLETED", null));
+        backup.recoveryPoints.add(point("aged", now.minus(Duration.ofDays(20)), "COMPLETED", null));
+        backup.recoveryPoints.add(point("partial", now.minus(Duration.ofDays(2)), "PARTIAL", null));
+        RecoveryPointCatalog catalog = new RecoveryPointCatalog(backup, catalogFile);
+
+        assertEquals(List.of("arn:recent"), arns(catalog.query(VAULT, "EC2", Duration.ofDays(7), "COMPLETED")));
+        assertEquals(List.of(), arns(catalog.query(VAULT, "RDS", null, null)));
+    }
+
+    @Test
+    void usesTheSavedCatalogWhenAwsCannotBeReached() {
+        Instant now = Instant.now();
+        FakeBackup backup = new FakeBackup();
+        backup.recoveryPoints.add(point("saved", now.minus(Duration.ofDays(1)), "COMPLETED", null));
+        new RecoveryPointCatalog(backup, catalogFile).query(VAULT, null, null, null);
+
+        backup.failing = true;
+        List<RecoveryPointByBackupVault> found = new RecoveryPointCatalog(backup, catalogFile).query(VAULT, null, null, null);
+
+        assertEquals(List.of("arn:saved"), arns(found));
+    }
+}
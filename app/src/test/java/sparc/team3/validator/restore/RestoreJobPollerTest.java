@@ -0,0 +1,57 @@
+package sparc.team3.validator.restore;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RestoreJobPollerTest {
+    private static RestoreJobPoller.RestoreJob job(String percentDone) {
+        return new RestoreJobPoller.RestoreJob("job", "RUNNING", percentDone, null, null);
+    }
+
+    @Test
+    void estimatesRemainingTimeFromProgress() {
+        assertEquals(Duration.ofMinutes(30), RestoreJobPoller.remaining(Duration.ofMinutes(10), 25, null));
+        assertEquals(Duration.ofMinutes(30), RestoreJobPoller.remaining(Duration.ofMinutes(10), 25, Duration.ofHours(5)));
+    }
+
+    @Test
+    void estimatesRemainingTimeFromPastRestoresWithoutProgress() {
+        assertEquals(Duration.ofMinutes(50), RestoreJobPoller.remaining(Duration.ofMinutes(10), 0, Duration.ofHours(1)));
+        assertEquals(Duration.ofMinutes(50), RestoreJobPoller.remaining(Duration.ofMinutes(10), 100, Duration.ofHours(1)));
+    }
+
+    @Test
+    void estimatesTwiceTheDefaultIntervalWithNothingToGoOn() {
+        assertEquals(RestoreJobPoller.DEFAULT_INTERVAL.multipliedBy(2),
+                RestoreJobPoller.remaining(Duration.ofMinutes(10), 0, null));
+    }
+
+    @Test
+    void checksAgainAtHalfTheShortestRemainingTime() {
+        assertEquals(Duration.ofMinutes(2), RestoreJobPoller.intervalFor(Duration.ofMinutes(4)));
+    }
+
+    @Test
+    void keepsTheIntervalBetweenTheLimits() {
+        assertEquals(RestoreJobPoller.MIN_INTERVAL, RestoreJobPoller.intervalFor(Duration.ofSeconds(10)));
+        assertEquals(RestoreJobPoller.MIN_INTERVAL, RestoreJobPoller.intervalFor(Duration.ofMinutes(-5)));
+        assertEquals(RestoreJobPoller.MAX_INTERVAL, RestoreJobPoller.intervalFor(Duration.ofHours(3)));
+        assertEquals(RestoreJobPoller.DEFAULT_INTERVAL, RestoreJobPoller.intervalFor(null));
+    }
+
+    @Test
+    void readsPercentDoneAsReportedByAws() {
+        assertEquals(42.5, job("42.50%").getPercentDoneValue(), 1e-9);
+        assertEquals(7.0, job(" 7 ").getPercentDoneValue(), 1e-9);
+    }
+
+    @Test
+    void readsUnknownPercentDoneAsZero() {
+        assertEquals(0.0, job(null).getPercentDoneValue(), 1e-9);
+        assertEquals(0.0, job("").getPercentDoneValue(), 1e-9);
+        assertEquals(0.0, job("n/a").getPercentDoneValue(), 1e-9);
+    }
+}
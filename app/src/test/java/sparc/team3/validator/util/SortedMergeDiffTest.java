@@ -0,0 +1,96 @@
+package sparc.team3.validator.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SortedMergeDiffTest {
+    /**
+     * Records every call in order, as "both a", "left b" or "right c".
+     */
+    private static final class Recorder implements SortedMergeDiff.Handler<String, String> {
+        final List<String> calls = new ArrayList<>();
+        final int stopAfter;
+
+        Recorder(int stopAfter) {
+            this.stopAfter = stopAfter;
+        }
+
+        private boolean record(String call) {
+            calls.add(call);
+            return calls.size() < stopAfter;
+        }
+
+        @Override
+        public boolean both(String left, String right) {
+            return record("both " + left);
+        }
+
+        @Override
+        public boolean leftOnly(String left) {
+            return record("left " + left);
+        }
+
+        @Override
+        public boolean rightOnly(String right) {
+            return record("right " + right);
+        }
+    }
+
+    private static SortedMergeDiff.Counts diff(List<String> left, List<String> right, Recorder recorder) {
+        return new SortedMergeDiff<>(left.iterator(), Function.identity(), right.iterator(), Function.identity(),
+                Comparator.<String>naturalOrder()).run(recorder);
+    }
+
+    @Test
+    void reportsEachKeyInOrder() {
+        Recorder recorder = new Recorder(Integer.MAX_VALUE);
+        SortedMergeDiff.Counts counts = diff(Arrays.asList("a", "b", "d", "f"), Arrays.asList("b", "c", "d", "g"), recorder);
+
+        assertEquals(Arrays.asList("left a", "both b", "right c", "both d", "left f", "right g"), recorder.calls);
+        assertEquals(2, counts.getBoth());
+        assertEquals(2, counts.getLeftOnly());
+        assertEquals(2, counts.getRightOnly());
+        assertFalse(counts.isStopped());
+    }
+
+    @Test
+    void drainsTheLongerSource() {
+        Recorder recorder = new Recorder(Integer.MAX_VALUE);
+        SortedMergeDiff.Counts counts = diff(Collections.emptyList(), Arrays.asList("a", "b"), recorder);
+
+        assertEquals(Arrays.asList("right a", "right b"), recorder.calls);
+        assertEquals(0, counts.getLeftOnly());
+        assertEquals(2, counts.getRightOnly());
+
+        recorder = new Recorder(Integer.MAX_VALUE);
+        counts = diff(Arrays.asList("a", "b"), Collections.emptyList(), recorder);
+        assertEquals(Arrays.asList("left a", "left b"), recorder.calls);
+        assertEquals(2, counts.getLeftOnly());
+    }
+
+    @Test
+    void stopsWhenTheHandlerAsks() {
+        Recorder recorder = new Recorder(2);
+        SortedMergeDiff.Counts counts = diff(Arrays.asList("a", "b", "c"), Arrays.asList("a", "b", "c"), recorder);
+
+        assertEquals(Arrays.asList("both a", "both b"), recorder.calls);
+        assertEquals(2, counts.getBoth());
+        assertTrue(counts.isStopped());
+    }
+
+    @Test
+    void rejectsUnsortedSources() {
+        assertThrows(IllegalStateException.class,
+                () -> diff(Arrays.asList("a", "c", "b"), Arrays.asList("a", "b", "c"), new Recorder(Integer.MAX_VALUE)));
+        assertThrows(IllegalStateException.class,
+                () -> diff(Arrays.asList("a", "b"), Arrays.asList("b", "b"), new Recorder(Integer.MAX_VALUE)));
+    }
+}
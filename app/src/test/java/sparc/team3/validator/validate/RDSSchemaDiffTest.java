@@ -0,0 +1,87 @@
+package sparc.team3.validator.validate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RDSSchemaDiffTest {
+    private static Map<RDSSchemaDiff.Row, List<String>> rows(RDSSchemaDiff.Aspect aspect, List<List<String>> read) {
+        Map<RDSSchemaDiff.Row, List<String>> rows = new HashMap<>();
+        for (List<String> row : read)
+            RDSSchemaDiff.add(rows, aspect, row);
+        return rows;
+    }
+
+    @Test
+    void findsNoDifferencesInTheSameSchema() {
+        List<List<String>> columns = List.of(
+                List.of("users", "id", "1", "int(11)", "NO"),
+                List.of("users", "name", "2", "varchar(64)", "YES"));
+
+        assertEquals(Map.of(), RDSSchemaDiff.diff(rows(RDSSchemaDiff.Aspect.COLUMN, columns),
+                rows(RDSSchemaDiff.Aspect.COLUMN, columns)));
+    }
+
+    @Test
+    void keysRowsByTableAndKeyColumns() {
+        Map<RDSSchemaDiff.Row, List<String>> production = rows(RDSSchemaDiff.Aspect.INDEX, List.of(
+                List.of("users", "PRIMARY", "1", "id", "0"),
+                List.of("orders", "PRIMARY", "1", "id", "0")));
+        Map<RDSSchemaDiff.Row, List<String>> restored = rows(RDSSchemaDiff.Aspect.INDEX, List.of(
+                List.of("orders", "PRIMARY", "1", "id", "0"),
+                List.of("users", "PRIMARY", "1", "id", "1")));
+
+        assertEquals(Map.of("users", List.of("index PRIMARY #1 is [id, 1] in the restored database, [id, 0] in production")),
+                RDSSchemaDiff.diff(production, restored));
+    }
+
+    @Test
+    void reportsRowsOnlyOnOneSide() {
+        Map<RDSSchemaDiff.Row, List<String>> production = rows(RDSSchemaDiff.Aspect.COLUMN, List.of(
+                List.of("users", "id", "1", "int(11)"),
+                List.of("users", "email", "2", "varchar(64)")));
+        Map<RDSSchemaDiff.Row, List<String>> restored = rows(RDSSchemaDiff.Aspect.COLUMN, List.of(
+                List.of("users", "id", "1", "int(11)"),
+                List.of("users", "mail", "2", "varchar(64)")));
+
+        Map<String, List<String>> differences = RDSSchemaDiff.diff(production, restored);
+        assertEquals(List.of("column email is missing from the restored database",
+                "column mail is only in the restored database"), differences.get("users"));
+    }
+
+    @Test
+    void keysATableRowByItsTableAlone() {
+        Map<RDSSchemaDiff.Row, List<String>> production = rows(RDSSchemaDiff.Aspect.TABLE, List.of(
+                List.of("users", "BASE TABLE", "InnoDB")));
+        Map<RDSSchemaDiff.Row, List<String>> restored = rows(RDSSchemaDiff.Aspect.TABLE, List.of(
+                List.of("users", "BASE TABLE", "MyISAM")));
+
+        assertEquals(Map.of("users", List.of("table is [BASE TABLE, MyISAM] in the restored database, [BASE TABLE, InnoDB] in production")),
+                RDSSchemaDiff.diff(production, restored));
+    }
+
+    @Test
+    void keepsTheSameKeyOfDifferentAspectsApart() {
+        Map<RDSSchemaDiff.Row, List<String>> production = rows(RDSSchemaDiff.Aspect.INDEX, List.of(
+                List.of("users", "fk_team", "1", "team_id")));
+        Map<RDSSchemaDiff.Row, List<String>> restored = rows(RDSSchemaDiff.Aspect.CONSTRAINT, List.of(
+                List.of("users", "fk_team", "1", "team_id")));
+
+        assertEquals(2, RDSSchemaDiff.diff(production, restored).get("users").size());
+    }
+
+    @Test
+    void comparesNullValues() {
+        Map<RDSSchemaDiff.Row, List<String>> production = rows(RDSSchemaDiff.Aspect.COLUMN, List.of(
+                Arrays.asList("users", "name", "2", "varchar(64)", null)));
+        Map<RDSSchemaDiff.Row, List<String>> restored = rows(RDSSchemaDiff.Aspect.COLUMN, List.of(
+                Arrays.asList("users", "name", "2", "varchar(64)", "''")));
+
+        assertEquals(1, RDSSchemaDiff.diff(production, restored).get("users").size());
+    }
+}
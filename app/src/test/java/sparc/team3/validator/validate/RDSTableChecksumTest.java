@@ -0,0 +1,72 @@
+package sparc.team3.validator.validate;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RDSTableChecksumTest {
+    /**
+     * A PreparedStatement that only keeps what setObject is called with, as "index=value".
+     */
+    private static PreparedStatement recording(List<String> bound) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("setObject"))
+                        throw new UnsupportedOperationException(method.getName());
+                    bound.add(args[0] + "=" + args[1]);
+                    return null;
+                });
+    }
+
+    @Test
+    void selectsTheWholeTableWithoutBounds() {
+        assertEquals("", RDSTableChecksum.range(List.of("id"), null, null));
+    }
+
+    @Test
+    void selectsKeysAfterTheLowerBoundUpToTheUpperBound() {
+        Object[] bound = {1};
+        assertEquals(" WHERE (`id`) > (?)", RDSTableChecksum.range(List.of("id"), bound, null));
+        assertEquals(" WHERE (`id`) <= (?)", RDSTableChecksum.range(List.of("id"), null, bound));
+        assertEquals(" WHERE (`id`) > (?) AND (`id`) <= (?)", RDSTableChecksum.range(List.of("id"), bound, bound));
+    }
+
+    @Test
+    void comparesCompositeKeysAsTuples() {
+        Object[] bound = {1, "a"};
+        assertEquals(" WHERE (`tenant`, `na``me`) > (?, ?) AND (`tenant`, `na``me`) <= (?, ?)",
+                RDSTableChecksum.range(List.of("tenant", "na`me"), bound, bound));
+    }
+
+    @Test
+    void bindsTheLowerBoundThenTheUpperBound() throws SQLException {
+        List<String> bound = new ArrayList<>();
+        int next = RDSTableChecksum.bind(recording(bound), 1, new Object[]{1, "a"}, new Object[]{2, "b"});
+
+        assertEquals(List.of("1=1", "2=a", "3=2", "4=b"), bound);
+        assertEquals(5, next);
+    }
+
+    @Test
+    void bindsOnlyTheBoundsGiven() throws SQLException {
+        List<String> bound = new ArrayList<>();
+        assertEquals(3, RDSTableChecksum.bind(recording(bound), 2, null, new Object[]{7}));
+        assertEquals(List.of("2=7"), bound);
+
+        bound.clear();
+        assertEquals(1, RDSTableChecksum.bind(recording(bound), 1, null, null));
+        assertEquals(List.of(), bound);
+    }
+
+    @Test
+    void hashesEveryColumnAndWhetherItIsNull() {
+        assertEquals("CRC32(CONCAT_WS('#', `id`, `name`, CONCAT(ISNULL(`id`), ISNULL(`name`))))",
+                RDSTableChecksum.rowHash(List.of("id", "name")));
+    }
+}
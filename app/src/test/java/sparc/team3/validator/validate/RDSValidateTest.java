@@ -0,0 +1,97 @@
+package sparc.team3.validator.validate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RDSValidateTest {
+    private static final long MIB = RDSValidate.MIB;
+
+    /**
+     * Checks EXTENDED below 10 MiB and QUICK from 1000 MiB.
+     */
+    private static RDSValidate.CheckDatabases database() {
+        return new RDSValidate.CheckDatabases("db", null, null, null, 1, false, 1, 1, 10, 1000);
+    }
+
+    private static List<List<String>> names(List<List<RDSValidate.Table>> batches) {
+        return batches.stream().map(batch -> batch.stream().map(table -> table.name).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void choosesTheCheckModeBySize() {
+        RDSValidate.CheckDatabases database = database();
+        assertEquals(RDSValidate.CheckMode.EXTENDED, database.checkMode(0));
+        assertEquals(RDSValidate.CheckMode.EXTENDED, database.checkMode(10 * MIB - 1));
+        assertEquals(RDSValidate.CheckMode.MEDIUM, database.checkMode(10 * MIB));
+        assertEquals(RDSValidate.CheckMode.MEDIUM, database.checkMode(1000 * MIB - 1));
+        assertEquals(RDSValidate.CheckMode.QUICK, database.checkMode(1000 * MIB));
+    }
+
+    @Test
+    void batchesTablesOfTheSameModeTogether() {
+        List<RDSValidate.Table> tables = List.of(
+                new RDSValidate.Table("huge", 2000 * MIB),
+                new RDSValidate.Table("medium", 50 * MIB),
+                new RDSValidate.Table("small", 5 * MIB),
+                new RDSValidate.Table("smaller", MIB),
+                new RDSValidate.Table("medium2", 20 * MIB),
+                new RDSValidate.Table("empty", 0));
+
+        assertEquals(List.of(List.of("huge"), List.of("medium", "medium2"), List.of("small", "smaller", "empty")),
+                names(database().checkBatches(tables)));
+    }
+
+    @Test
+    void startsANewBatchPastTheTableLimit() {
+        List<RDSValidate.Table> tables = new ArrayList<>();
+        for (int i = 0; i < RDSValidate.CHECK_BATCH_TABLES + 1; i++)
+            tables.add(new RDSValidate.Table("t" + i, 0));
+
+        List<List<RDSValidate.Table>> batches = database().checkBatches(tables);
+        assertEquals(2, batches.size());
+        assertEquals(RDSValidate.CHECK_BATCH_TABLES, batches.get(0).size());
+        assertEquals(1, batches.get(1).size());
+    }
+
+    @Test
+    void startsANewBatchPastTheSizeLimit() {
+        long third = RDSValidate.CHECK_BATCH_MIB * MIB / 3;
+        List<RDSValidate.Table> tables = List.of(
+                new RDSValidate.Table("a", third + 1),
+                new RDSValidate.Table("b", third + 1),
+                new RDSValidate.Table("c", third + 1),
+                new RDSValidate.Table("d", third));
+
+        assertEquals(List.of(List.of("a", "b"), List.of("c", "d")), names(database().checkBatches(tables)));
+    }
+
+    @Test
+    void checksATableOverTheSizeLimitAlone() {
+        List<RDSValidate.Table> tables = List.of(
+                new RDSValidate.Table("big", (RDSValidate.CHECK_BATCH_MIB + 1) * MIB),
+                new RDSValidate.Table("next", 20 * MIB));
+
+        assertEquals(List.of(List.of("big"), List.of("next")), names(database().checkBatches(tables)));
+    }
+
+    @Test
+    void sizesThePoolsForEveryTableCheckedAtOnce() {
+        // 2 databases of 4 tables, each on 2 connections, and one for CHECK TABLE
+        assertEquals(17, RDSValidate.poolSize(100, 2, 4, false, 8));
+        // a checksummed table also uses one connection for each chunk and one walking its keys
+        assertEquals(2 * 4 * 10 + 1, RDSValidate.poolSize(100, 2, 4, true, 8));
+    }
+
+    @Test
+    void keepsThePoolsBetweenTheDefaultAndTheLimit() {
+        assertEquals(RDSValidate.DEFAULT_POOL_SIZE, RDSValidate.poolSize(100, 1, 1, false, 1));
+        assertEquals(40, RDSValidate.poolSize(40, 10, 8, true, 4));
+        assertEquals(5, RDSValidate.poolSize(5, 1, 1, false, 1));
+    }
+}
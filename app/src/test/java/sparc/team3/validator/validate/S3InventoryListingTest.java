@@ -0,0 +1,72 @@
+package sparc.team3.validator.validate;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3InventoryListingTest {
+    private Path dir;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("inventory-test");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+
+    private void write(String... dataFiles) throws IOException {
+        StringBuilder files = new StringBuilder();
+        for (int i = 0; i < dataFiles.length; i++) {
+            String name = "data/" + i + ".csv.gz";
+            Files.createDirectories(dir.resolve("data"));
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(dir.resolve(name)));
+                 Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                writer.write(dataFiles[i]);
+            }
+            files.append(i == 0 ? "" : ",").append("{\"key\":\"").append(name).append("\"}");
+        }
+        Files.writeString(dir.resolve("manifest.json"), "{\"sourceBucket\":\"production\",\"fileFormat\":\"CSV\","
+                + "\"fileSchema\":\"Bucket, Key, Size, ETag\",\"files\":[" + files + "]}");
+    }
+
+    @Test
+    void mergesDataFilesInKeyOrder() throws IOException {
+        write("\"production\",\"a\",\"1\",\"e1\"\n\"production\",\"c\",\"3\",\"e3\"\n",
+                "\"production\",\"b\",\"2\",\"e2\"\n\"production\",\"d\",\"4\",\"e4\"\n");
+
+        List<String> keys = new ArrayList<>();
+        try (S3InventoryListing listing = new S3InventoryListing(null, dir.toString())) {
+            listing.forEachRemaining(object -> keys.add(object.key()));
+        }
+        assertEquals(List.of("a", "b", "c", "d"), keys);
+    }
+
+    @Test
+    void rejectsADataFileThatIsNotSorted() throws IOException {
+        write("\"production\",\"a\",\"1\",\"e1\"\n\"production\",\"c\",\"3\",\"e3\"\n",
+                "\"production\",\"d\",\"4\",\"e4\"\n\"production\",\"b\",\"2\",\"e2\"\n");
+
+        assertThrows(S3InventoryListing.UnsortedException.class, () -> new S3InventoryListing(null, dir.toString()));
+    }
+}
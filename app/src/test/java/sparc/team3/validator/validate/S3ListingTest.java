@@ -0,0 +1,55 @@
+package sparc.team3.validator.validate;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3ListingTest {
+    private static int compareUtf8(String a, String b) {
+        return Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void ordersSurrogatePairsAfterTheRestOfThePlane() {
+        // U+1F600 is a surrogate pair in UTF-16, which String.compareTo puts before U+FFFD
+        String emoji = "photos/\uD83D\uDE00.jpg";
+        String replacement = "photos/\uFFFD.jpg";
+
+        assertTrue(emoji.compareTo(replacement) < 0);
+        assertTrue(S3Listing.KEY_ORDER.compare(replacement, emoji) < 0);
+        assertTrue(S3Listing.KEY_ORDER.compare(emoji, replacement) > 0);
+        assertTrue(compareUtf8(replacement, emoji) < 0);
+    }
+
+    @Test
+    void ordersPrefixesFirst() {
+        assertTrue(S3Listing.KEY_ORDER.compare("a", "a/") < 0);
+        assertTrue(S3Listing.KEY_ORDER.compare("a\uD83D\uDE00", "a") > 0);
+        assertEquals(0, S3Listing.KEY_ORDER.compare("a\uD83D\uDE00", "a\uD83D\uDE00"));
+    }
+
+    @Test
+    void matchesTheOrderOfUtf8Bytes() {
+        int[] codePoints = {'/', 'a', 'z', 0xE9, 0x4E2D, 0xFF5E, 0xFFFD, 0x1F600, 0x20000};
+        Random random = new Random(42);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder key = new StringBuilder();
+            for (int length = random.nextInt(6); length > 0; length--)
+                key.appendCodePoint(codePoints[random.nextInt(codePoints.length)]);
+            keys.add(key.toString());
+        }
+
+        for (int i = 0; i + 1 < keys.size(); i++) {
+            String a = keys.get(i);
+            String b = keys.get(i + 1);
+            assertEquals(Integer.signum(compareUtf8(a, b)), Integer.signum(S3Listing.KEY_ORDER.compare(a, b)), a + " vs " + b);
+        }
+    }
+}
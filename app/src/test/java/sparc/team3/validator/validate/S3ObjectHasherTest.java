@@ -0,0 +1,45 @@
+package sparc.team3.validator.validate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3ObjectHasherTest {
+    private static long crc32c(byte[] data, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+
+    @Test
+    void combinesToTheSinglePassCrc32c() {
+        Random random = new Random(7);
+        byte[] data = new byte[1 << 16];
+        random.nextBytes(data);
+
+        for (int split : new int[]{0, 1, 3, 4096, 12345, data.length - 1, data.length}) {
+            long first = crc32c(data, 0, split);
+            long second = crc32c(data, split, data.length - split);
+            assertEquals(crc32c(data, 0, data.length), S3ObjectHasher.crc32cCombine(first, second, data.length - split),
+                    "split at " + split);
+        }
+    }
+
+    @Test
+    void combinesManyParts() {
+        Random random = new Random(11);
+        byte[] data = new byte[100_000];
+        random.nextBytes(data);
+
+        int partSize = 8191;
+        long crc = 0;
+        for (int offset = 0; offset < data.length; offset += partSize) {
+            int length = Math.min(partSize, data.length - offset);
+            crc = S3ObjectHasher.crc32cCombine(crc, crc32c(data, offset, length), length);
+        }
+        assertEquals(crc32c(data, 0, data.length), crc);
+    }
+}
@@ -0,0 +1,81 @@
+package sparc.team3.validator.validate;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3SampleTest {
+    private static final int PREFIXES = 10;
+
+    private static S3Sample offered(int sampleSize, int objects) {
+        S3Sample sample = new S3Sample(sampleSize, 1234);
+        for (int i = 0; i < objects; i++) {
+            S3Object object = S3Object.builder()
+                    .key(String.format("p%d/%08d", i * PREFIXES / objects, i))
+                    .size(1024L)
+                    .build();
+            sample.offer(new S3Manifest.Entry(object, null, false), object);
+            assertTrue(sample.held() <= 2 * sampleSize, "held " + sample.held() + " after " + (i + 1));
+        }
+        return sample;
+    }
+
+    @Test
+    void holdsTwiceTheSampleSize() {
+        assertEquals(200, offered(100, 100_000).held());
+    }
+
+    @Test
+    void drawsTheSampleSizeInProportion() {
+        List<S3Sample.Pair> drawn = offered(100, 100_000).draw();
+
+        assertEquals(100, drawn.size());
+        Map<String, Integer> perStratum = new HashMap<>();
+        for (S3Sample.Pair pair : drawn)
+            perStratum.merge(pair.stratum, 1, Integer::sum);
+        assertEquals(PREFIXES, perStratum.size());
+        for (int count : perStratum.values())
+            assertEquals(100 / PREFIXES, count);
+    }
+
+    @Test
+    void drawsEverythingFromASmallPopulation() {
+        assertEquals(30, offered(100, 30).draw().size());
+    }
+
+    @Test
+    void estimatesTheRateWithinItsInterval() {
+        S3Sample sample = offered(1000, 50_000);
+        List<S3Sample.Pair> drawn = sample.draw();
+        int mismatched = 0;
+        for (int i = 0; i < drawn.size(); i++) {
+            boolean mismatch = i % 10 == 0;
+            sample.result(drawn.get(i), mismatch);
+            if (mismatch)
+                mismatched++;
+        }
+
+        String estimate = sample.estimate();
+        assertTrue(estimate.startsWith("sampled 1000 of 50000 undecided objects"), estimate);
+        assertTrue(estimate.contains(", " + mismatched + " corrupt"), estimate);
+    }
+
+    @Test
+    void wilsonIntervalContainsTheRate() {
+        double[] interval = S3Sample.wilson(0.1, 1000);
+        assertTrue(interval[0] < 0.1 && 0.1 < interval[1]);
+        assertEquals(0.0829, interval[0], 0.0005);
+        assertEquals(0.1202, interval[1], 0.0005);
+
+        // unlike the normal approximation, no corrupt objects still leaves room for some
+        interval = S3Sample.wilson(0, 100);
+        assertEquals(0, interval[0], 1e-9);
+        assertTrue(interval[1] > 0.03);
+        assertEquals(1, S3Sample.wilson(1, 100)[1], 1e-9);
+    }
+}